@@ -10,6 +10,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -65,21 +67,36 @@ public class Fx {
     }
 
     public final String generateBlock(BlockBean bean, String var2) {
-        ArrayList<String> params = getBlockParams(bean);
-
-        String opcode = getBlockCode(bean, params);
-
-        String code = opcode;
-
-        if (b(bean.opCode, var2)) {
-            code = "(" + opcode + ")";
-        }
+        // Walks the chain of next blocks iteratively, so that long chains neither
+        // recurse deeply nor copy the code generated so far for every block.
+        StringBuilder code = new StringBuilder();
+        while (true) {
+            ArrayList<String> params = getBlockParams(bean);
+
+            String opcode = getBlockCode(bean, params);
+
+            boolean isEmpty = opcode.isEmpty();
+            if (b(bean.opCode, var2)) {
+                code.append('(').append(opcode).append(')');
+                isEmpty = false;
+            } else {
+                code.append(opcode);
+            }
 
-        if (bean.nextBlock >= 0) {
-            code += (code.isEmpty() ? "" : "\r\n") + a(String.valueOf(bean.nextBlock), moreBlock);
+            if (bean.nextBlock < 0) {
+                break;
+            }
+            if (!isEmpty) {
+                code.append("\r\n");
+            }
+            bean = blockMap.get(String.valueOf(bean.nextBlock));
+            if (bean == null) {
+                break;
+            }
+            var2 = moreBlock;
         }
 
-        return code;
+        return code.toString();
     }
 
     private boolean hasEmptySelectorParam(ArrayList<String> params, String spec) {
@@ -219,7 +236,7 @@ public class Fx {
                 attr = param.substring("getMaterialColor(".length(), param.length() - 1);
             }
             if (attr != null) {
-                return String.format("SketchwareUtil.getMaterialColor(%s, %s)", context, attr);
+                return format("SketchwareUtil.getMaterialColor(%s, %s)", context, attr);
             }
         }
         return param;
@@ -285,97 +302,97 @@ public class Fx {
                 opcode = "getString(R.string." + bean.spec + ")";
                 break;
             case "setVarBoolean", "setVarInt", "setVarString":
-                opcode = String.format("%s = %s;", params.get(0), params.get(1));
+                opcode = format("%s = %s;", params.get(0), params.get(1));
                 break;
             case "increaseInt":
-                opcode = String.format("%s++;", params.get(0));
+                opcode = format("%s++;", params.get(0));
                 break;
             case "decreaseInt":
-                opcode = String.format("%s--;", params.get(0));
+                opcode = format("%s--;", params.get(0));
                 break;
             case "mapCreateNew":
-                opcode = String.format("%s = new HashMap<>();", params.get(0));
+                opcode = format("%s = new HashMap<>();", params.get(0));
                 break;
             case "mapPut":
-                opcode = String.format("%s.put(%s, %s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.put(%s, %s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "mapGet":
-                opcode = String.format("%s.get(%s).toString()", params.get(0), params.get(1));
+                opcode = format("%s.get(%s).toString()", params.get(0), params.get(1));
                 break;
             case "mapContainKey":
-                opcode = String.format("%s.containsKey(%s)", params.get(0), params.get(1));
+                opcode = format("%s.containsKey(%s)", params.get(0), params.get(1));
                 break;
             case "mapRemoveKey":
-                opcode = String.format("%s.remove(%s);", params.get(0), params.get(1));
+                opcode = format("%s.remove(%s);", params.get(0), params.get(1));
                 break;
             case "mapSize", "lengthList":
-                opcode = String.format("%s.size()", params.get(0));
+                opcode = format("%s.size()", params.get(0));
                 break;
             case "mapClear", "clearList":
-                opcode = String.format("%s.clear();", params.get(0));
+                opcode = format("%s.clear();", params.get(0));
                 break;
             case "mapIsEmpty":
-                opcode = String.format("%s.isEmpty()", params.get(0));
+                opcode = format("%s.isEmpty()", params.get(0));
                 break;
             case "mapGetAllKeys":
-                opcode = String.format("SketchwareUtil.getAllKeysFromMap(%s, %s);", params.get(0), params.get(1));
+                opcode = format("SketchwareUtil.getAllKeysFromMap(%s, %s);", params.get(0), params.get(1));
                 break;
             case "addListInt":
-                opcode = String.format("%s.add(Double.valueOf(%s));", params.get(1), params.get(0));
+                opcode = format("%s.add(Double.valueOf(%s));", params.get(1), params.get(0));
                 break;
             case "insertListInt":
-                opcode = String.format("%s.add((int)(%s), Double.valueOf(%s));", params.get(2), params.get(1), params.get(0));
+                opcode = format("%s.add((int)(%s), Double.valueOf(%s));", params.get(2), params.get(1), params.get(0));
                 break;
             case "getAtListInt":
-                opcode = String.format("%s.get((int)(%s)).doubleValue()", params.get(1), params.get(0));
+                opcode = format("%s.get((int)(%s)).doubleValue()", params.get(1), params.get(0));
                 break;
             case "indexListInt", "indexListStr":
-                opcode = String.format("%s.indexOf(%s)", params.get(1), params.get(0));
+                opcode = format("%s.indexOf(%s)", params.get(1), params.get(0));
                 break;
             case "containListInt", "containListStr":
-                opcode = String.format("%s.contains(%s)", params.get(0), params.get(1));
+                opcode = format("%s.contains(%s)", params.get(0), params.get(1));
                 break;
             case "addListStr", "addMapToList":
-                opcode = String.format("%s.add(%s);", params.get(1), params.get(0));
+                opcode = format("%s.add(%s);", params.get(1), params.get(0));
                 break;
             case "insertListStr":
-                opcode = String.format("%s.add((int)(%s), %s);", params.get(2), params.get(1), params.get(0));
+                opcode = format("%s.add((int)(%s), %s);", params.get(2), params.get(1), params.get(0));
                 break;
             case "getAtListStr":
-                opcode = String.format("%s.get((int)(%s))", params.get(1), params.get(0));
+                opcode = format("%s.get((int)(%s))", params.get(1), params.get(0));
                 break;
             case "addListMap":
-                opcode = String.format("{\r\nHashMap<String, Object> _item = new HashMap<>();\r\n_item.put(%s, %s);\r\n%s.add(_item);\r\n}", params.get(0), params.get(1), params.get(2));
+                opcode = format("{\r\nHashMap<String, Object> _item = new HashMap<>();\r\n_item.put(%s, %s);\r\n%s.add(_item);\r\n}", params.get(0), params.get(1), params.get(2));
                 break;
             case "insertListMap":
-                opcode = String.format("{\r\nHashMap<String, Object> _item = new HashMap<>();\r\n_item.put(%s, %s);\r\n%s.add((int)%s, _item);\r\n}", params.get(0), params.get(1), params.get(3), params.get(2));
+                opcode = format("{\r\nHashMap<String, Object> _item = new HashMap<>();\r\n_item.put(%s, %s);\r\n%s.add((int)%s, _item);\r\n}", params.get(0), params.get(1), params.get(3), params.get(2));
                 break;
             case "getAtListMap":
-                opcode = String.format("%s.get((int)%s).get(%s).toString()", params.get(2), params.get(0), params.get(1));
+                opcode = format("%s.get((int)%s).get(%s).toString()", params.get(2), params.get(0), params.get(1));
                 break;
             case "setListMap":
-                opcode = String.format("%s.get((int)%s).put(%s, %s);", params.get(3), params.get(2), params.get(0), params.get(1));
+                opcode = format("%s.get((int)%s).put(%s, %s);", params.get(3), params.get(2), params.get(0), params.get(1));
                 break;
             case "containListMap":
-                opcode = String.format("%s.get((int)%s).containsKey(%s)", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.get((int)%s).containsKey(%s)", params.get(0), params.get(1), params.get(2));
                 break;
             case "insertMapToList":
-                opcode = String.format("%s.add((int)%s, %s);", params.get(2), params.get(1), params.get(0));
+                opcode = format("%s.add((int)%s, %s);", params.get(2), params.get(1), params.get(0));
 
                 break;
             case "getMapInList":
-                opcode = String.format("%s = %s.get((int)%s);", params.get(2), params.get(1), params.get(0));
+                opcode = format("%s = %s.get((int)%s);", params.get(2), params.get(1), params.get(0));
                 break;
             case "deleteList":
-                opcode = String.format("%s.remove((int)(%s));", params.get(1), params.get(0));
+                opcode = format("%s.remove((int)(%s));", params.get(1), params.get(0));
                 break;
             case "forever":
                 int stack = bean.subStack1;
-                opcode = String.format("while(true) {\r\n%s\r\n}", stack >= 0 ? a(String.valueOf(stack), "") : "");
+                opcode = format("while(true) {\r\n%s\r\n}", stack >= 0 ? a(String.valueOf(stack), "") : "");
                 break;
             case "repeat":
                 stack = bean.subStack1;
-                opcode = String.format("""
+                opcode = format("""
                                 for(int _repeat%s = 0; _repeat%s < (int)(%s); _repeat%s++) {
                                 %s
                                 }""",
@@ -384,14 +401,14 @@ public class Fx {
                 break;
             case "if":
                 stack = bean.subStack1;
-                opcode = String.format("if (%s) {\r\n%s\r\n}", params.get(0), stack >= 0 ? a(String.valueOf(stack), "") : "");
+                opcode = format("if (%s) {\r\n%s\r\n}", params.get(0), stack >= 0 ? a(String.valueOf(stack), "") : "");
                 break;
             case "ifElse":
                 stack = bean.subStack1;
                 String ifBlock = stack >= 0 ? a(String.valueOf(stack), "") : "";
                 stack = bean.subStack2;
                 String elseBlock = stack >= 0 ? a(String.valueOf(stack), "") : "";
-                opcode = String.format("if (%s) {\r\n%s\r\n} else {\r\n%s\r\n}", params.get(0), ifBlock, elseBlock);
+                opcode = format("if (%s) {\r\n%s\r\n} else {\r\n%s\r\n}", params.get(0), ifBlock, elseBlock);
                 break;
             case "break":
                 opcode = "break;";
@@ -401,7 +418,7 @@ public class Fx {
                 opcode = bean.opCode;
                 break;
             case "not":
-                opcode = String.format("!%s", params.get(0));
+                opcode = format("!%s", params.get(0));
                 break;
             case "+":
             case "-":
@@ -410,90 +427,90 @@ public class Fx {
             case "%":
             case ">":
             case "<":
-                opcode = String.format("%s %s %s", params.get(0), bean.opCode, params.get(1));
+                opcode = format("%s %s %s", params.get(0), bean.opCode, params.get(1));
                 break;
             case "=":
-                opcode = String.format("%s == %s", params.get(0), params.get(1));
+                opcode = format("%s == %s", params.get(0), params.get(1));
                 break;
             case "&&":
             case "||":
-                opcode = String.format("%s %s %s", params.get(0), bean.opCode, params.get(1));
+                opcode = format("%s %s %s", params.get(0), bean.opCode, params.get(1));
                 break;
             case "random":
-                opcode = String.format("SketchwareUtil.getRandom((int)(%s), (int)(%s))", params.get(0), params.get(1));
+                opcode = format("SketchwareUtil.getRandom((int)(%s), (int)(%s))", params.get(0), params.get(1));
                 break;
             case "stringLength":
-                opcode = String.format("%s.length()", params.get(0));
+                opcode = format("%s.length()", params.get(0));
                 break;
             case "stringJoin":
-                opcode = String.format("%s.concat(%s)", params.get(0), params.get(1));
+                opcode = format("%s.concat(%s)", params.get(0), params.get(1));
                 break;
             case "stringIndex":
-                opcode = String.format("%s.indexOf(%s)", params.get(1), params.get(0));
+                opcode = format("%s.indexOf(%s)", params.get(1), params.get(0));
                 break;
             case "stringLastIndex":
-                opcode = String.format("%s.lastIndexOf(%s)", params.get(1), params.get(0));
+                opcode = format("%s.lastIndexOf(%s)", params.get(1), params.get(0));
                 break;
             case "stringSub":
-                opcode = String.format("%s.substring((int)(%s), (int)(%s))", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.substring((int)(%s), (int)(%s))", params.get(0), params.get(1), params.get(2));
                 break;
             case "stringEquals":
-                opcode = String.format("%s.equals(%s)", params.get(0), params.get(1));
+                opcode = format("%s.equals(%s)", params.get(0), params.get(1));
                 break;
             case "stringContains":
-                opcode = String.format("%s.contains(%s)", params.get(0), params.get(1));
+                opcode = format("%s.contains(%s)", params.get(0), params.get(1));
                 break;
             case "stringReplace":
-                opcode = String.format("%s.replace(%s, %s)", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.replace(%s, %s)", params.get(0), params.get(1), params.get(2));
                 break;
             case "stringReplaceFirst":
-                opcode = String.format("%s.replaceFirst(%s, %s)", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.replaceFirst(%s, %s)", params.get(0), params.get(1), params.get(2));
                 break;
             case "stringReplaceAll":
-                opcode = String.format("%s.replaceAll(%s, %s)", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.replaceAll(%s, %s)", params.get(0), params.get(1), params.get(2));
                 break;
             case "toNumber":
                 String doub = params.get(0);
                 doub = (!doub.equals("\"\"")) ? doub : "\"0\"";
-                opcode = String.format("Double.parseDouble(%s)", doub);
+                opcode = format("Double.parseDouble(%s)", doub);
                 break;
             case "currentTime":
                 opcode = "System.currentTimeMillis()";
                 break;
             case "trim":
-                opcode = String.format("%s.trim()", params.get(0));
+                opcode = format("%s.trim()", params.get(0));
                 break;
             case "toUpperCase":
-                opcode = String.format("%s.toUpperCase()", params.get(0));
+                opcode = format("%s.toUpperCase()", params.get(0));
                 break;
             case "toLowerCase":
-                opcode = String.format("%s.toLowerCase()", params.get(0));
+                opcode = format("%s.toLowerCase()", params.get(0));
                 break;
             case "toString":
-                opcode = String.format("String.valueOf((long)(%s))", params.get(0));
+                opcode = format("String.valueOf((long)(%s))", params.get(0));
                 break;
             case "toStringWithDecimal":
-                opcode = String.format("String.valueOf(%s)", params.get(0));
+                opcode = format("String.valueOf(%s)", params.get(0));
                 break;
             case "toStringFormat":
-                opcode = String.format("new DecimalFormat(%s).format(%s)", params.get(1), params.get(0));
+                opcode = format("new DecimalFormat(%s).format(%s)", params.get(1), params.get(0));
                 break;
             case "addSourceDirectly":
                 String asd = bean.parameters.get(0);
                 opcode = (asd != null) ? asd : opcode;
                 break;
             case "strToMap":
-                opcode = String.format("%s = new Gson().fromJson(%s, new TypeToken<HashMap<String, Object>>(){}.getType());", params.get(1), params.get(0));
+                opcode = format("%s = new Gson().fromJson(%s, new TypeToken<HashMap<String, Object>>(){}.getType());", params.get(1), params.get(0));
                 break;
             case "mapToStr", "listMapToStr":
-                opcode = String.format("new Gson().toJson(%s)", params.get(0));
+                opcode = format("new Gson().toJson(%s)", params.get(0));
                 break;
             case "strToListMap":
-                opcode = String.format("%s = new Gson().fromJson(%s, new TypeToken<ArrayList<HashMap<String, Object>>>(){}.getType());", params.get(1), params.get(0));
+                opcode = format("%s = new Gson().fromJson(%s, new TypeToken<ArrayList<HashMap<String, Object>>>(){}.getType());", params.get(1), params.get(0));
 
                 break;
             case "mathGetDip":
-                opcode = String.format("SketchwareUtil.getDip(getApplicationContext(), (int)(%s))", params.get(0));
+                opcode = format("SketchwareUtil.getDip(getApplicationContext(), (int)(%s))", params.get(0));
                 break;
             case "mathGetDisplayWidth":
                 opcode = "SketchwareUtil.getDisplayWidthPixels(getApplicationContext())";
@@ -508,65 +525,65 @@ public class Fx {
                 opcode = "Math.E";
                 break;
             case "mathPow":
-                opcode = String.format("Math.pow(%s, %s)", params.get(0), params.get(1));
+                opcode = format("Math.pow(%s, %s)", params.get(0), params.get(1));
                 break;
             case "mathMin":
-                opcode = String.format("Math.min(%s, %s)", params.get(0), params.get(1));
+                opcode = format("Math.min(%s, %s)", params.get(0), params.get(1));
                 break;
             case "mathMax":
-                opcode = String.format("Math.max(%s, %s)", params.get(0), params.get(1));
+                opcode = format("Math.max(%s, %s)", params.get(0), params.get(1));
                 break;
             case "mathSqrt":
-                opcode = String.format("Math.sqrt(%s)", params.get(0));
+                opcode = format("Math.sqrt(%s)", params.get(0));
                 break;
             case "mathAbs":
-                opcode = String.format("Math.abs(%s)", params.get(0));
+                opcode = format("Math.abs(%s)", params.get(0));
                 break;
             case "mathRound":
-                opcode = String.format("Math.round(%s)", params.get(0));
+                opcode = format("Math.round(%s)", params.get(0));
                 break;
             case "mathCeil":
-                opcode = String.format("Math.ceil(%s)", params.get(0));
+                opcode = format("Math.ceil(%s)", params.get(0));
                 break;
             case "mathFloor":
-                opcode = String.format("Math.floor(%s)", params.get(0));
+                opcode = format("Math.floor(%s)", params.get(0));
                 break;
             case "mathSin":
-                opcode = String.format("Math.sin(%s)", params.get(0));
+                opcode = format("Math.sin(%s)", params.get(0));
                 break;
             case "mathCos":
-                opcode = String.format("Math.cos(%s)", params.get(0));
+                opcode = format("Math.cos(%s)", params.get(0));
                 break;
             case "mathTan":
-                opcode = String.format("Math.tan(%s)", params.get(0));
+                opcode = format("Math.tan(%s)", params.get(0));
                 break;
             case "mathAsin":
-                opcode = String.format("Math.asin(%s)", params.get(0));
+                opcode = format("Math.asin(%s)", params.get(0));
                 break;
             case "mathAcos":
-                opcode = String.format("Math.acos(%s)", params.get(0));
+                opcode = format("Math.acos(%s)", params.get(0));
                 break;
             case "mathAtan":
-                opcode = String.format("Math.atan(%s)", params.get(0));
+                opcode = format("Math.atan(%s)", params.get(0));
                 break;
             case "mathExp":
-                opcode = String.format("Math.exp(%s)", params.get(0));
+                opcode = format("Math.exp(%s)", params.get(0));
                 break;
             case "mathLog":
-                opcode = String.format("Math.log(%s)", params.get(0));
+                opcode = format("Math.log(%s)", params.get(0));
                 break;
             case "mathLog10":
-                opcode = String.format("Math.log10(%s)", params.get(0));
+                opcode = format("Math.log10(%s)", params.get(0));
                 break;
             case "mathToRadian":
-                opcode = String.format("Math.toRadians(%s)", params.get(0));
+                opcode = format("Math.toRadians(%s)", params.get(0));
                 break;
             case "mathToDegree":
-                opcode = String.format("Math.toDegrees(%s)", params.get(0));
+                opcode = format("Math.toDegrees(%s)", params.get(0));
                 break;
             case "viewOnClick":
                 String listener = bean.subStack1 >= 0 ? a(String.valueOf(bean.subStack1), "") : "";
-                opcode = String.format("%s.setOnClickListener(new View.OnClickListener() {\n@Override\npublic void onClick(View _view) {\n%s\n}\n});", params.get(0), listener);
+                opcode = format("%s.setOnClickListener(new View.OnClickListener() {\n@Override\npublic void onClick(View _view) {\n%s\n}\n});", params.get(0), listener);
                 break;
             case "isDrawerOpen":
                 if (buildConfig.a(activityName).hasDrawer) {
@@ -590,13 +607,13 @@ public class Fx {
                 }
                 break;
             case "setEnable":
-                opcode = String.format("%s.setEnabled(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setEnabled(%s);", params.get(0), params.get(1));
                 break;
             case "getEnable":
-                opcode = String.format("%s.isEnabled()", params.get(0));
+                opcode = format("%s.isEnabled()", params.get(0));
                 break;
             case "setText":
-                opcode = String.format("%s.setText(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setText(%s);", params.get(0), params.get(1));
                 break;
             case "setTypeface":
                 String textStyle = params.get(2);
@@ -609,156 +626,156 @@ public class Fx {
                 }
                 String fontName = params.get(1);
                 if ("default_font".equals(fontName)) {
-                    opcode = String.format("%s.setTypeface(Typeface.DEFAULT, %s);", params.get(0), opcode);
+                    opcode = format("%s.setTypeface(Typeface.DEFAULT, %s);", params.get(0), opcode);
                 } else {
-                    opcode = String.format("%s.setTypeface(Typeface.createFromAsset(getAssets(),\"fonts/%s.ttf\"), %s);", params.get(0), fontName, opcode);
+                    opcode = format("%s.setTypeface(Typeface.createFromAsset(getAssets(),\"fonts/%s.ttf\"), %s);", params.get(0), fontName, opcode);
                 }
                 break;
             case "getText":
-                opcode = String.format("%s.getText().toString()", params.get(0));
+                opcode = format("%s.getText().toString()", params.get(0));
                 break;
             case "setBgColor":
-                opcode = String.format("%s.setBackgroundColor(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setBackgroundColor(%s);", params.get(0), params.get(1));
                 break;
             case "setBgResource":
                 opcode = params.get(1).equals("NONE") ? "0" : "R.drawable." + params.get(1).replaceAll("\\.9", "");
-                opcode = String.format("%s.setBackgroundResource(%s);", params.get(0), opcode);
+                opcode = format("%s.setBackgroundResource(%s);", params.get(0), opcode);
                 break;
             case "setTextColor":
-                opcode = String.format("%s.setTextColor(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setTextColor(%s);", params.get(0), params.get(1));
                 break;
             case "setImage":
                 String name = params.get(1).replaceAll("\\.9", "");
-                opcode = String.format("%s.setImageResource(R.drawable.%s);", params.get(0), name.toLowerCase());
+                opcode = format("%s.setImageResource(R.drawable.%s);", params.get(0), name.toLowerCase());
                 break;
             case "setColorFilter":
-                opcode = String.format("%s.setColorFilter(%s, PorterDuff.Mode.MULTIPLY);", params.get(0), params.get(1));
+                opcode = format("%s.setColorFilter(%s, PorterDuff.Mode.MULTIPLY);", params.get(0), params.get(1));
                 break;
             case "requestFocus":
-                opcode = String.format("%s.requestFocus();", params.get(0));
+                opcode = format("%s.requestFocus();", params.get(0));
                 break;
             case "doToast":
-                opcode = String.format("SketchwareUtil.showMessage(getApplicationContext(), %s);", params.get(0));
+                opcode = format("SketchwareUtil.showMessage(getApplicationContext(), %s);", params.get(0));
                 break;
             case "copyToClipboard":
-                opcode = String.format("((ClipboardManager) getSystemService(getApplicationContext().CLIPBOARD_SERVICE)).setPrimaryClip(ClipData.newPlainText(\"clipboard\", %s));", params.get(0));
+                opcode = format("((ClipboardManager) getSystemService(getApplicationContext().CLIPBOARD_SERVICE)).setPrimaryClip(ClipData.newPlainText(\"clipboard\", %s));", params.get(0));
                 break;
             case "setTitle":
-                opcode = String.format("setTitle(%s);", params.get(0));
+                opcode = format("setTitle(%s);", params.get(0));
                 break;
             case "intentSetAction":
-                opcode = String.format("%s.setAction(%s);", params.get(0), (params.get(1).equals("\"\"") ? "" : "Intent." + params.get(1)));
+                opcode = format("%s.setAction(%s);", params.get(0), (params.get(1).equals("\"\"") ? "" : "Intent." + params.get(1)));
                 break;
             case "intentSetData":
-                opcode = String.format("%s.setData(Uri.parse(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setData(Uri.parse(%s));", params.get(0), params.get(1));
                 break;
             case "intentSetScreen":
-                opcode = String.format("%s.setClass(getApplicationContext(), %s.class);", params.get(0), params.get(1));
+                opcode = format("%s.setClass(getApplicationContext(), %s.class);", params.get(0), params.get(1));
                 break;
             case "intentPutExtra":
-                opcode = String.format("%s.putExtra(%s, %s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.putExtra(%s, %s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "intentSetFlags":
-                opcode = String.format("%s.setFlags(%s);", params.get(0), "Intent.FLAG_ACTIVITY_" + params.get(1));
+                opcode = format("%s.setFlags(%s);", params.get(0), "Intent.FLAG_ACTIVITY_" + params.get(1));
                 break;
             case "intentGetString":
-                opcode = String.format("getIntent().getStringExtra(%s)", params.get(0));
+                opcode = format("getIntent().getStringExtra(%s)", params.get(0));
                 break;
             case "startActivity":
-                opcode = String.format("startActivity(%s);", params.get(0));
+                opcode = format("startActivity(%s);", params.get(0));
                 break;
             case "finishActivity":
                 opcode = "finish();";
                 break;
             case "fileSetFileName":
-                opcode = String.format("%s = getApplicationContext().getSharedPreferences(%s, Activity.MODE_PRIVATE);", params.get(0), params.get(1));
+                opcode = format("%s = getApplicationContext().getSharedPreferences(%s, Activity.MODE_PRIVATE);", params.get(0), params.get(1));
                 break;
             case "fileGetData":
-                opcode = String.format("%s.getString(%s, \"\")", params.get(0), params.get(1));
+                opcode = format("%s.getString(%s, \"\")", params.get(0), params.get(1));
                 break;
             case "fileSetData":
-                opcode = String.format("%s.edit().putString(%s, %s).commit();", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.edit().putString(%s, %s).commit();", params.get(0), params.get(1), params.get(2));
                 break;
             case "fileRemoveData":
-                opcode = String.format("%s.edit().remove(%s).commit();", params.get(0), params.get(1));
+                opcode = format("%s.edit().remove(%s).commit();", params.get(0), params.get(1));
                 break;
             case "calendarGetNow":
-                opcode = String.format("%s = Calendar.getInstance();", params.get(0));
+                opcode = format("%s = Calendar.getInstance();", params.get(0));
                 break;
             case "calendarAdd":
-                opcode = String.format("%s.add(Calendar.%s, (int)(%s));", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.add(Calendar.%s, (int)(%s));", params.get(0), params.get(1), params.get(2));
                 break;
             case "calendarSet":
-                opcode = String.format("%s.set(Calendar.%s, (int)(%s));", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.set(Calendar.%s, (int)(%s));", params.get(0), params.get(1), params.get(2));
                 break;
             case "calendarFormat":
-                opcode = String.format("new SimpleDateFormat(%s).format(%s.getTime())", (!params.get(1).equals("\"\"")) ? params.get(1) : "\"yyyy/MM/dd hh:mm:ss\"", params.get(0));
+                opcode = format("new SimpleDateFormat(%s).format(%s.getTime())", (!params.get(1).equals("\"\"")) ? params.get(1) : "\"yyyy/MM/dd hh:mm:ss\"", params.get(0));
                 break;
             case "calendarDiff":
-                opcode = String.format("(long)(%s.getTimeInMillis() - %s.getTimeInMillis())", params.get(0), params.get(1));
+                opcode = format("(long)(%s.getTimeInMillis() - %s.getTimeInMillis())", params.get(0), params.get(1));
                 break;
             case "calendarGetTime":
-                opcode = String.format("%s.getTimeInMillis()", params.get(0));
+                opcode = format("%s.getTimeInMillis()", params.get(0));
                 break;
             case "calendarSetTime":
-                opcode = String.format("%s.setTimeInMillis((long)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setTimeInMillis((long)(%s));", params.get(0), params.get(1));
                 break;
             case "setVisible":
-                opcode = String.format("%s.setVisibility(View.%s);", params.get(0), params.get(1));
+                opcode = format("%s.setVisibility(View.%s);", params.get(0), params.get(1));
                 break;
             case "setClickable":
-                opcode = String.format("%s.setClickable(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setClickable(%s);", params.get(0), params.get(1));
                 break;
             case "setRotate":
-                opcode = String.format("%s.setRotation((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setRotation((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getRotate":
-                opcode = String.format("%s.getRotation()", params.get(0));
+                opcode = format("%s.getRotation()", params.get(0));
                 break;
             case "setAlpha":
-                opcode = String.format("%s.setAlpha((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setAlpha((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getAlpha":
-                opcode = String.format("%s.getAlpha()", params.get(0));
+                opcode = format("%s.getAlpha()", params.get(0));
                 break;
             case "setTranslationX":
-                opcode = String.format("%s.setTranslationX((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setTranslationX((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getTranslationX":
-                opcode = String.format("%s.getTranslationX()", params.get(0));
+                opcode = format("%s.getTranslationX()", params.get(0));
                 break;
             case "setTranslationY":
-                opcode = String.format("%s.setTranslationY((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setTranslationY((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getTranslationY":
-                opcode = String.format("%s.getTranslationY()", params.get(0));
+                opcode = format("%s.getTranslationY()", params.get(0));
                 break;
             case "setScaleX":
-                opcode = String.format("%s.setScaleX((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setScaleX((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getScaleX":
-                opcode = String.format("%s.getScaleX()", params.get(0));
+                opcode = format("%s.getScaleX()", params.get(0));
                 break;
             case "setScaleY":
-                opcode = String.format("%s.setScaleY((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setScaleY((float)(%s));", params.get(0), params.get(1));
                 break;
             case "getScaleY":
-                opcode = String.format("%s.getScaleY()", params.get(0));
+                opcode = format("%s.getScaleY()", params.get(0));
                 break;
             case "getLocationX":
-                opcode = String.format("SketchwareUtil.getLocationX(%s)", params.get(0));
+                opcode = format("SketchwareUtil.getLocationX(%s)", params.get(0));
                 break;
             case "getLocationY":
-                opcode = String.format("SketchwareUtil.getLocationY(%s)", params.get(0));
+                opcode = format("SketchwareUtil.getLocationY(%s)", params.get(0));
                 break;
             case "setChecked":
-                opcode = String.format("%s.setChecked(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setChecked(%s);", params.get(0), params.get(1));
                 break;
             case "getChecked":
-                opcode = String.format("%s.isChecked()", params.get(0));
+                opcode = format("%s.isChecked()", params.get(0));
                 break;
             case "listSetData":
-                opcode = String.format("%s.setAdapter(new ArrayAdapter<String>(getBaseContext(), android.R.layout.simple_list_item_1, %s));", params.get(0), params.get(1));
+                opcode = format("%s.setAdapter(new ArrayAdapter<String>(getBaseContext(), android.R.layout.simple_list_item_1, %s));", params.get(0), params.get(1));
                 break;
             case "listSetCustomViewData":
             case "recyclerSetCustomViewData":
@@ -773,153 +790,153 @@ public class Fx {
                 if (isViewBindingEnabled && paramAdapter.startsWith("binding.")) {
                     paramAdapter = paramAdapter.substring("binding.".length());
                 }
-                opcode = String.format("%s.setAdapter(new %s(%s));", param, Lx.a(paramAdapter, isViewBindingEnabled), params.get(1));
+                opcode = format("%s.setAdapter(new %s(%s));", param, Lx.a(paramAdapter, isViewBindingEnabled), params.get(1));
                 break;
             case "listRefresh":
-                opcode = String.format("((BaseAdapter)%s.getAdapter()).notifyDataSetChanged();", params.get(0));
+                opcode = format("((BaseAdapter)%s.getAdapter()).notifyDataSetChanged();", params.get(0));
                 break;
             case "listSetItemChecked":
-                opcode = String.format("%s.setItemChecked((int)(%s), %s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.setItemChecked((int)(%s), %s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "listGetCheckedPosition":
-                opcode = String.format("%s.getCheckedItemPosition()", params.get(0));
+                opcode = format("%s.getCheckedItemPosition()", params.get(0));
                 break;
             case "listGetCheckedPositions":
-                opcode = String.format("%s = SketchwareUtil.getCheckedItemPositionsToArray(%s);", params.get(1), params.get(0));
+                opcode = format("%s = SketchwareUtil.getCheckedItemPositionsToArray(%s);", params.get(1), params.get(0));
                 break;
             case "listGetCheckedCount":
-                opcode = String.format("%s.getCheckedItemCount()", params.get(0));
+                opcode = format("%s.getCheckedItemCount()", params.get(0));
                 break;
             case "listSmoothScrollTo":
-                opcode = String.format("%s.smoothScrollToPosition((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.smoothScrollToPosition((int)(%s));", params.get(0), params.get(1));
                 break;
             case "spnSetData":
-                opcode = String.format("%s.setAdapter(new ArrayAdapter<String>(getBaseContext(), android.R.layout.simple_spinner_dropdown_item, %s));", params.get(0), params.get(1));
+                opcode = format("%s.setAdapter(new ArrayAdapter<String>(getBaseContext(), android.R.layout.simple_spinner_dropdown_item, %s));", params.get(0), params.get(1));
                 break;
             case "spnRefresh":
-                opcode = String.format("((ArrayAdapter)%s.getAdapter()).notifyDataSetChanged();", params.get(0));
+                opcode = format("((ArrayAdapter)%s.getAdapter()).notifyDataSetChanged();", params.get(0));
                 break;
             case "spnSetSelection":
-                opcode = String.format("%s.setSelection((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setSelection((int)(%s));", params.get(0), params.get(1));
                 break;
             case "spnGetSelection":
-                opcode = String.format("%s.getSelectedItemPosition()", params.get(0));
+                opcode = format("%s.getSelectedItemPosition()", params.get(0));
                 break;
             case "webViewLoadUrl":
-                opcode = String.format("%s.loadUrl(%s);", params.get(0), params.get(1));
+                opcode = format("%s.loadUrl(%s);", params.get(0), params.get(1));
                 break;
             case "webViewGetUrl":
-                opcode = String.format("%s.getUrl()", params.get(0));
+                opcode = format("%s.getUrl()", params.get(0));
                 break;
             case "webViewSetCacheMode":
-                opcode = String.format("%s.getSettings().setCacheMode(WebSettings.%s);", params.get(0), params.get(1));
+                opcode = format("%s.getSettings().setCacheMode(WebSettings.%s);", params.get(0), params.get(1));
                 break;
             case "webViewCanGoBack":
-                opcode = String.format("%s.canGoBack()", params.get(0));
+                opcode = format("%s.canGoBack()", params.get(0));
                 break;
             case "webViewCanGoForward":
-                opcode = String.format("%s.canGoForward()", params.get(0));
+                opcode = format("%s.canGoForward()", params.get(0));
                 break;
             case "webViewGoBack":
-                opcode = String.format("%s.goBack();", params.get(0));
+                opcode = format("%s.goBack();", params.get(0));
                 break;
             case "webViewGoForward":
-                opcode = String.format("%s.goForward();", params.get(0));
+                opcode = format("%s.goForward();", params.get(0));
                 break;
             case "webViewClearCache":
-                opcode = String.format("%s.clearCache(true);", params.get(0));
+                opcode = format("%s.clearCache(true);", params.get(0));
                 break;
             case "webViewClearHistory":
-                opcode = String.format("%s.clearHistory();", params.get(0));
+                opcode = format("%s.clearHistory();", params.get(0));
                 break;
             case "webViewStopLoading":
-                opcode = String.format("%s.stopLoading();", params.get(0));
+                opcode = format("%s.stopLoading();", params.get(0));
                 break;
             case "webViewZoomIn":
-                opcode = String.format("%s.zoomIn();", params.get(0));
+                opcode = format("%s.zoomIn();", params.get(0));
                 break;
             case "webViewZoomOut":
-                opcode = String.format("%s.zoomOut();", params.get(0));
+                opcode = format("%s.zoomOut();", params.get(0));
                 break;
             case "calendarViewGetDate":
-                opcode = String.format("%s.getDate()", params.get(0));
+                opcode = format("%s.getDate()", params.get(0));
                 break;
             case "calendarViewSetDate":
-                opcode = String.format("%s.setDate((long)(%s), true, true);", params.get(0), params.get(1));
+                opcode = format("%s.setDate((long)(%s), true, true);", params.get(0), params.get(1));
                 break;
             case "calendarViewSetMinDate":
-                opcode = String.format("%s.setMinDate((long)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setMinDate((long)(%s));", params.get(0), params.get(1));
                 break;
             case "calnedarViewSetMaxDate":
-                opcode = String.format("%s.setMaxDate((long)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setMaxDate((long)(%s));", params.get(0), params.get(1));
                 break;
             case "adViewLoadAd":
-                opcode = String.format("%s.loadAd(new AdRequest.Builder()%s.build());", params.get(0), buildConfig.t.stream().map(device -> ".addTestDevice(\"" + device + "\")\n").collect(Collectors.joining()));
+                opcode = format("%s.loadAd(new AdRequest.Builder()%s.build());", params.get(0), buildConfig.t.stream().map(device -> ".addTestDevice(\"" + device + "\")\n").collect(Collectors.joining()));
                 break;
             case "mapViewSetMapType":
-                opcode = String.format("_%s_controller.setMapType(GoogleMap.%s);", params.get(0), params.get(1));
+                opcode = format("_%s_controller.setMapType(GoogleMap.%s);", params.get(0), params.get(1));
                 break;
             case "mapViewMoveCamera":
-                opcode = String.format("_%s_controller.moveCamera(%s, %s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("_%s_controller.moveCamera(%s, %s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "mapViewZoomTo":
-                opcode = String.format("_%s_controller.zoomTo(%s);", params.get(0), params.get(1));
+                opcode = format("_%s_controller.zoomTo(%s);", params.get(0), params.get(1));
                 break;
             case "mapViewZoomIn":
-                opcode = String.format("_%s_controller.zoomIn();", params.get(0));
+                opcode = format("_%s_controller.zoomIn();", params.get(0));
                 break;
             case "mapViewZoomOut":
-                opcode = String.format("_%s_controller.zoomOut();", params.get(0));
+                opcode = format("_%s_controller.zoomOut();", params.get(0));
                 break;
             case "mapViewAddMarker":
-                opcode = String.format("_%s_controller.addMarker(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                opcode = format("_%s_controller.addMarker(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 break;
             case "mapViewSetMarkerInfo":
-                opcode = String.format("_%s_controller.setMarkerInfo(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                opcode = format("_%s_controller.setMarkerInfo(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 break;
             case "mapViewSetMarkerPosition":
-                opcode = String.format("_%s_controller.setMarkerPosition(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                opcode = format("_%s_controller.setMarkerPosition(%s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 break;
             case "mapViewSetMarkerColor":
-                opcode = String.format("_%s_controller.setMarkerColor(%s, BitmapDescriptorFactory.%s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                opcode = format("_%s_controller.setMarkerColor(%s, BitmapDescriptorFactory.%s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 break;
             case "mapViewSetMarkerIcon":
                 name = params.get(2).endsWith(".9") ? params.get(2).replaceAll("\\.9", "") : params.get(2);
-                opcode = String.format("_%s_controller.setMarkerIcon(%s, R.drawable.%s);", params.get(0), params.get(1), name.toLowerCase());
+                opcode = format("_%s_controller.setMarkerIcon(%s, R.drawable.%s);", params.get(0), params.get(1), name.toLowerCase());
                 break;
             case "mapViewSetMarkerVisible":
-                opcode = String.format("_%s_controller.setMarkerVisible(%s, %s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("_%s_controller.setMarkerVisible(%s, %s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "vibratorAction":
-                opcode = String.format("%s.vibrate((long)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.vibrate((long)(%s));", params.get(0), params.get(1));
                 break;
             case "timerAfter":
                 String onRun = (bean.subStack1 >= 0) ? a(String.valueOf(bean.subStack1), "") : "";
 
-                opcode = String.format("%s = new TimerTask() {\n@Override\npublic void run() {\nrunOnUiThread(new Runnable() {\n@Override\npublic void run() {\n%s\n}\n});\n}\n};\n_timer.schedule(%s, (int)(%s));", params.get(0), onRun, params.get(0), params.get(1));
+                opcode = format("%s = new TimerTask() {\n@Override\npublic void run() {\nrunOnUiThread(new Runnable() {\n@Override\npublic void run() {\n%s\n}\n});\n}\n};\n_timer.schedule(%s, (int)(%s));", params.get(0), onRun, params.get(0), params.get(1));
                 break;
             case "timerEvery":
                 onRun = (bean.subStack1 >= 0) ? a(String.valueOf(bean.subStack1), "") : "";
 
-                opcode = String.format("%s = new TimerTask() {\n@Override\npublic void run() {\nrunOnUiThread(new Runnable() {\n@Override\npublic void run() {\n%s\n}\n});\n}\n};\n_timer.scheduleAtFixedRate(%s, (int)(%s), (int)(%s));", params.get(0), onRun, params.get(0), params.get(1), params.get(2));
+                opcode = format("%s = new TimerTask() {\n@Override\npublic void run() {\nrunOnUiThread(new Runnable() {\n@Override\npublic void run() {\n%s\n}\n});\n}\n};\n_timer.scheduleAtFixedRate(%s, (int)(%s), (int)(%s));", params.get(0), onRun, params.get(0), params.get(1), params.get(2));
                 break;
             case "timerCancel":
-                opcode = String.format("%s.cancel();", params.get(0));
+                opcode = format("%s.cancel();", params.get(0));
                 break;
             case "firebaseAdd":
-                opcode = String.format("%s.child(%s).updateChildren(%s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.child(%s).updateChildren(%s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "firebasePush":
-                opcode = String.format("%s.push().updateChildren(%s);", params.get(0), params.get(1));
+                opcode = format("%s.push().updateChildren(%s);", params.get(0), params.get(1));
                 break;
             case "firebaseGetPushKey":
-                opcode = String.format("%s.push().getKey()", params.get(0));
+                opcode = format("%s.push().getKey()", params.get(0));
                 break;
             case "firebaseDelete":
-                opcode = String.format("%s.child(%s).removeValue();", params.get(0), params.get(1));
+                opcode = format("%s.child(%s).removeValue();", params.get(0), params.get(1));
                 break;
             case "firebaseGetChildren":
-                opcode = String.format("""
+                opcode = format("""
                         %s.addListenerForSingleValueEvent(new ValueEventListener() {
                         @Override
                         public void onDataChange(DataSnapshot _dataSnapshot) {
@@ -942,16 +959,16 @@ public class Fx {
                 break;
             case "firebaseauthCreateUser":
                 if (!params.get(1).equals("\"\"") && !params.get(2).equals("\"\"")) {
-                    opcode = String.format("%s.createUserWithEmailAndPassword(%s, %s).addOnCompleteListener(%s.this, %s);", params.get(0), params.get(1), params.get(2), activityName, "_" + params.get(0) + "_create_user_listener");
+                    opcode = format("%s.createUserWithEmailAndPassword(%s, %s).addOnCompleteListener(%s.this, %s);", params.get(0), params.get(1), params.get(2), activityName, "_" + params.get(0) + "_create_user_listener");
                 }
                 break;
             case "firebaseauthSignInUser":
                 if (!params.get(1).equals("\"\"") && !params.get(2).equals("\"\"")) {
-                    opcode = String.format("%s.signInWithEmailAndPassword(%s, %s).addOnCompleteListener(%s.this, %s);", params.get(0), params.get(1), params.get(2), activityName, "_" + params.get(0) + "_sign_in_listener");
+                    opcode = format("%s.signInWithEmailAndPassword(%s, %s).addOnCompleteListener(%s.this, %s);", params.get(0), params.get(1), params.get(2), activityName, "_" + params.get(0) + "_sign_in_listener");
                 }
                 break;
             case "firebaseauthSignInAnonymously":
-                opcode = String.format("%s.signInAnonymously().addOnCompleteListener(%s.this, %s);", params.get(0), activityName, "_" + params.get(0) + "_sign_in_listener");
+                opcode = format("%s.signInAnonymously().addOnCompleteListener(%s.this, %s);", params.get(0), activityName, "_" + params.get(0) + "_sign_in_listener");
                 break;
             case "firebaseauthIsLoggedIn":
                 opcode = "(FirebaseAuth.getInstance().getCurrentUser() != null)";
@@ -964,143 +981,143 @@ public class Fx {
                 break;
             case "firebaseauthResetPassword":
                 if (!params.get(1).equals("\"\"")) {
-                    opcode = String.format("%s.sendPasswordResetEmail(%s).addOnCompleteListener(%s);", params.get(0), params.get(1), "_" + params.get(0) + "_reset_password_listener");
+                    opcode = format("%s.sendPasswordResetEmail(%s).addOnCompleteListener(%s);", params.get(0), params.get(1), "_" + params.get(0) + "_reset_password_listener");
                 }
                 break;
             case "firebaseauthSignOutUser":
                 opcode = "FirebaseAuth.getInstance().signOut();";
                 break;
             case "firebaseStartListen":
-                opcode = String.format("%s.addChildEventListener(_%s_child_listener);", params.get(0), params.get(0));
+                opcode = format("%s.addChildEventListener(_%s_child_listener);", params.get(0), params.get(0));
                 break;
             case "firebaseStopListen":
-                opcode = String.format("%s.removeEventListener(_%s_child_listener);", params.get(0), params.get(0));
+                opcode = format("%s.removeEventListener(_%s_child_listener);", params.get(0), params.get(0));
                 break;
             case "gyroscopeStartListen":
-                opcode = String.format("%s.registerListener(_%s_sensor_listener, %s.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR), SensorManager.SENSOR_DELAY_NORMAL);", params.get(0), params.get(0), params.get(0));
+                opcode = format("%s.registerListener(_%s_sensor_listener, %s.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR), SensorManager.SENSOR_DELAY_NORMAL);", params.get(0), params.get(0), params.get(0));
                 break;
             case "gyroscopeStopListen":
-                opcode = String.format("%s.unregisterListener(_%s_sensor_listener);", params.get(0), params.get(0));
+                opcode = format("%s.unregisterListener(_%s_sensor_listener);", params.get(0), params.get(0));
                 break;
             case "dialogSetTitle":
-                opcode = String.format("%s.setTitle(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setTitle(%s);", params.get(0), params.get(1));
                 break;
             case "dialogSetMessage":
-                opcode = String.format("%s.setMessage(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setMessage(%s);", params.get(0), params.get(1));
                 break;
             case "dialogShow":
-                opcode = String.format("%s.create().show();", params.get(0));
+                opcode = format("%s.create().show();", params.get(0));
                 break;
             case "dialogOkButton":
                 String onClick = (bean.subStack1 >= 0) ? a(String.valueOf(bean.subStack1), "") : "";
 
-                opcode = String.format("%s.setPositiveButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
+                opcode = format("%s.setPositiveButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
                 break;
             case "dialogCancelButton":
                 onClick = (bean.subStack1 >= 0) ? a(String.valueOf(bean.subStack1), "") : "";
 
-                opcode = String.format("%s.setNegativeButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
+                opcode = format("%s.setNegativeButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
                 break;
             case "dialogNeutralButton":
                 onClick = (bean.subStack1 >= 0) ? a(String.valueOf(bean.subStack1), "") : "";
 
-                opcode = String.format("%s.setNeutralButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
+                opcode = format("%s.setNeutralButton(%s, new DialogInterface.OnClickListener() {\n@Override\npublic void onClick(DialogInterface _dialog, int _which) {\n%s\n}\n});", params.get(0), params.get(1), onClick);
                 break;
             case "mediaplayerCreate":
-                opcode = String.format("%s = MediaPlayer.create(getApplicationContext(), R.raw.%s);", params.get(0), params.get(1).toLowerCase());
+                opcode = format("%s = MediaPlayer.create(getApplicationContext(), R.raw.%s);", params.get(0), params.get(1).toLowerCase());
                 break;
             case "mediaplayerStart":
-                opcode = String.format("%s.start();", params.get(0));
+                opcode = format("%s.start();", params.get(0));
                 break;
             case "mediaplayerPause":
-                opcode = String.format("%s.pause();", params.get(0));
+                opcode = format("%s.pause();", params.get(0));
                 break;
             case "mediaplayerSeek":
-                opcode = String.format("%s.seekTo((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.seekTo((int)(%s));", params.get(0), params.get(1));
                 break;
             case "mediaplayerGetCurrent":
-                opcode = String.format("%s.getCurrentPosition()", params.get(0));
+                opcode = format("%s.getCurrentPosition()", params.get(0));
                 break;
             case "mediaplayerGetDuration":
-                opcode = String.format("%s.getDuration()", params.get(0));
+                opcode = format("%s.getDuration()", params.get(0));
                 break;
             case "mediaplayerReset":
-                opcode = String.format("%s.reset();", params.get(0));
+                opcode = format("%s.reset();", params.get(0));
                 break;
             case "mediaplayerRelease":
-                opcode = String.format("%s.release();", params.get(0));
+                opcode = format("%s.release();", params.get(0));
 
                 break;
             case "mediaplayerIsPlaying":
-                opcode = String.format("%s.isPlaying()", params.get(0));
+                opcode = format("%s.isPlaying()", params.get(0));
 
                 break;
             case "mediaplayerSetLooping":
-                opcode = String.format("%s.setLooping(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setLooping(%s);", params.get(0), params.get(1));
                 break;
             case "mediaplayerIsLooping":
-                opcode = String.format("%s.isLooping()", params.get(0));
+                opcode = format("%s.isLooping()", params.get(0));
                 break;
             case "soundpoolCreate":
-                opcode = String.format("%s = new SoundPool((int)(%s), AudioManager.STREAM_MUSIC, 0);", params.get(0), params.get(1));
+                opcode = format("%s = new SoundPool((int)(%s), AudioManager.STREAM_MUSIC, 0);", params.get(0), params.get(1));
                 break;
             case "soundpoolLoad":
-                opcode = String.format("%s.load(getApplicationContext(), R.raw.%s, 1);", params.get(0), params.get(1));
+                opcode = format("%s.load(getApplicationContext(), R.raw.%s, 1);", params.get(0), params.get(1));
                 break;
             case "soundpoolStreamPlay":
-                opcode = String.format("%s.play((int)(%s), 1.0f, 1.0f, 1, (int)(%s), 1.0f);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.play((int)(%s), 1.0f, 1.0f, 1, (int)(%s), 1.0f);", params.get(0), params.get(1), params.get(2));
 
                 break;
             case "soundpoolStreamStop":
-                opcode = String.format("%s.stop((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.stop((int)(%s));", params.get(0), params.get(1));
                 break;
             case "setThumbResource":
                 name = params.get(1).replaceAll("\\.9", "");
-                opcode = String.format("%s.setThumbResource(R.drawable.%s)", params.get(0), name.toLowerCase());
+                opcode = format("%s.setThumbResource(R.drawable.%s)", params.get(0), name.toLowerCase());
                 break;
             case "setTrackResource":
                 name = params.get(1).replaceAll("\\.9", "");
-                opcode = String.format("%s.setTrackResource(R.drawable.%s)", params.get(0), name.toLowerCase());
+                opcode = format("%s.setTrackResource(R.drawable.%s)", params.get(0), name.toLowerCase());
 
                 break;
             case "seekBarSetProgress":
-                opcode = String.format("%s.setProgress((int)%s);", params.get(0), params.get(1));
+                opcode = format("%s.setProgress((int)%s);", params.get(0), params.get(1));
 
                 break;
             case "seekBarGetProgress":
-                opcode = String.format("%s.getProgress()", params.get(0));
+                opcode = format("%s.getProgress()", params.get(0));
 
                 break;
             case "seekBarSetMax":
-                opcode = String.format("%s.setMax((int)%s);", params.get(0), params.get(1));
+                opcode = format("%s.setMax((int)%s);", params.get(0), params.get(1));
 
                 break;
             case "seekBarGetMax":
-                opcode = String.format("%s.getMax()", params.get(0));
+                opcode = format("%s.getMax()", params.get(0));
 
                 break;
             case "objectanimatorSetTarget":
-                opcode = String.format("%s.setTarget(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setTarget(%s);", params.get(0), params.get(1));
 
                 break;
             case "objectanimatorSetProperty":
-                opcode = String.format("%s.setPropertyName(\"%s\");", params.get(0), params.get(1));
+                opcode = format("%s.setPropertyName(\"%s\");", params.get(0), params.get(1));
                 break;
             case "objectanimatorSetValue":
-                opcode = String.format("%s.setFloatValues((float)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setFloatValues((float)(%s));", params.get(0), params.get(1));
                 break;
             case "objectanimatorSetFromTo":
-                opcode = String.format("%s.setFloatValues((float)(%s), (float)(%s));", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.setFloatValues((float)(%s), (float)(%s));", params.get(0), params.get(1), params.get(2));
                 break;
             case "objectanimatorSetDuration":
-                opcode = String.format("%s.setDuration((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setDuration((int)(%s));", params.get(0), params.get(1));
                 break;
             case "objectanimatorSetRepeatMode":
-                opcode = String.format("%s.setRepeatMode(ValueAnimator.%s);", params.get(0), params.get(1));
+                opcode = format("%s.setRepeatMode(ValueAnimator.%s);", params.get(0), params.get(1));
 
                 break;
             case "objectanimatorSetRepeatCount":
-                opcode = String.format("%s.setRepeatCount((int)(%s));", params.get(0), params.get(1));
+                opcode = format("%s.setRepeatCount((int)(%s));", params.get(0), params.get(1));
                 break;
             case "objectanimatorSetInterpolator":
                 String interpolator = switch (params.get(1)) {
@@ -1110,16 +1127,16 @@ public class Fx {
                     case "Bounce" -> "new BounceInterpolator()";
                     default -> "new LinearInterpolator()";
                 };
-                opcode = String.format("%s.setInterpolator(%s);", params.get(0), interpolator);
+                opcode = format("%s.setInterpolator(%s);", params.get(0), interpolator);
                 break;
             case "objectanimatorStart":
-                opcode = String.format("%s.start();", params.get(0));
+                opcode = format("%s.start();", params.get(0));
                 break;
             case "objectanimatorCancel":
-                opcode = String.format("%s.cancel();", params.get(0));
+                opcode = format("%s.cancel();", params.get(0));
                 break;
             case "objectanimatorIsRunning":
-                opcode = String.format("%s.isRunning()", params.get(0));
+                opcode = format("%s.isRunning()", params.get(0));
                 break;
             case "interstitialadCreate":
             case "interstitialadLoadAd":
@@ -1128,91 +1145,91 @@ public class Fx {
                 break;
             case "firebasestorageUploadFile":
                 if (!params.get(1).equals("\"\"") && !params.get(2).equals("\"\"")) {
-                    opcode = String.format("%s.child(%s).putFile(Uri.fromFile(new File(%s))).addOnFailureListener(_%s_failure_listener).addOnProgressListener(_%s_upload_progress_listener).continueWithTask(new Continuation<UploadTask.TaskSnapshot, Task<Uri>>() {\n@Override\npublic Task<Uri> then(Task<UploadTask.TaskSnapshot> task) throws Exception {\nreturn %s.child(%s).getDownloadUrl();\n}}).addOnCompleteListener(_%s_upload_success_listener);", params.get(0), params.get(2), params.get(1), params.get(0), params.get(0), params.get(0), params.get(2), params.get(0));
+                    opcode = format("%s.child(%s).putFile(Uri.fromFile(new File(%s))).addOnFailureListener(_%s_failure_listener).addOnProgressListener(_%s_upload_progress_listener).continueWithTask(new Continuation<UploadTask.TaskSnapshot, Task<Uri>>() {\n@Override\npublic Task<Uri> then(Task<UploadTask.TaskSnapshot> task) throws Exception {\nreturn %s.child(%s).getDownloadUrl();\n}}).addOnCompleteListener(_%s_upload_success_listener);", params.get(0), params.get(2), params.get(1), params.get(0), params.get(0), params.get(0), params.get(2), params.get(0));
                 }
                 break;
             case "firebasestorageDownloadFile":
                 if (!params.get(1).equals("\"\"") && !params.get(2).equals("\"\"")) {
-                    opcode = String.format("_firebase_storage.getReferenceFromUrl(%s).getFile(new File(%s)).addOnSuccessListener(_%s_download_success_listener).addOnFailureListener(_%s_failure_listener).addOnProgressListener(_%s_download_progress_listener);", params.get(1), params.get(2), params.get(0), params.get(0), params.get(0));
+                    opcode = format("_firebase_storage.getReferenceFromUrl(%s).getFile(new File(%s)).addOnSuccessListener(_%s_download_success_listener).addOnFailureListener(_%s_failure_listener).addOnProgressListener(_%s_download_progress_listener);", params.get(1), params.get(2), params.get(0), params.get(0), params.get(0));
                 }
                 break;
             case "firebasestorageDelete":
                 if (!params.get(1).equals("\"\"")) {
-                    opcode = String.format("_firebase_storage.getReferenceFromUrl(%s).delete().addOnSuccessListener(_%s_delete_success_listener).addOnFailureListener(_%s_failure_listener);", params.get(1), params.get(0), params.get(0));
+                    opcode = format("_firebase_storage.getReferenceFromUrl(%s).delete().addOnSuccessListener(_%s_delete_success_listener).addOnFailureListener(_%s_failure_listener);", params.get(1), params.get(0), params.get(0));
                 }
                 break;
             case "fileutilread":
 
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.readFile(%s)", params.get(0));
+                    opcode = format("FileUtil.readFile(%s)", params.get(0));
                 }
                 break;
             case "fileutilwrite":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.writeFile(%s, %s);", params.get(1), params.get(0));
+                    opcode = format("FileUtil.writeFile(%s, %s);", params.get(1), params.get(0));
                 }
                 break;
             case "fileutilcopy":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.copyFile(%s, %s);", params.get(0), params.get(1));
+                    opcode = format("FileUtil.copyFile(%s, %s);", params.get(0), params.get(1));
                 }
                 break;
             case "fileutilmove":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.moveFile(%s, %s);", params.get(0), params.get(1));
+                    opcode = format("FileUtil.moveFile(%s, %s);", params.get(0), params.get(1));
                 }
                 break;
             case "fileutildelete":
 
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.deleteFile(%s);", params.get(0));
+                    opcode = format("FileUtil.deleteFile(%s);", params.get(0));
                 }
                 break;
             case "fileutilisexist":
 
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.isExistFile(%s)", params.get(0));
+                    opcode = format("FileUtil.isExistFile(%s)", params.get(0));
                 }
                 break;
             case "fileutilmakedir":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.makeDir(%s);", params.get(0));
+                    opcode = format("FileUtil.makeDir(%s);", params.get(0));
                 }
                 break;
             case "fileutillistdir":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.listDir(%s, %s);", params.get(0), params.get(1));
+                    opcode = format("FileUtil.listDir(%s, %s);", params.get(0), params.get(1));
                 }
                 break;
             case "fileutilisdir":
                 if (!opcode.equals("\"\"")) {
-                    opcode = String.format("FileUtil.isDirectory(%s)", params.get(0));
+                    opcode = format("FileUtil.isDirectory(%s)", params.get(0));
                 }
                 break;
             case "fileutilisfile":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.isFile(%s)", params.get(0));
+                    opcode = format("FileUtil.isFile(%s)", params.get(0));
                 }
                 break;
             case "fileutillength":
 
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.getFileLength(%s)", params.get(0));
+                    opcode = format("FileUtil.getFileLength(%s)", params.get(0));
                 }
                 break;
             case "fileutilStartsWith":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("%s.startsWith(%s)", params.get(0), params.get(1));
+                    opcode = format("%s.startsWith(%s)", params.get(0), params.get(1));
                 }
                 break;
             case "fileutilEndsWith":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("%s.endsWith(%s)", params.get(0), params.get(1));
+                    opcode = format("%s.endsWith(%s)", params.get(0), params.get(1));
                 }
                 break;
             case "fileutilGetLastSegmentPath":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("Uri.parse(%s).getLastPathSegment()", params.get(0));
+                    opcode = format("Uri.parse(%s).getLastPathSegment()", params.get(0));
                 }
                 break;
             case "getExternalStorageDir":
@@ -1222,167 +1239,167 @@ public class Fx {
                 opcode = "FileUtil.getPackageDataDir(getApplicationContext())";
                 break;
             case "getPublicDir":
-                opcode = String.format("FileUtil.getPublicDir(Environment.%s)", params.get(0));
+                opcode = format("FileUtil.getPublicDir(Environment.%s)", params.get(0));
                 break;
             case "resizeBitmapFileRetainRatio":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.resizeBitmapFileRetainRatio(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.resizeBitmapFileRetainRatio(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "resizeBitmapFileToSquare":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.resizeBitmapFileToSquare(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.resizeBitmapFileToSquare(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "resizeBitmapFileToCircle":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.resizeBitmapFileToCircle(%s, %s);", params.get(0), params.get(1));
+                    opcode = format("FileUtil.resizeBitmapFileToCircle(%s, %s);", params.get(0), params.get(1));
                 }
                 break;
             case "resizeBitmapFileWithRoundedBorder":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.resizeBitmapFileWithRoundedBorder(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.resizeBitmapFileWithRoundedBorder(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "cropBitmapFileFromCenter":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.cropBitmapFileFromCenter(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(3), params.get(2));
+                    opcode = format("FileUtil.cropBitmapFileFromCenter(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(3), params.get(2));
                 }
                 break;
             case "rotateBitmapFile":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.rotateBitmapFile(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.rotateBitmapFile(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "scaleBitmapFile":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.scaleBitmapFile(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                    opcode = format("FileUtil.scaleBitmapFile(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 }
                 break;
             case "skewBitmapFile":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.skewBitmapFile(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
+                    opcode = format("FileUtil.skewBitmapFile(%s, %s, %s, %s);", params.get(0), params.get(1), params.get(2), params.get(3));
                 }
                 break;
             case "setBitmapFileColorFilter":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.setBitmapFileColorFilter(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.setBitmapFileColorFilter(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "setBitmapFileBrightness":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.setBitmapFileBrightness(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.setBitmapFileBrightness(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "setBitmapFileContrast":
                 if (!params.get(0).equals("\"\"") && !params.get(1).equals("\"\"")) {
-                    opcode = String.format("FileUtil.setBitmapFileContrast(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
+                    opcode = format("FileUtil.setBitmapFileContrast(%s, %s, %s);", params.get(0), params.get(1), params.get(2));
                 }
                 break;
             case "getJpegRotate":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("FileUtil.getJpegRotate(%s)", params.get(0));
+                    opcode = format("FileUtil.getJpegRotate(%s)", params.get(0));
                 }
                 break;
             case "filepickerstartpickfiles":
-                opcode = String.format("startActivityForResult(%s, REQ_CD_%s);", params.get(0), params.get(0).toUpperCase());
+                opcode = format("startActivityForResult(%s, REQ_CD_%s);", params.get(0), params.get(0).toUpperCase());
                 break;
             case "camerastarttakepicture":
-                opcode = String.format("startActivityForResult(%s, REQ_CD_%s);", params.get(0), params.get(0).toUpperCase());
+                opcode = format("startActivityForResult(%s, REQ_CD_%s);", params.get(0), params.get(0).toUpperCase());
                 break;
             case "setImageFilePath":
                 if (!params.get(1).equals("\"\"")) {
-                    opcode = String.format("%s.setImageBitmap(FileUtil.decodeSampleBitmapFromPath(%s, 1024, 1024));", params.get(0), params.get(1));
+                    opcode = format("%s.setImageBitmap(FileUtil.decodeSampleBitmapFromPath(%s, 1024, 1024));", params.get(0), params.get(1));
                 }
                 break;
             case "setImageUrl":
                 if (!params.get(1).equals("\"\"")) {
-                    opcode = String.format("Glide.with(getApplicationContext()).load(Uri.parse(%s)).into(%s);", params.get(1), params.get(0));
+                    opcode = format("Glide.with(getApplicationContext()).load(Uri.parse(%s)).into(%s);", params.get(1), params.get(0));
                 }
                 break;
             case "setHint":
                 if (!params.get(0).equals("\"\"")) {
-                    opcode = String.format("%s.setHint(%s);", params.get(0), params.get(1));
+                    opcode = format("%s.setHint(%s);", params.get(0), params.get(1));
                 }
                 break;
             case "setHintTextColor":
                 if (!params.get(1).equals("\"\"")) {
-                    opcode = String.format("%s.setHintTextColor(%s);", params.get(0), params.get(1));
+                    opcode = format("%s.setHintTextColor(%s);", params.get(0), params.get(1));
                 }
                 break;
             case "requestnetworkSetParams":
-                opcode = String.format("%s.setParams(%s, RequestNetworkController.%s);", params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.setParams(%s, RequestNetworkController.%s);", params.get(0), params.get(1), params.get(2));
                 break;
             case "requestnetworkSetHeaders":
-                opcode = String.format("%s.setHeaders(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setHeaders(%s);", params.get(0), params.get(1));
                 break;
             case "requestnetworkStartRequestNetwork":
-                opcode = String.format("%s.startRequestNetwork(RequestNetworkController.%s, %s, %s, _%s_request_listener);", params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
+                opcode = format("%s.startRequestNetwork(RequestNetworkController.%s, %s, %s, _%s_request_listener);", params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
                 break;
             case "progressBarSetIndeterminate":
-                opcode = String.format("%s.setIndeterminate(%s);", params.get(0), params.get(1));
+                opcode = format("%s.setIndeterminate(%s);", params.get(0), params.get(1));
                 break;
             case "textToSpeechSetPitch":
-                opcode = String.format("%s.setPitch((float)%s);", params.get(0), params.get(1));
+                opcode = format("%s.setPitch((float)%s);", params.get(0), params.get(1));
                 break;
             case "textToSpeechSetSpeechRate":
-                opcode = String.format("%s.setSpeechRate((float)%s);", params.get(0), params.get(1));
+                opcode = format("%s.setSpeechRate((float)%s);", params.get(0), params.get(1));
                 break;
             case "textToSpeechSpeak":
-                opcode = String.format("%s.speak(%s, TextToSpeech.QUEUE_ADD, null);", params.get(0), params.get(1));
+                opcode = format("%s.speak(%s, TextToSpeech.QUEUE_ADD, null);", params.get(0), params.get(1));
                 break;
             case "textToSpeechIsSpeaking":
-                opcode = String.format("%s.isSpeaking()", params.get(0));
+                opcode = format("%s.isSpeaking()", params.get(0));
 
                 break;
             case "textToSpeechStop":
-                opcode = String.format("%s.stop();", params.get(0));
+                opcode = format("%s.stop();", params.get(0));
 
                 break;
             case "textToSpeechShutdown":
-                opcode = String.format("%s.shutdown();", params.get(0));
+                opcode = format("%s.shutdown();", params.get(0));
 
                 break;
             case "speechToTextStartListening":
-                opcode = String.format("Intent _intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);\n_intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, getPackageName());\n_intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);\n_intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.getDefault());\n%s.startListening(_intent);", params.get(0));
+                opcode = format("Intent _intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);\n_intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, getPackageName());\n_intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);\n_intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.getDefault());\n%s.startListening(_intent);", params.get(0));
 
                 break;
             case "speechToTextStopListening":
-                opcode = String.format("%s.stopListening();", params.get(0));
+                opcode = format("%s.stopListening();", params.get(0));
                 break;
             case "speechToTextShutdown":
-                opcode = String.format("%s.cancel();\n%s.destroy();", params.get(0), params.get(0));
+                opcode = format("%s.cancel();\n%s.destroy();", params.get(0), params.get(0));
                 break;
             case "bluetoothConnectReadyConnection":
-                opcode = String.format("%s.readyConnection(_%s_bluetooth_connection_listener, %s);", params.get(0), params.get(0), params.get(1));
+                opcode = format("%s.readyConnection(_%s_bluetooth_connection_listener, %s);", params.get(0), params.get(0), params.get(1));
                 break;
             case "bluetoothConnectReadyConnectionToUuid":
-                opcode = String.format("%s.readyConnection(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.readyConnection(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
                 break;
             case "bluetoothConnectStartConnection":
-                opcode = String.format("%s.startConnection(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.startConnection(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
                 break;
             case "bluetoothConnectStartConnectionToUuid":
-                opcode = String.format("%s.startConnection(_%s_bluetooth_connection_listener, %s, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2), params.get(3));
+                opcode = format("%s.startConnection(_%s_bluetooth_connection_listener, %s, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2), params.get(3));
                 break;
             case "bluetoothConnectStopConnection":
-                opcode = String.format("%s.stopConnection(_%s_bluetooth_connection_listener, %s);", params.get(0), params.get(0), params.get(1));
+                opcode = format("%s.stopConnection(_%s_bluetooth_connection_listener, %s);", params.get(0), params.get(0), params.get(1));
                 break;
             case "bluetoothConnectSendData":
-                opcode = String.format("%s.sendData(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
+                opcode = format("%s.sendData(_%s_bluetooth_connection_listener, %s, %s);", params.get(0), params.get(0), params.get(1), params.get(2));
                 break;
             case "bluetoothConnectIsBluetoothEnabled":
-                opcode = String.format("%s.isBluetoothEnabled()", params.get(0));
+                opcode = format("%s.isBluetoothEnabled()", params.get(0));
                 break;
             case "bluetoothConnectIsBluetoothActivated":
-                opcode = String.format("%s.isBluetoothActivated()", params.get(0));
+                opcode = format("%s.isBluetoothActivated()", params.get(0));
                 break;
             case "bluetoothConnectActivateBluetooth":
-                opcode = String.format("%s.activateBluetooth();", params.get(0));
+                opcode = format("%s.activateBluetooth();", params.get(0));
 
                 break;
             case "bluetoothConnectGetPairedDevices":
-                opcode = String.format("%s.getPairedDevices(%s);", params.get(0), params.get(1));
+                opcode = format("%s.getPairedDevices(%s);", params.get(0), params.get(1));
 
                 break;
             case "bluetoothConnectGetRandomUuid":
@@ -1393,9 +1410,9 @@ public class Fx {
             case "locationManagerRequestLocationUpdates":
                 String locationRequest = "%s.requestLocationUpdates(LocationManager.%s, %s, %s, _%s_location_listener);";
                 if (buildConfig.g) {
-                    opcode = String.format("if (ContextCompat.checkSelfPermission(%s.this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {\n" + locationRequest + "\n}", activityName, params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
+                    opcode = format("if (ContextCompat.checkSelfPermission(%s.this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {\n" + locationRequest + "\n}", activityName, params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
                 } else {
-                    opcode = String.format("if (Build.VERSION.SDK_INT >= 23) {\nif (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {\n" + locationRequest + "\n}\n}\nelse {\n" + locationRequest + "\n}", params.get(0), params.get(1), params.get(2), params.get(3), params.get(0), params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
+                    opcode = format("if (Build.VERSION.SDK_INT >= 23) {\nif (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {\n" + locationRequest + "\n}\n}\nelse {\n" + locationRequest + "\n}", params.get(0), params.get(1), params.get(2), params.get(3), params.get(0), params.get(0), params.get(1), params.get(2), params.get(3), params.get(0));
                 }
                 break;
 
@@ -1479,6 +1496,7 @@ public class Fx {
         String formattedCode;
         if (!parameters.isEmpty()) {
             try {
+                // user-written code, which mustn't end up in format()'s unbounded template cache
                 formattedCode = String.format(blockInfo.getCode(), parameters.toArray(new Object[0]));
             } catch (Exception e) {
                 formattedCode = "/* Failed to resolve Custom Block's code: " + e + " */";
@@ -1490,6 +1508,21 @@ public class Fx {
         return formattedCode;
     }
 
+    /**
+     * Same as {@link String#format(String, Object...)}, but with templates only using
+     * <code>%s</code>, <code>%n$s</code>, <code>%n</code> and <code>%%</code> parsed just once.
+     * Compiled templates are cached for as long as the process lives, so this is only meant for
+     * Fx's own fixed templates, not for ones coming from users like Custom Blocks' code.
+     */
+    private static String format(String template, Object... args) {
+        CodeTemplate compiled = template == null ? null : CodeTemplate.of(template);
+        if (compiled == null || compiled.requiredArgs > args.length) {
+            // let String.format() deal with it, or throw the right exception
+            return String.format(template, args);
+        }
+        return compiled.apply(args);
+    }
+
     private int getBlockType(BlockBean blockBean, int parameterIndex) {
         int blockType;
 
@@ -1507,4 +1540,90 @@ public class Fx {
 
         return blockType;
     }
+
+    private static final class CodeTemplate {
+        private static final ConcurrentHashMap<String, Optional<CodeTemplate>> cache = new ConcurrentHashMap<>();
+
+        // Literal text parts, each followed by the (0-based) index of the argument to insert, if any
+        private final String[] literals;
+        private final int[] argIndexes;
+        private final int requiredArgs;
+
+        private CodeTemplate(String[] literals, int[] argIndexes, int requiredArgs) {
+            this.literals = literals;
+            this.argIndexes = argIndexes;
+            this.requiredArgs = requiredArgs;
+        }
+
+        /**
+         * @return The compiled template, or <code>null</code> if it uses anything but the supported specifiers
+         */
+        private static CodeTemplate of(String template) {
+            return cache.computeIfAbsent(template, k -> Optional.ofNullable(compile(k))).orElse(null);
+        }
+
+        private static CodeTemplate compile(String template) {
+            ArrayList<String> literals = new ArrayList<>();
+            ArrayList<Integer> argIndexes = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int nextOrdinaryIndex = 0;
+            int requiredArgs = 0;
+
+            for (int i = 0; i < template.length(); i++) {
+                char c = template.charAt(i);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (++i >= template.length()) {
+                    return null;
+                }
+                c = template.charAt(i);
+                if (c == '%') {
+                    literal.append('%');
+                } else if (c == 'n') {
+                    literal.append(System.lineSeparator());
+                } else {
+                    int argIndex;
+                    if (c == 's') {
+                        argIndex = nextOrdinaryIndex++;
+                    } else {
+                        int digitsStart = i;
+                        while (i < template.length() && Character.isDigit(template.charAt(i))) {
+                            i++;
+                        }
+                        if (i == digitsStart || i + 1 >= template.length()
+                                || template.charAt(i) != '$' || template.charAt(i + 1) != 's'
+                                || i - digitsStart > 9) {
+                            return null;
+                        }
+                        argIndex = Integer.parseInt(template.substring(digitsStart, i)) - 1;
+                        if (argIndex < 0) {
+                            return null;
+                        }
+                        i++;
+                    }
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    argIndexes.add(argIndex);
+                    requiredArgs = Math.max(requiredArgs, argIndex + 1);
+                }
+            }
+            literals.add(literal.toString());
+
+            int[] indexes = new int[argIndexes.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = argIndexes.get(i);
+            }
+            return new CodeTemplate(literals.toArray(new String[0]), indexes, requiredArgs);
+        }
+
+        private String apply(Object[] args) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < argIndexes.length; i++) {
+                result.append(literals[i]).append(args[argIndexes[i]]);
+            }
+            return result.append(literals[argIndexes.length]).toString();
+        }
+    }
 }
@@ -16,23 +16,15 @@ import com.besome.sketch.beans.TextBean;
 import com.besome.sketch.beans.ViewBean;
 import com.besome.sketch.editor.manage.library.material3.Material3LibraryManager;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
-
-import java.io.IOException;
-import java.io.StringReader;
 import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import dev.aldi.sayuti.editor.injection.AppCompatInjection;
 import mod.agus.jcoderz.beans.ViewBeans;
-import mod.jbk.util.LogUtil;
 import pro.sketchware.managers.inject.InjectRootLayoutManager;
 import pro.sketchware.utility.InjectAttributeHandler;
 import pro.sketchware.xml.XmlBuilder;
@@ -40,6 +32,11 @@ import pro.sketchware.xml.XmlBuilder;
 @SuppressLint("RtlHardcoded")
 public class Ox {
 
+    /**
+     * Patterns of {@link #hasAttr(String, ViewBean)} by attribute name, as only a few different ones get checked.
+     */
+    private static final Map<String, Pattern> injectedAttributePatterns = new ConcurrentHashMap<>();
+
     private final jq buildConfig;
     private final InjectRootLayoutManager rootManager;
     private final AppCompatInjection aci;
@@ -987,38 +984,11 @@ public class Ox {
     private boolean hasAttr(String attrName, ViewBean bean) {
         String inject = bean.inject;
         if (inject == null || inject.isEmpty()) return false;
-        return Pattern.compile("(android|app) *?: *?" + attrName).matcher(inject).find();
+        return injectedAttributePatterns.computeIfAbsent(attrName,
+                name -> Pattern.compile("(android|app) *?: *?" + name)).matcher(inject).find();
     }
 
     public Set<String> readAttributesToReplace(ViewBean viewBean) {
-        Set<String> toReplace = new HashSet<>();
-
-        try {
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new StringReader("<tag xmlns:android=\"http://schemas.android.com/apk/res/android\" " +
-                    "xmlns:app=\"http://schemas.android.com/apk/res-auto\" " +
-                    "xmlns:tools=\"http://schemas.android.com/tools\"" +
-                    viewBean.inject + "></tag>"));
-
-            int eventType = parser.getEventType();
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                if (eventType == XmlPullParser.START_TAG) {
-                    for (int i = 0; i < parser.getAttributeCount(); i++) {
-                        if ("http://schemas.android.com/tools".equals(parser.getAttributeNamespace(i)) &&
-                                "replace".equals(parser.getAttributeName(i))) {
-                            toReplace.addAll(Arrays.asList(parser.getAttributeValue(i).split("\\s*,\\s*")));
-                        }
-                    }
-                }
-
-                eventType = parser.next();
-            }
-        } catch (XmlPullParserException | IOException | RuntimeException e) {
-            LogUtil.e("a.a.a.Ox", "Failed to parse inject property of View " + viewBean.id, e);
-        }
-
-        return toReplace;
+        return viewBean.getInjectAttributes().getAttributesToReplace();
     }
 }
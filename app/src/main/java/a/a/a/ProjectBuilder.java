@@ -17,6 +17,7 @@ import android.text.format.Formatter;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.android.apksig.ApkSignerEngine;
 import com.android.sdklib.build.ApkBuilder;
 import com.android.sdklib.build.ApkCreationException;
 import com.android.sdklib.build.DuplicateFileException;
@@ -29,7 +30,6 @@ import com.iyxan23.zipalignjava.ZipAlign;
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -42,15 +42,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import mod.agus.jcoderz.dex.Dex;
-import mod.agus.jcoderz.dex.FieldId;
-import mod.agus.jcoderz.dex.MethodId;
-import mod.agus.jcoderz.dex.ProtoId;
 import mod.agus.jcoderz.dx.command.dexer.DxContext;
 import mod.agus.jcoderz.dx.command.dexer.Main;
 import mod.agus.jcoderz.dx.merge.CollisionPolicy;
@@ -59,12 +61,19 @@ import mod.agus.jcoderz.editor.library.ExtLibSelected;
 import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
+import mod.hey.studios.compiler.kotlin.KotlinCompilerUtil;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.project.proguard.ProguardHandler;
+import mod.hey.studios.project.stringfog.StringfogHandler;
 import mod.hey.studios.util.SystemLogPrinter;
 import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.IncrementalBuildCache;
+import mod.jbk.build.LibraryArtifactCache;
+import mod.jbk.build.StreamingApkWriter;
 import mod.jbk.build.compiler.dex.DexCompiler;
+import mod.jbk.build.compiler.dex.DexPackingPlanner;
+import mod.jbk.build.compiler.java.IncrementalJavaCompilation;
 import mod.jbk.build.compiler.resource.ResourceCompiler;
 import mod.jbk.util.LogUtil;
 import mod.jbk.util.TestkeySignBridge;
@@ -97,6 +106,12 @@ public class ProjectBuilder {
     private BuildProgressReceiver progressReceiver;
     private boolean buildAppBundle = false;
     private ArrayList<File> dexesToAddButNotMerge = new ArrayList<>();
+    /**
+     * Fingerprints of the previous build's stages, or <code>null</code> if incremental building is disabled.
+     */
+    private IncrementalBuildCache incrementalBuildCache;
+    private LibraryArtifactCache libraryArtifactCache;
+    private String pendingClassesFingerprint;
 
     /**
      * Timestamp keeping track of when compiling the project's resources started, needed for stats of how long compiling took.
@@ -182,21 +197,151 @@ public class ProjectBuilder {
      */
     public void compileResources() throws Exception {
         timestampResourceCompilationStarted = System.currentTimeMillis();
+        String fingerprint = null;
+        if (incrementalBuildCache != null) {
+            fingerprint = getResourcesFingerprint();
+            if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_RESOURCES, fingerprint,
+                    new File(yq.resourcesApkPath), new File(yq.rJavaDirectoryPath))) {
+                LogUtil.d(TAG, "Skipped compiling resources as they didn't change since the last build");
+                return;
+            }
+            incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_RESOURCES);
+            // R.java files of libraries which aren't used anymore shouldn't get compiled
+            FileUtil.deleteFile(yq.rJavaDirectoryPath);
+            FileUtil.makeDir(yq.rJavaDirectoryPath);
+        }
+
         ResourceCompiler compiler = new ResourceCompiler(
                 this,
                 aapt2Binary,
                 buildAppBundle,
                 progressReceiver);
         compiler.compile();
+        if (incrementalBuildCache != null && (progressReceiver == null || !progressReceiver.isCanceled())) {
+            incrementalBuildCache.update(IncrementalBuildCache.STAGE_RESOURCES, fingerprint);
+        }
         LogUtil.d(TAG, "Compiling resources took " + (System.currentTimeMillis() - timestampResourceCompilationStarted) + " ms");
     }
 
+    /**
+     * Enables incremental building, which makes stages whose inputs didn't change since the last
+     * build reuse their outputs instead of running again. Requires {@link yq#binDirectoryPath} and
+     * {@link yq#rJavaDirectoryPath} to be kept from the previous build.
+     */
+    public void enableIncrementalBuild() {
+        incrementalBuildCache = new IncrementalBuildCache(yq);
+    }
+
+    public boolean isIncrementalBuildEnabled() {
+        return incrementalBuildCache != null;
+    }
+
+    private String getResourcesFingerprint() {
+        IncrementalBuildCache.Fingerprint fingerprint = new IncrementalBuildCache.Fingerprint()
+                .putStamp(aapt2Binary)
+                .put(buildAppBundle)
+                .put(settings.getMinSdkVersion())
+                .put(settings.getValue(ProjectSettings.SETTING_TARGET_SDK_VERSION, ""))
+                .put(yq.versionCode)
+                .put(yq.versionName)
+                .put(androidJarPath)
+                .put(getLibraryPackageNames())
+                .putContents(new File(yq.resDirectoryPath))
+                .putContents(new File(yq.androidManifestPath))
+                .putContents(new File(yq.assetsPath))
+                .putStamp(new File(fpu.getPathResource(yq.sc_id)))
+                .putStamp(new File(fpu.getPathAssets(yq.sc_id)));
+        for (Jp library : builtInLibraryManager.getLibraries()) {
+            fingerprint.put(library.getName());
+        }
+        for (String localLibraryResDirectory : mll.getResLocalLibrary()) {
+            fingerprint.putStamp(new File(localLibraryResDirectory));
+        }
+        for (String localLibraryAssetsDirectory : mll.getAssets()) {
+            fingerprint.putStamp(new File(localLibraryAssetsDirectory));
+        }
+        return fingerprint.build();
+    }
+
+    /**
+     * Checks if the previous build's compiled classes (output of Kotlin, ECJ, StringFog and ProGuard/R8)
+     * can be reused. If they can't, they get deleted, and {@link #markCompiledClassesUpToDate()} must
+     * be called once all of those steps have finished.
+     *
+     * @return If compiling classes can be skipped. Always <code>false</code> if incremental building is disabled.
+     */
+    public boolean canReuseCompiledClasses() {
+        if (incrementalBuildCache == null) return false;
+
+        pendingClassesFingerprint = getClassesFingerprint();
+        if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_CLASSES, pendingClassesFingerprint,
+                new File(yq.compiledClassesPath))) {
+            LogUtil.d(TAG, "Skipped compiling classes as their sources didn't change since the last build");
+            return true;
+        }
+        incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_CLASSES);
+        if (!canCompileJavaIncrementally()) {
+            // get rid of classes whose sources might not exist anymore
+            FileUtil.deleteFile(yq.compiledClassesPath);
+            FileUtil.makeDir(yq.compiledClassesPath);
+            IncrementalJavaCompilation.invalidate(yq);
+        }
+        return false;
+    }
+
+    /**
+     * StringFog modifies compiled classes in place, and Kotlin classes get compiled to the same directory,
+     * so only compile changed Java files if neither is in use.
+     */
+    private boolean canCompileJavaIncrementally() {
+        return incrementalBuildCache != null && !new StringfogHandler(yq.sc_id).isStringfogEnabled()
+                && !KotlinCompilerUtil.areAnyKtFilesPresent(this);
+    }
+
+    /**
+     * Records that classes were compiled successfully. No-op if incremental building is disabled.
+     */
+    public void markCompiledClassesUpToDate() {
+        if (incrementalBuildCache != null && pendingClassesFingerprint != null) {
+            incrementalBuildCache.update(IncrementalBuildCache.STAGE_CLASSES, pendingClassesFingerprint);
+            pendingClassesFingerprint = null;
+        }
+    }
+
+    private String getClassesFingerprint() {
+        IncrementalBuildCache.Fingerprint fingerprint = new IncrementalBuildCache.Fingerprint()
+                .put(build_settings.getValue(BuildSettings.SETTING_JAVA_VERSION, BuildSettings.SETTING_JAVA_VERSION_1_7))
+                .put(build_settings.getValue(BuildSettings.SETTING_NO_WARNINGS, BuildSettings.SETTING_GENERIC_VALUE_TRUE))
+                .put(new StringfogHandler(yq.sc_id).isStringfogEnabled())
+                .put(proguard.isShrinkingEnabled())
+                .put(proguard.isR8Enabled())
+                .putContents(new File(proguard.getCustomProguardRules()))
+                .putContents(new File(yq.javaFilesPath))
+                .putContents(new File(yq.rJavaDirectoryPath))
+                .putContents(new File(fpu.getPathJava(yq.sc_id)))
+                .putContents(new File(fpu.getPathBroadcast(yq.sc_id)))
+                .putContents(new File(fpu.getPathService(yq.sc_id)));
+        putClasspathStamps(fingerprint);
+        return fingerprint.build();
+    }
+
+    private void putClasspathStamps(IncrementalBuildCache.Fingerprint fingerprint) {
+        for (String classpathEntry : getClasspath().split(":")) {
+            // the output directory itself is part of the classpath if Kotlin files were compiled
+            if (!classpathEntry.isEmpty() && !classpathEntry.equals(yq.compiledClassesPath)) {
+                fingerprint.putStamp(new File(classpathEntry));
+            }
+        }
+    }
+
     public void generateViewBinding() throws IOException, SAXException {
+        File outputDirectory = new File(yq.javaFilesPath + File.separator + yq.packageName.replace(".", File.separator) + File.separator + "databinding");
+        // Incremental builds keep generated sources, don't leave bindings of deleted layouts behind
+        FileUtil.deleteFile(outputDirectory.getAbsolutePath());
         if (settings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE)
                 .equals(ProjectSettings.SETTING_GENERIC_VALUE_FALSE)) {
             return;
         }
-        File outputDirectory = new File(yq.javaFilesPath + File.separator + yq.packageName.replace(".", File.separator) + File.separator + "databinding");
         outputDirectory.mkdirs();
 
         List<File> layouts = FileUtil.listFiles(yq.layoutFilesPath, "xml").stream()
@@ -225,8 +370,29 @@ public class ProjectBuilder {
      * @throws Exception Thrown if the compiler had any problems compiling
      */
     public void createDexFilesFromClasses() throws Exception {
-        FileUtil.makeDir(yq.binDirectoryPath + File.separator + "dex");
-        if (proguard.isShrinkingEnabled() && proguard.isR8Enabled()) return;
+        String dexDirectoryPath = yq.binDirectoryPath + File.separator + "dex";
+        if (proguard.isShrinkingEnabled() && proguard.isR8Enabled()) {
+            FileUtil.makeDir(dexDirectoryPath);
+            return;
+        }
+
+        String fingerprint = null;
+        if (incrementalBuildCache != null) {
+            fingerprint = new IncrementalBuildCache.Fingerprint()
+                    .put(isD8Enabled())
+                    .put(settings.getMinSdkVersion())
+                    .put(getClasspath())
+                    .putContents(new File(proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath))
+                    .build();
+            if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_DEX, fingerprint, new File(dexDirectoryPath))) {
+                LogUtil.d(TAG, "Skipped dexing classes as they didn't change since the last build");
+                return;
+            }
+            incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_DEX);
+            // don't leave DEX files of a previous build behind that won't get overwritten
+            FileUtil.deleteFile(dexDirectoryPath);
+        }
+        FileUtil.makeDir(dexDirectoryPath);
 
         if (isD8Enabled()) {
             long savedTimeMillis = System.currentTimeMillis();
@@ -239,13 +405,19 @@ public class ProjectBuilder {
             }
         } else {
             long savedTimeMillis = System.currentTimeMillis();
-            List<String> args = Arrays.asList(
-                    "--debug",
-                    "--verbose",
-                    "--multi-dex",
-                    "--output=" + yq.binDirectoryPath + File.separator + "dex",
-                    proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath
-            );
+            List<String> args = new ArrayList<>();
+            args.add("--debug");
+            if (build_settings.getValue(BuildSettings.SETTING_DX_VERBOSE, BuildSettings.SETTING_GENERIC_VALUE_TRUE)
+                    .equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE)) {
+                args.add("--verbose");
+            }
+            if (build_settings.getValue(BuildSettings.SETTING_DX_MULTI_THREADED, BuildSettings.SETTING_GENERIC_VALUE_TRUE)
+                    .equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE)) {
+                args.add("--num-threads=" + Runtime.getRuntime().availableProcessors());
+            }
+            args.add("--multi-dex");
+            args.add("--output=" + yq.binDirectoryPath + File.separator + "dex");
+            args.add(proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath);
 
             try {
                 LogUtil.d(TAG, "Running Dx with these arguments: " + args);
@@ -263,6 +435,10 @@ public class ProjectBuilder {
                 throw e;
             }
         }
+
+        if (incrementalBuildCache != null) {
+            incrementalBuildCache.update(IncrementalBuildCache.STAGE_DEX, fingerprint);
+        }
     }
 
     public String getClasspath() {
@@ -359,134 +535,61 @@ public class ProjectBuilder {
         return classpath.toString();
     }
 
+    /**
+     * Opening the cache reads and cleans up its directory, so only do so once a build needs it,
+     * and not for e.g. source previews.
+     */
+    private synchronized LibraryArtifactCache getLibraryArtifactCache() {
+        if (libraryArtifactCache == null) {
+            libraryArtifactCache = new LibraryArtifactCache();
+        }
+        return libraryArtifactCache;
+    }
+
     /**
      * Dexes libraries.
      *
      * @return List of result DEX files which were merged or couldn't be merged with others.
      * @throws Exception Thrown if merging had problems
      */
-    private Collection<File> dexLibraries(File outputDirectory, List<File> dexes) throws Exception {
-        int lastDexNumber = 1;
-        String nextMergedDexFilename;
-        Collection<File> resultDexFiles = new LinkedList<>();
-        LinkedList<Dex> dexObjects = new LinkedList<>();
-        Iterator<File> toMergeIterator = dexes.iterator();
-
-        List<FieldId> mergedDexFields;
-        List<MethodId> mergedDexMethods;
-        List<ProtoId> mergedDexProtos;
-        List<Integer> mergedDexTypes;
-
-        {
-            // Closable gets closed automatically
-            Dex firstDex = new Dex(new FileInputStream(toMergeIterator.next()));
-            dexObjects.add(firstDex);
-            mergedDexFields = new LinkedList<>(firstDex.fieldIds());
-            mergedDexMethods = new LinkedList<>(firstDex.methodIds());
-            mergedDexProtos = new LinkedList<>(firstDex.protoIds());
-            mergedDexTypes = new LinkedList<>(firstDex.typeIds());
-        }
-
-        while (toMergeIterator.hasNext()) {
-            File dexFile = toMergeIterator.next();
-            nextMergedDexFilename = lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex";
-
-            // Closable gets closed automatically
-            Dex dex = new Dex(new FileInputStream(dexFile));
-
-            boolean canMerge = true;
-            List<FieldId> newDexFieldIds = new LinkedList<>();
-            List<MethodId> newDexMethodIds = new LinkedList<>();
-            List<ProtoId> newDexProtoIds = new LinkedList<>();
-            List<Integer> newDexTypeIds = new LinkedList<>();
-
-            bruh:
-            {
-                for (FieldId fieldId : dex.fieldIds()) {
-                    if (!mergedDexFields.contains(fieldId)) {
-                        if (mergedDexFields.size() + newDexFieldIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new field IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexFields.size() + " field IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexFieldIds.add(fieldId);
-                        }
-                    }
-                }
-
-                for (MethodId methodId : dex.methodIds()) {
-                    if (!newDexMethodIds.contains(methodId)) {
-                        if (mergedDexMethods.size() + newDexMethodIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new method IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexMethods.size() + " method IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexMethodIds.add(methodId);
-                        }
-                    }
-                }
-
-                for (ProtoId protoId : dex.protoIds()) {
-                    if (!newDexProtoIds.contains(protoId)) {
-                        if (mergedDexProtos.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new proto IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexProtos.size() + " proto IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexProtoIds.add(protoId);
-                        }
-                    }
-                }
-
-                for (Integer typeId : dex.typeIds()) {
-                    if (!newDexTypeIds.contains(typeId)) {
-                        if (mergedDexTypes.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new type IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexTypes.size() + " type IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexTypeIds.add(typeId);
-                        }
+    private Collection<File> dexLibraries(File outputDirectory, List<File> dexes, Set<File> libraryDexes) throws Exception {
+        DexPackingPlanner.Plan plan = DexPackingPlanner.plan(dexes, libraryDexes, getLibraryArtifactCache());
+        LogUtil.d(TAG, plan.getReport());
+
+        // Output DEX files don't depend on each other, so merge them concurrently
+        List<List<File>> groups = plan.getGroups();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(groups.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<File>> merges = new ArrayList<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                List<File> group = groups.get(i);
+                File target = new File(outputDirectory, DexPackingPlanner.Plan.getOutputName(i));
+                merges.add(executor.submit(() -> {
+                    List<Dex> dexObjects = new ArrayList<>(group.size());
+                    for (File dexFile : group) {
+                        dexObjects.add(Dex.map(dexFile));
                     }
-                }
+                    mergeDexes(target, dexObjects);
+                    return target;
+                }));
             }
 
-            if (canMerge) {
-                LogUtil.d(TAG, "Merging DEX #" + dexes.indexOf(dexFile) + " as well to " + nextMergedDexFilename);
-                dexObjects.add(dex);
-                mergedDexFields.addAll(newDexFieldIds);
-                mergedDexMethods.addAll(newDexMethodIds);
-                mergedDexProtos.addAll(newDexProtoIds);
-                mergedDexTypes.addAll(newDexTypeIds);
-            } else {
-                File target = new File(outputDirectory, nextMergedDexFilename);
-                mergeDexes(target, dexObjects);
-                resultDexFiles.add(target);
-                dexObjects.clear();
-                dexObjects.add(dex);
-
-                mergedDexFields = new ArrayList<>(dex.fieldIds());
-                mergedDexMethods = new ArrayList<>(dex.methodIds());
-                mergedDexProtos = new ArrayList<>(dex.protoIds());
-                mergedDexTypes = new ArrayList<>(dex.typeIds());
-                lastDexNumber++;
+            Collection<File> resultDexFiles = new LinkedList<>();
+            for (Future<File> merge : merges) {
+                try {
+                    resultDexFiles.add(merge.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception exception) throw exception;
+                    if (cause instanceof Error error) throw error;
+                    throw e;
+                }
             }
+            return resultDexFiles;
+        } finally {
+            executor.shutdownNow();
         }
-        if (!dexObjects.isEmpty()) {
-            File file = new File(outputDirectory, lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex");
-            mergeDexes(file, dexObjects);
-            resultDexFiles.add(file);
-        }
-
-        return resultDexFiles;
     }
 
     /**
@@ -554,19 +657,20 @@ public class ProjectBuilder {
             args.add("-cp");
             args.add(getClasspath());
             args.add("-proc:none");
-            args.add(yq.javaFilesPath);
-            args.add(yq.rJavaDirectoryPath);
+            List<File> sourceDirectories = new ArrayList<>();
+            sourceDirectories.add(new File(yq.javaFilesPath));
+            sourceDirectories.add(new File(yq.rJavaDirectoryPath));
             String pathJava = fpu.getPathJava(yq.sc_id);
             if (FileUtil.isExistFile(pathJava)) {
-                args.add(pathJava);
+                sourceDirectories.add(new File(pathJava));
             }
             String pathBroadcast = fpu.getPathBroadcast(yq.sc_id);
             if (FileUtil.isExistFile(pathBroadcast)) {
-                args.add(pathBroadcast);
+                sourceDirectories.add(new File(pathBroadcast));
             }
             String pathService = fpu.getPathService(yq.sc_id);
             if (FileUtil.isExistFile(pathService)) {
-                args.add(pathService);
+                sourceDirectories.add(new File(pathService));
             }
 
             /* Avoid "package ;" line in that file causing issues while compiling */
@@ -575,6 +679,27 @@ public class ProjectBuilder {
                 LogUtil.w(TAG, "Failed to delete file " + rJavaFileWithoutPackage.getAbsolutePath());
             }
 
+            /* Only compile changed files and their dependents if possible */
+            IncrementalJavaCompilation incrementalCompilation = null;
+            List<File> sourcesToCompile = null;
+            if (canCompileJavaIncrementally()) {
+                incrementalCompilation = new IncrementalJavaCompilation(yq, getJavaCompilationOptionsKey(args, sourceDirectories), sourceDirectories);
+                sourcesToCompile = incrementalCompilation.prepare();
+            }
+            if (sourcesToCompile == null) {
+                for (File sourceDirectory : sourceDirectories) {
+                    args.add(sourceDirectory.getAbsolutePath());
+                }
+            } else if (sourcesToCompile.isEmpty()) {
+                LogUtil.d(TAG, "Skipped compiling Java files as none of them changed");
+                incrementalCompilation.onCompiled();
+                return;
+            } else {
+                for (File source : sourcesToCompile) {
+                    args.add(source.getAbsolutePath());
+                }
+            }
+
             /* Start compiling */
             org.eclipse.jdt.internal.compiler.batch.Main main = new org.eclipse.jdt.internal.compiler.batch.Main(outWriter, errWriter, false, null, null);
             LogUtil.d(TAG, "Running Eclipse compiler with these arguments: " + args);
@@ -583,6 +708,9 @@ public class ProjectBuilder {
             LogUtil.d(TAG, "System.out of Eclipse compiler: " + outOutputStream.getOut());
             if (main.globalErrorsCount <= 0) {
                 LogUtil.d(TAG, "System.err of Eclipse compiler: " + errOutputStream.getOut());
+                if (incrementalCompilation != null) {
+                    incrementalCompilation.onCompiled();
+                }
                 LogUtil.d(TAG, "Compiling Java files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             } else {
                 LogUtil.e(TAG, "Failed to compile Java files");
@@ -591,17 +719,42 @@ public class ProjectBuilder {
         }
     }
 
+    private String getJavaCompilationOptionsKey(List<String> args, List<File> sourceDirectories) {
+        IncrementalBuildCache.Fingerprint fingerprint = new IncrementalBuildCache.Fingerprint();
+        for (String arg : args) {
+            fingerprint.put(arg);
+        }
+        for (File sourceDirectory : sourceDirectories) {
+            fingerprint.put(sourceDirectory.getAbsolutePath());
+        }
+        putClasspathStamps(fingerprint);
+        return fingerprint.build();
+    }
+
     public void buildApk() throws By {
+        String fingerprint = null;
+        if (incrementalBuildCache != null) {
+            fingerprint = getApkFingerprint();
+            if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_APK, fingerprint, new File(yq.unsignedUnalignedApkPath))) {
+                LogUtil.d(TAG, "Skipped building the APK as its contents didn't change since the last build");
+                return;
+            }
+            incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_APK);
+        }
+
         String firstDexPath = dexesToAddButNotMerge.isEmpty() ? yq.classesDexPath : dexesToAddButNotMerge.remove(0).getAbsolutePath();
         try {
             ApkBuilder apkBuilder = new ApkBuilder(new File(yq.unsignedUnalignedApkPath), new File(yq.resourcesApkPath), new File(firstDexPath), null, null, System.out);
 
             for (Jp library : builtInLibraryManager.getLibraries()) {
-                apkBuilder.addResourcesFromJar(BuiltInLibraries.getLibraryClassesJarPath(library.getName()));
+                File jar = BuiltInLibraries.getLibraryClassesJarPath(library.getName());
+                if (getLibraryArtifactCache().hasJavaResources(jar)) {
+                    apkBuilder.addResourcesFromJar(jar);
+                }
             }
 
             for (String jarPath : mll.getJarLocalLibrary().split(":")) {
-                if (!jarPath.trim().isEmpty()) {
+                if (!jarPath.trim().isEmpty() && getLibraryArtifactCache().hasJavaResources(new File(jarPath))) {
                     apkBuilder.addResourcesFromJar(new File(jarPath));
                 }
             }
@@ -644,10 +797,100 @@ public class ProjectBuilder {
             message += "Archive path: " + e.getArchivePath();
             throw new By(message);
         }
+        if (incrementalBuildCache != null) {
+            incrementalBuildCache.update(IncrementalBuildCache.STAGE_APK, fingerprint);
+        }
         LogUtil.d(TAG, "Time passed since starting to compile resources until building the unsigned APK: " +
                 (System.currentTimeMillis() - timestampResourceCompilationStarted) + " ms");
     }
 
+    /**
+     * Builds the APK like {@link #buildApk()}, but aligns and optionally signs it while writing it,
+     * instead of requiring {@link #runZipalign(String, String)} and signing to copy it afterwards.
+     *
+     * @param signerEngine Engine to sign the APK with, or <code>null</code> to only align it
+     */
+    public void buildAlignedApk(File output, ApkSignerEngine signerEngine) throws By {
+        long savedTimeMillis = System.currentTimeMillis();
+        try (StreamingApkWriter writer = new StreamingApkWriter(output, signerEngine)) {
+            writer.addZipEntries(new File(yq.resourcesApkPath), false);
+
+            if (dexesToAddButNotMerge.isEmpty()) {
+                writer.addFile(new File(yq.classesDexPath), "classes.dex");
+                for (String dexFile : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                    String filename = new File(dexFile).getName();
+                    if (!filename.equals("classes.dex")) {
+                        writer.addFile(new File(dexFile), filename);
+                    }
+                }
+            } else {
+                int dexNumber = 1;
+                for (File dexFile : dexesToAddButNotMerge) {
+                    writer.addFile(dexFile, dexNumber == 1 ? "classes.dex" : "classes" + dexNumber + ".dex");
+                    dexNumber++;
+                }
+            }
+
+            for (Jp library : builtInLibraryManager.getLibraries()) {
+                File jar = BuiltInLibraries.getLibraryClassesJarPath(library.getName());
+                if (getLibraryArtifactCache().hasJavaResources(jar)) {
+                    writer.addZipEntries(jar, true);
+                }
+            }
+
+            for (String jarPath : mll.getJarLocalLibrary().split(":")) {
+                if (!jarPath.trim().isEmpty() && getLibraryArtifactCache().hasJavaResources(new File(jarPath))) {
+                    writer.addZipEntries(new File(jarPath), true);
+                }
+            }
+
+            /* Add project's native libraries */
+            File nativeLibrariesDirectory = new File(fpu.getPathNativelibs(yq.sc_id));
+            if (nativeLibrariesDirectory.exists()) {
+                writer.addNativeLibraries(nativeLibrariesDirectory);
+            }
+
+            /* Add Local libraries' native libraries */
+            for (String nativeLibraryDirectory : mll.getNativeLibs()) {
+                writer.addNativeLibraries(new File(nativeLibraryDirectory));
+            }
+
+            writer.finish();
+        } catch (IOException | GeneralSecurityException e) {
+            throw new By("Failed to build APK: " + Log.getStackTraceString(e));
+        }
+        LogUtil.d(TAG, "Building the " + (signerEngine == null ? "aligned" : "signed") + " APK took "
+                + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+    }
+
+    private String getApkFingerprint() {
+        IncrementalBuildCache.Fingerprint fingerprint = new IncrementalBuildCache.Fingerprint()
+                .putStamp(new File(yq.resourcesApkPath))
+                .putStamp(new File(fpu.getPathNativelibs(yq.sc_id)));
+        if (dexesToAddButNotMerge.isEmpty()) {
+            for (String dexFile : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                fingerprint.putStamp(new File(dexFile));
+            }
+        } else {
+            for (File dexFile : dexesToAddButNotMerge) {
+                fingerprint.putStamp(dexFile);
+            }
+        }
+        for (Jp library : builtInLibraryManager.getLibraries()) {
+            fingerprint.putStamp(BuiltInLibraries.getLibraryClassesJarPath(library.getName()));
+        }
+        fingerprint.put(mll.getJarLocalLibrary());
+        for (String jarPath : mll.getJarLocalLibrary().split(":")) {
+            if (!jarPath.trim().isEmpty()) {
+                fingerprint.putStamp(new File(jarPath));
+            }
+        }
+        for (String nativeLibraryDirectory : mll.getNativeLibs()) {
+            fingerprint.putStamp(new File(nativeLibraryDirectory));
+        }
+        return fingerprint.build();
+    }
+
     /**
      * Either merges DEX files to as few as possible, or adds list of DEX files to add to the APK to
      * {@link #dexesToAddButNotMerge}.
@@ -715,6 +958,7 @@ public class ProjectBuilder {
             }
         }
 
+        Set<File> libraryDexes = new HashSet<>(dexes);
         for (String file : FileUtil.listFiles(yq.binDirectoryPath + File.separator + "dex", "dex")) {
             dexes.add(new File(file));
         }
@@ -722,7 +966,27 @@ public class ProjectBuilder {
         LogUtil.d(TAG, "Will merge these " + dexes.size() + " DEX files to classes.dex: " + dexes);
 
         if (settings.getMinSdkVersion() < 21 || !yq.N.isDebugBuild) {
-            dexLibraries(new File(yq.binDirectoryPath), dexes);
+            String fingerprint = null;
+            if (incrementalBuildCache != null) {
+                IncrementalBuildCache.Fingerprint dexesFingerprint = new IncrementalBuildCache.Fingerprint();
+                for (File dex : dexes) {
+                    dexesFingerprint.putStamp(dex);
+                }
+                fingerprint = dexesFingerprint.build();
+                if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_DEX_MERGE, fingerprint, new File(yq.classesDexPath))) {
+                    LogUtil.d(TAG, "Skipped merging DEX files as they didn't change since the last build");
+                    return;
+                }
+                incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_DEX_MERGE);
+                // merging might result in fewer DEX files than last time
+                for (String mergedDex : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                    FileUtil.deleteFile(mergedDex);
+                }
+            }
+            dexLibraries(new File(yq.binDirectoryPath), dexes, libraryDexes);
+            if (incrementalBuildCache != null) {
+                incrementalBuildCache.update(IncrementalBuildCache.STAGE_DEX_MERGE, fingerprint);
+            }
             LogUtil.d(TAG, "Merging DEX files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
         } else {
             dexesToAddButNotMerge = dexes;
@@ -806,9 +1070,26 @@ public class ProjectBuilder {
      * This method uses apksigner, but kellinwood's zipsigner as fallback.
      */
     public void signDebugApk() throws GeneralSecurityException, IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+        String fingerprint = null;
+        if (incrementalBuildCache != null) {
+            fingerprint = new IncrementalBuildCache.Fingerprint()
+                    .putStamp(new File(yq.unsignedUnalignedApkPath))
+                    .build();
+            if (incrementalBuildCache.isUpToDate(IncrementalBuildCache.STAGE_SIGN, fingerprint, new File(yq.finalToInstallApkPath))) {
+                LogUtil.d(TAG, "Skipped signing the APK as it didn't change since the last build");
+                return;
+            }
+            incrementalBuildCache.invalidate(IncrementalBuildCache.STAGE_SIGN);
+        }
         TestkeySignBridge.signWithTestkey(yq.unsignedUnalignedApkPath, yq.finalToInstallApkPath);
+        if (incrementalBuildCache != null) {
+            incrementalBuildCache.update(IncrementalBuildCache.STAGE_SIGN, fingerprint);
+        }
     }
 
+    /**
+     * Merges DEX files into one. Safe to be called concurrently, as every merge gets its own {@link DxContext}.
+     */
     private void mergeDexes(File target, List<Dex> dexes) throws IOException {
         DexMerger merger = new DexMerger(dexes.toArray(new Dex[0]), CollisionPolicy.KEEP_FIRST, new DxContext());
         merger.merge().writeTo(target);
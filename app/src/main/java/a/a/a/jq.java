@@ -240,7 +240,7 @@ public class jq {
     /**
      * Registers a permission for the entire project.
      */
-    public void addPermission(int permission) {
+    public synchronized void addPermission(int permission) {
         q = permission | q;
     }
 
@@ -257,7 +257,7 @@ public class jq {
     /**
      * Registers a permission for an Activity.
      */
-    public void addPermission(String activityName, int permission) {
+    public synchronized void addPermission(String activityName, int permission) {
         if (!w.containsKey(activityName)) {
             w.put(activityName, new a());
         }
@@ -268,7 +268,7 @@ public class jq {
     /**
      * @return The permissions object for the Activity
      */
-    public a a(String activityName) {
+    public synchronized a a(String activityName) {
         if (!w.containsKey(activityName)) {
             w.put(activityName, new a());
         }
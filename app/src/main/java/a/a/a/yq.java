@@ -5,28 +5,39 @@ import static com.besome.sketch.Config.VAR_DEFAULT_TARGET_SDK_VERSION;
 import static mod.hey.studios.util.ProjectFile.getDefaultColor;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.util.Log;
 
-import com.besome.sketch.beans.BlockBean;
-import com.besome.sketch.beans.ComponentBean;
 import com.besome.sketch.beans.ProjectFileBean;
 import com.besome.sketch.beans.ProjectLibraryBean;
 import com.besome.sketch.beans.SrcCodeBean;
 import com.besome.sketch.beans.ViewBean;
 import com.besome.sketch.editor.manage.library.material3.Material3LibraryManager;
+import com.google.gson.Gson;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import dev.aldi.sayuti.block.ExtraBlockFile;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.util.ProjectFile;
+import mod.hilal.saif.activities.tools.ConfigActivity;
 import mod.hilal.saif.blocks.CommandBlock;
+import mod.jbk.build.IncrementalBuildCache;
+import mod.jbk.build.ProjectFeatureIndex;
+import mod.jbk.build.SourceGenerationCache;
+import mod.jbk.build.SourcePreviewCache;
 import mod.pranav.viewbinding.ViewBindingBuilder;
 import pro.sketchware.SketchApplication;
 import pro.sketchware.util.library.BuiltInLibraryManager;
@@ -189,6 +200,7 @@ public class yq {
     public boolean generateDataBindingClasses;
     public boolean isAndroidStudioExport;
     private ExportType exportingType;
+    private SourceGenerationCache generationCache;
 
     public yq(Context context, String sc_id) {
         this(context, wq.d(sc_id), lC.b(sc_id));
@@ -367,7 +379,7 @@ public class yq {
                     "debug" + File.separator + "DebugActivity.java"
             );
             debugActivityContent = PACKAGE_PLACEHOLDER_PATTERN.matcher(debugActivityContent).replaceAll(packageName);
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
+            writeGeneratedFile(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
         }
 
         String customApplicationClassName = new ProjectSettings(sc_id).getValue(
@@ -428,7 +440,7 @@ public class yq {
                         "import android.util.Log;", imports);
             }
 
-            fileUtil.b(javaFilesPath + File.separator
+            writeGeneratedFile(javaFilesPath + File.separator
                     + customClassPackageAsFolders + File.separator
                     + customClassSimpleName + ".java", sketchApplicationFileContent);
         }
@@ -447,7 +459,7 @@ public class yq {
 
                 sketchLoggerFileContent = sketchLoggerFileContent.replace("<?class_name?>", customClassSimpleName);
 
-                fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
+                writeGeneratedFile(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
                         sketchLoggerFileContent);
             }
         }
@@ -460,19 +472,37 @@ public class yq {
      * </pre>, while AndroidManifest.xml gets saved to {@link yq#androidManifestPath}.
      */
     public void a(String fileName, String fileContent) {
+        writeGeneratedFile(getGeneratedFilePath(fileName), fileContent);
+    }
+
+    private String getGeneratedFilePath(String fileName) {
         if (fileName.endsWith("java")) {
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName, fileContent);
+            return javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName;
         } else if (fileName.equals("AndroidManifest.xml")) {
-            fileUtil.b(androidManifestPath, fileContent);
+            return androidManifestPath;
         } else if (fileName.equals("colors.xml") || fileName.equals("styles.xml") || fileName.equals("strings.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "values" + File.separator + fileName, fileContent);
+            return resDirectoryPath + File.separator + "values" + File.separator + fileName;
         } else if (fileName.equals("provider_paths.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "xml" + File.separator + fileName, fileContent);
+            return resDirectoryPath + File.separator + "xml" + File.separator + fileName;
         } else {
-            fileUtil.b(layoutFilesPath + File.separator + fileName, fileContent);
+            return layoutFilesPath + File.separator + fileName;
         }
     }
 
+    /**
+     * Writes a generated file. During incremental builds, the file is recorded as generated
+     * and left untouched if its content didn't change, to keep its modification time.
+     */
+    private void writeGeneratedFile(String path, String content) {
+        if (generationCache != null) {
+            generationCache.addGeneratedFile(path);
+            if (new File(path).isFile() && content.equals(FileUtil.readFile(path))) {
+                return;
+            }
+        }
+        fileUtil.b(path, content);
+    }
+
     /**
      * Initialize project metadata
      */
@@ -515,165 +545,42 @@ public class yq {
             N.addPermission(jq.PERMISSION_ACCESS_NETWORK_STATE);
             N.setupGoogleMap(googleMaps);
         }
+        // Only parts of the project which changed since the last time get analyzed again
+        ProjectFeatureIndex featureIndex = ProjectFeatureIndex.get(sc_id);
         for (ProjectFileBean customView : projectFileManager.c()) {
-            for (ViewBean viewBean : eC.a(projectDataManager.d(customView.getXmlName()))) {
-                var classNameParts = viewBean.convert.split("\\.");
-                var className = classNameParts[classNameParts.length - 1];
-                switch (className) {
-                    case "CircleImageView" -> N.x.isCircleImageViewUsed = true;
-                    case "CodeView" -> N.x.isCodeViewUsed = true;
-                    case "LottieAnimationView" -> N.x.isLottieUsed = true;
-                    case "OTPView" -> N.x.isOTPViewUsed = true;
-                    case "PatternLockView" -> N.x.isPatternLockViewUsed = true;
-                    case "WaveSideBar" -> N.x.isWaveSideBarUsed = true;
-                    case "YouTubePlayerView" -> N.x.isYoutubePlayerUsed = true;
-                    case "SwipeRefreshLayout" -> N.x.isSwipeRefreshLayoutUsed = true;
-                }
-            }
+            String xmlName = customView.getXmlName();
+            featureIndex.getViewFeatures(xmlName, projectDataManager.d(xmlName)).applyTo(N, null);
         }
         for (ProjectFileBean activity : projectFileManager.b()) {
+            String activityName = activity.getActivityName();
             if (activity.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_DRAWER)) {
-                N.a(activity.getActivityName()).hasDrawer = true;
-            }
-            for (ComponentBean component : projectDataManager.e(activity.getJavaName())) {
-                switch (component.type) {
-                    case ComponentBean.COMPONENT_TYPE_CAMERA, 35 -> {
-                        N.g = true;
-                        N.u = true;
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_CAMERA);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_READ_EXTERNAL_STORAGE);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_WRITE_EXTERNAL_STORAGE);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_FILE_PICKER ->
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_READ_EXTERNAL_STORAGE);
-                    case ComponentBean.COMPONENT_TYPE_FIREBASE -> {
-                        N.isGsonUsed = true;
-                        N.isFirebaseDatabaseUsed = true;
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_INTERNET);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_ACCESS_NETWORK_STATE);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_FIREBASE_STORAGE -> {
-                        N.isFirebaseStorageUsed = true;
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_READ_EXTERNAL_STORAGE);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_WRITE_EXTERNAL_STORAGE);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_VIBRATOR ->
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_VIBRATE);
-                    case ComponentBean.COMPONENT_TYPE_FIREBASE_AUTH -> {
-                        N.isFirebaseAuthUsed = true;
-                        N.a(activity.getActivityName()).usesFirebaseAuth = true;
-                    }
-                    case ComponentBean.COMPONENT_TYPE_REQUEST_NETWORK -> {
-                        N.isGsonUsed = true;
-                        N.isHttp3Used = true;
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_INTERNET);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_ACCESS_NETWORK_STATE);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_TEXT_TO_SPEECH -> N.isTextToSpeechUsed = true;
-                    case ComponentBean.COMPONENT_TYPE_SPEECH_TO_TEXT -> {
-                        N.isSpeechToTextUsed = true;
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_RECORD_AUDIO);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_BLUETOOTH_CONNECT -> {
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_BLUETOOTH);
-                        N.addPermission(activity.getActivityName(), jq.PERMISSION_BLUETOOTH_ADMIN);
-                    }
-                    case ComponentBean.COMPONENT_TYPE_LOCATION_MANAGER ->
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_ACCESS_FINE_LOCATION);
-                    case ComponentBean.COMPONENT_TYPE_FIREBASE_CLOUD_MESSAGE ->
-                            N.x.isFCMUsed = true;
-                    case ComponentBean.COMPONENT_TYPE_FIREBASE_AUTH_GOOGLE_LOGIN ->
-                            N.x.isFBGoogleUsed = true;
-                    default -> {
-                    }
-                }
-            }
-
-            for (ViewBean view : eC.a(projectDataManager.d(activity.getXmlName()))) {
-                var classNameParts = view.convert.split("\\.");
-                var className = classNameParts[classNameParts.length - 1];
-                switch (className) {
-                    case "CircleImageView" -> N.x.isCircleImageViewUsed = true;
-                    case "CodeView" -> N.x.isCodeViewUsed = true;
-                    case "LottieAnimationView" -> N.x.isLottieUsed = true;
-                    case "OTPView" -> N.x.isOTPViewUsed = true;
-                    case "PatternLockView" -> N.x.isPatternLockViewUsed = true;
-                    case "WaveSideBar" -> N.x.isWaveSideBarUsed = true;
-                    case "YouTubePlayerView" -> N.x.isYoutubePlayerUsed = true;
-                    case "SwipeRefreshLayout" -> N.x.isSwipeRefreshLayoutUsed = true;
-                }
+                N.a(activityName).hasDrawer = true;
             }
+            String javaName = activity.getJavaName();
+            featureIndex.getComponentFeatures(javaName, projectDataManager.e(javaName)).applyTo(N, activityName);
+            String xmlName = activity.getXmlName();
+            featureIndex.getViewFeatures(xmlName, projectDataManager.d(xmlName)).applyTo(N, activityName);
+            featureIndex.getBlockFeatures(javaName, projectDataManager.b(javaName)).applyTo(N, activityName);
+            N.b();
+        }
+    }
 
-            for (Map.Entry<String, ArrayList<BlockBean>> entry : projectDataManager.b(activity.getJavaName()).entrySet()) {
-                for (BlockBean block : entry.getValue()) {
-                    switch (block.opCode) {
-                        case "intentSetAction":
-                            // If an Intent setAction (ACTION_CALL) block is used
-                            if (block.parameters.get(1).equals(uq.c[1])) {
-                                N.addPermission(activity.getActivityName(), jq.PERMISSION_CALL_PHONE);
-                            }
-                            break;
-
-                        case "fileutilread":
-                        case "fileutilisexist":
-                        case "fileutillistdir":
-                        case "fileutilisdir":
-                        case "fileutilisfile":
-                        case "fileutillength":
-                        case "fileutilStartsWith":
-                        case "fileutilEndsWith":
-                        case "getJpegRotate":
-                        case "setImageFilePath":
-                        case "fileutilGetLastSegmentPath":
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_READ_EXTERNAL_STORAGE);
-                            break;
-
-                        case "fileutilwrite":
-                        case "fileutilcopy":
-                        case "fileutilcopydir":
-                        case "fileutilmove":
-                        case "fileutildelete":
-                        case "fileutilmakedir":
-                        case "resizeBitmapFileRetainRatio":
-                        case "resizeBitmapFileToSquare":
-                        case "resizeBitmapFileToCircle":
-                        case "resizeBitmapFileWithRoundedBorder":
-                        case "cropBitmapFileFromCenter":
-                        case "rotateBitmapFile":
-                        case "scaleBitmapFile":
-                        case "skewBitmapFile":
-                        case "setBitmapFileColorFilter":
-                        case "setBitmapFileBrightness":
-                        case "setBitmapFileContrast":
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_READ_EXTERNAL_STORAGE);
-                            N.addPermission(activity.getActivityName(), jq.PERMISSION_WRITE_EXTERNAL_STORAGE);
-                            break;
-
-                        case "strToMap":
-                        case "mapToStr":
-                        case "strToListMap":
-                        case "listMapToStr":
-                        case "GsonListTojsonString":
-                        case "GsonStringToListString":
-                        case "GsonStringToListNumber":
-                            N.isGsonUsed = true;
-                            break;
-
-                        case "setImageUrl":
-                            N.isGlideUsed = true;
-                            N.addPermission(jq.PERMISSION_INTERNET);
-                            break;
-
-                        case "webViewLoadUrl":
-                            N.addPermission(jq.PERMISSION_INTERNET);
-                            N.addPermission(jq.PERMISSION_ACCESS_NETWORK_STATE);
-                            break;
-
-                        default:
-                    }
-                }
+    /**
+     * Generates the project's files like {@link #b(hC, eC, iC, BuiltInLibraryManager)}, but skips
+     * generating files whose inputs didn't change since the last build.
+     *
+     * @param generationCache The cache of the last build's generated files,
+     *                        or <code>null</code> to generate all files
+     */
+    public void b(hC projectFileManager, eC projectDataManger, iC projectLibraryManager, BuiltInLibraryManager builtInLibraryManager, SourceGenerationCache generationCache) {
+        this.generationCache = generationCache;
+        try {
+            b(projectFileManager, projectDataManger, projectLibraryManager, builtInLibraryManager);
+            if (generationCache != null) {
+                generationCache.finish();
             }
-            N.b();
+        } finally {
+            this.generationCache = null;
         }
     }
 
@@ -726,7 +633,7 @@ public class yq {
                 mx.addString("google_maps_key", projectLibraryManager.e().data, false);
             }
             String filePath = "values/secrets.xml";
-            fileUtil.b(resDirectoryPath + File.separator + filePath,
+            writeGeneratedFile(resDirectoryPath + File.separator + filePath,
                     CommandBlock.applyCommands(filePath, mx.toCode()));
         }
         generateGradleFiles();
@@ -741,96 +648,146 @@ public class yq {
 
         String javaDir = FileUtil.getExternalStorageDir() + "/.sketchware/data/" + sc_id + "/files/java/";
         String layoutDir = FileUtil.getExternalStorageDir() + "/.sketchware/data/" + sc_id + "/files/resource/layout/";
-        List<File> javaFiles;
-        {
-            File[] files = new File(javaDir).listFiles();
-            if (files == null) files = new File[0];
-            javaFiles = Arrays.asList(files);
-        }
-        List<File> layoutFiles;
-        {
-            File[] files = new File(layoutDir).listFiles();
-            if (files == null) files = new File[0];
-            layoutFiles = Arrays.asList(files);
-        }
+        Set<String> javaFiles = getFileNames(javaDir);
+        Set<String> layoutFiles = getFileNames(layoutDir);
+
+        // View Binding classes get generated from the layouts' code, so skip the cache then
+        boolean useGenerationCache = generationCache != null && !isViewBindingEnable();
+        String environmentKey = useGenerationCache ? getGenerationEnvironmentKey(projectFileManager, projectDataManager) : null;
 
-        // Generate Activities unless a custom version of it exists already
-        // at /Internal storage/.sketchware/data/<sc_id>/files/java/
+        // Activities and layouts are independent of each other, so generate them concurrently,
+        // but collect their results in the order they'd have been generated in one after another
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         ArrayList<SrcCodeBean> srcCodeBeans = new ArrayList<>();
-        for (ProjectFileBean activity : projectFileManager.b()) {
-            if (!javaFiles.contains(new File(javaDir + activity.getJavaName()))) {
-                srcCodeBeans.add(new SrcCodeBean(activity.getJavaName(),
-                        new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id)));
+        try {
+            // Generate Activities unless a custom version of it exists already
+            // at /Internal storage/.sketchware/data/<sc_id>/files/java/
+            ArrayList<String> javaNames = new ArrayList<>();
+            ArrayList<Future<String>> javaCode = new ArrayList<>();
+            ArrayList<ArrayList<HashMap<String, Object>>> javaXmlCommands = new ArrayList<>();
+            for (ProjectFileBean activity : projectFileManager.b()) {
+                String javaName = activity.getJavaName();
+                if (!javaFiles.contains(javaName)) {
+                    javaNames.add(javaName);
+                    if (useGenerationCache) {
+                        String key = getJavaFileGenerationKey(environmentKey, activity, projectDataManager);
+                        if (generationCache.isUpToDate(javaName, key, new File(getGeneratedFilePath(javaName)))) {
+                            javaCode.add(null);
+                            javaXmlCommands.add(generationCache.getXmlCommands(javaName));
+                            continue;
+                        }
+                    }
+
+                    ArrayList<HashMap<String, Object>> xmlCommands = new ArrayList<>();
+                    javaXmlCommands.add(xmlCommands);
+                    javaCode.add(executor.submit(() -> {
+                        CommandBlock.collectXmlCommands(xmlCommands);
+                        try {
+                            return new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id);
+                        } finally {
+                            CommandBlock.stopCollectingXmlCommands();
+                        }
+                    }));
+                }
             }
-        }
 
-        var path = wq.b(sc_id) + "/command";
-        var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
-        if (newXMLCommand && FileUtil.isExistFile(path)) {
-            FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
-        }
+            for (int i = 0; i < javaNames.size(); i++) {
+                String javaName = javaNames.get(i);
+                Future<String> code = javaCode.get(i);
+                if (code != null) {
+                    srcCodeBeans.add(new SrcCodeBean(javaName, getGeneratedCode(code)));
+                    if (useGenerationCache) {
+                        generationCache.setXmlCommands(javaName, javaXmlCommands.get(i));
+                    }
+                }
+                CommandBlock.addXmlCommands(javaXmlCommands.get(i));
+            }
+
+            var path = wq.b(sc_id) + "/command";
+            var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
+            if (newXMLCommand && FileUtil.isExistFile(path)) {
+                FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
+            }
 
-        var viewBindingBuilder = new ViewBindingBuilder(List.of(), new File("."), packageName);
+            var viewBindingBuilder = new ViewBindingBuilder(List.of(), new File("."), packageName);
+            String xmlCommandsKey = useGenerationCache ? new Gson().toJson(CommandBlock.getXmlCommands()) : null;
+
+            // Generate layouts unless a custom version of it exists already
+            // at /Internal storage/.sketchware/data/<sc_id>/files/resource/layout/
+            ArrayList<String> xmlNames = new ArrayList<>();
+            ArrayList<Future<String>> layoutCode = new ArrayList<>();
+            ArrayList<ProjectFileBean> regularLayouts = projectFileManager.b();
+            for (ProjectFileBean layout : regularLayouts) {
+                String xmlName = layout.getXmlName();
+                if (!layoutFiles.contains(xmlName)) {
+                    if (useGenerationCache && generationCache.isUpToDate(xmlName,
+                            getLayoutGenerationKey(environmentKey, xmlCommandsKey, layout, projectDataManager, projectDataManager.h(xmlName)),
+                            new File(getGeneratedFilePath(xmlName)))) {
+                        continue;
+                    }
 
-        // Generate layouts unless a custom version of it exists already
-        // at /Internal storage/.sketchware/data/<sc_id>/files/resource/layout/
-        ArrayList<ProjectFileBean> regularLayouts = projectFileManager.b();
-        for (ProjectFileBean layout : regularLayouts) {
-            String xmlName = layout.getXmlName();
-            Ox ox = new Ox(N, layout);
-            ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
+                    xmlNames.add(xmlName);
+                    layoutCode.add(executor.submit(() -> {
+                        Ox ox = new Ox(N, layout);
+                        ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
+                        return CommandBlock.applyCommands(xmlName, ox.b());
+                    }));
+                }
+            }
 
-                if (isViewBindingEnable()) {
-                    var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
-                    srcCodeBeans.add(new SrcCodeBean(
-                            ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
-                    ));
+            ArrayList<ProjectFileBean> customViewFiles = projectFileManager.c();
+            for (ProjectFileBean customViewFile : customViewFiles) {
+                String xmlName = customViewFile.getXmlName();
+                if (!layoutFiles.contains(xmlName)) {
+                    if (useGenerationCache && generationCache.isUpToDate(xmlName,
+                            getLayoutGenerationKey(environmentKey, xmlCommandsKey, customViewFile, projectDataManager, null),
+                            new File(getGeneratedFilePath(xmlName)))) {
+                        continue;
+                    }
+
+                    xmlNames.add(xmlName);
+                    layoutCode.add(executor.submit(() -> {
+                        Ox ox = new Ox(N, customViewFile);
+                        ox.a(eC.a(projectDataManager.d(xmlName)));
+                        return CommandBlock.applyCommands(xmlName, ox.b());
+                    }));
                 }
             }
-        }
 
-        ArrayList<ProjectFileBean> customViewFiles = projectFileManager.c();
-        for (ProjectFileBean customViewFile : customViewFiles) {
-            String xmlName = customViewFile.getXmlName();
-            Ox ox = new Ox(N, customViewFile);
-            ox.a(eC.a(projectDataManager.d(xmlName)));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
+            for (int i = 0; i < xmlNames.size(); i++) {
+                String xmlName = xmlNames.get(i);
+                String code = getGeneratedCode(layoutCode.get(i));
+                srcCodeBeans.add(new SrcCodeBean(xmlName, code));
 
                 if (isViewBindingEnable()) {
                     var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
+                    FileUtil.writeFile(privFile.getAbsolutePath(), code);
+                    var bindingCode = viewBindingBuilder.generateBindingForLayout(privFile);
                     srcCodeBeans.add(new SrcCodeBean(
                             ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
+                            CommandBlock.applyCommands(xmlName, bindingCode)
                     ));
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
 
         Ix ix = new Ix(N, projectFileManager.b(), builtInLibraryManager);
         ix.setYq(this);
 
         // Make generated classes viewable
-        if (!javaFiles.contains(new File(javaDir + "SketchwareUtil.java"))) {
+        if (!javaFiles.contains("SketchwareUtil.java")) {
             srcCodeBeans.add(new SrcCodeBean("SketchwareUtil.java",
                     Lx.i(packageName, material3LibraryManager.isMaterial3Enabled())));
         }
 
-        if (!javaFiles.contains(new File(javaDir + "FileUtil.java"))) {
+        if (!javaFiles.contains("FileUtil.java")) {
             srcCodeBeans.add(new SrcCodeBean("FileUtil.java",
                     Lx.e(packageName)));
         }
 
-        if (!javaFiles.contains(new File(javaDir + "RequestNetwork.java")) && N.isHttp3Used) {
+        if (!javaFiles.contains("RequestNetwork.java") && N.isHttp3Used) {
             srcCodeBeans.add(new SrcCodeBean("RequestNetwork.java",
                     Lx.j(Lx.h(packageName), false)));
         }
@@ -840,18 +797,18 @@ public class yq {
                     Lx.j(Lx.g(packageName), false)));
         }
 
-        if (!javaFiles.contains(new File(javaDir + "BluetoothConnect.java")) && N.hasPermission(jq.PERMISSION_BLUETOOTH)) {
+        if (!javaFiles.contains("BluetoothConnect.java") && N.hasPermission(jq.PERMISSION_BLUETOOTH)) {
             srcCodeBeans.add(new SrcCodeBean("BluetoothConnect.java",
                     Lx.j(Lx.b(packageName), false)));
         }
 
-        if (!javaFiles.contains(new File(javaDir + "BluetoothController.java")) && N.hasPermission(jq.PERMISSION_BLUETOOTH)) {
+        if (!javaFiles.contains("BluetoothController.java") && N.hasPermission(jq.PERMISSION_BLUETOOTH)) {
             srcCodeBeans.add(new SrcCodeBean("BluetoothController.java",
                     Lx.j(Lx.c(packageName), false)));
         }
 
         if (N.isMapUsed) {
-            if (!javaFiles.contains(new File(javaDir + "GoogleMapController.java")) && N.isMapUsed) {
+            if (!javaFiles.contains("GoogleMapController.java") && N.isMapUsed) {
                 srcCodeBeans.add(new SrcCodeBean("GoogleMapController.java",
                         Lx.j(Lx.f(packageName), false)));
             }
@@ -865,6 +822,115 @@ public class yq {
         return srcCodeBeans;
     }
 
+    /**
+     * @return Names of files in a directory, empty if it doesn't exist
+     */
+    private static Set<String> getFileNames(String directoryPath) {
+        Set<String> names = new HashSet<>();
+        String[] files = new File(directoryPath).list();
+        if (files != null) {
+            names.addAll(Arrays.asList(files));
+        }
+        return names;
+    }
+
+    /**
+     * Waits for code generated on another thread, rethrowing what it threw.
+     */
+    private static String getGeneratedCode(Future<String> code) {
+        try {
+            return code.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return Fingerprint of inputs all generated files depend on: the project's configuration,
+     * its files and custom views, project data not held by {@link eC}, global custom blocks,
+     * components and events, and the installed version of Sketchware Pro itself.
+     */
+    private String getGenerationEnvironmentKey(hC projectFileManager, eC projectDataManager) {
+        Gson gson = new Gson();
+        var fingerprint = new IncrementalBuildCache.Fingerprint()
+                .put(gson.toJson(N))
+                .put(isAndroidStudioExport)
+                .put(gson.toJson(projectFileManager.b()))
+                .put(gson.toJson(projectFileManager.c()));
+        for (ProjectFileBean customView : projectFileManager.c()) {
+            fingerprint.put(gson.toJson(projectDataManager.d(customView.getXmlName())));
+        }
+
+        try {
+            fingerprint.put(String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime));
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e("yq", "Couldn't get own package info", e);
+        }
+
+        // Views and logic are already part of each file's key
+        File[] projectDataFiles = new File(wq.b(sc_id)).listFiles();
+        if (projectDataFiles != null) {
+            Arrays.sort(projectDataFiles);
+            for (File file : projectDataFiles) {
+                if (file.getName().equals("view") || file.getName().equals("logic")) continue;
+
+                if (file.isDirectory()) {
+                    fingerprint.putStamp(file);
+                } else {
+                    fingerprint.putContents(file);
+                }
+            }
+        }
+
+        // Not the whole directory, as generating sources writes to system/temp/
+        File[] systemDataFiles = new File(wq.getAbsolutePathOf(wq.EXTRA_SYSTEM_DATA)).listFiles(File::isFile);
+        if (systemDataFiles != null) {
+            Arrays.sort(systemDataFiles);
+            for (File file : systemDataFiles) {
+                fingerprint.putStamp(file);
+            }
+        }
+
+        return fingerprint.putStamp(ExtraBlockFile.EXTRA_BLOCKS_DATA_FILE)
+                .putStamp(ExtraBlockFile.EXTRA_BLOCKS_PALETTE_FILE)
+                .putStamp(ConfigActivity.SETTINGS_FILE)
+                .build();
+    }
+
+    private String getJavaFileGenerationKey(String environmentKey, ProjectFileBean activity, eC projectDataManager) {
+        Gson gson = new Gson();
+        String javaName = activity.getJavaName();
+        return new IncrementalBuildCache.Fingerprint()
+                .put(environmentKey)
+                .put(gson.toJson(activity))
+                .put(gson.toJson(projectDataManager.d(activity.getXmlName())))
+                .put(gson.toJson(projectDataManager.d(activity.getDrawerXmlName())))
+                .put(gson.toJson(projectDataManager.b(javaName)))
+                .put(gson.toJson(projectDataManager.e(javaName)))
+                .put(gson.toJson(projectDataManager.g(javaName)))
+                .put(gson.toJson(projectDataManager.i(javaName)))
+                .put(gson.toJson(projectDataManager.j(javaName)))
+                .put(gson.toJson(projectDataManager.k(javaName)))
+                .build();
+    }
+
+    private String getLayoutGenerationKey(String environmentKey, String xmlCommandsKey, ProjectFileBean layout, eC projectDataManager, ViewBean fab) {
+        Gson gson = new Gson();
+        return new IncrementalBuildCache.Fingerprint()
+                .put(environmentKey)
+                .put(xmlCommandsKey)
+                .put(gson.toJson(layout))
+                .put(gson.toJson(projectDataManager.d(layout.getXmlName())))
+                .put(gson.toJson(fab))
+                .build();
+    }
+
     private boolean isViewBindingEnable() {
         return generateDataBindingClasses && projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE).equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
     }
@@ -889,11 +955,29 @@ public class yq {
                 FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
             } else {
                 /*
-                 Generating every java file is necessary to make command blocks for xml work
+                 Generating every java file is necessary to make command blocks for xml work,
+                 but only files which changed since the last preview need to be generated again
                  */
+                SourcePreviewCache previewCache = SourcePreviewCache.get(sc_id);
+                String environmentKey = getGenerationEnvironmentKey(projectFileManager, projectDataManager);
+                ArrayList<HashMap<String, Object>> allXmlCommands = new ArrayList<>();
                 for (ProjectFileBean file : files) {
-                    CommandBlock.CBForXml(new Jx(N, file, projectDataManager).generateCode(isAndroidStudioExport, sc_id));
+                    String javaName = file.getJavaName();
+                    String key = getJavaFileGenerationKey(environmentKey, file, projectDataManager);
+                    ArrayList<HashMap<String, Object>> xmlCommands = previewCache.getXmlCommands(javaName, key);
+                    if (xmlCommands == null) {
+                        xmlCommands = new ArrayList<>();
+                        CommandBlock.collectXmlCommands(xmlCommands);
+                        try {
+                            new Jx(N, file, projectDataManager).generateCode(isAndroidStudioExport, sc_id);
+                        } finally {
+                            CommandBlock.stopCollectingXmlCommands();
+                        }
+                        previewCache.putXmlCommands(javaName, key, xmlCommands);
+                    }
+                    allXmlCommands.addAll(xmlCommands);
                 }
+                CommandBlock.addXmlCommands(allXmlCommands);
             }
         }
 
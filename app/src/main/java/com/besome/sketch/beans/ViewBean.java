@@ -13,6 +13,7 @@ import a.a.a.Gx;
 import a.a.a.nA;
 import mod.agus.jcoderz.beans.ViewBeans;
 import pro.sketchware.R;
+import pro.sketchware.utility.InjectAttributes;
 
 public class ViewBean extends nA implements Parcelable {
     public static final Parcelable.Creator<ViewBean> CREATOR = new Parcelable.Creator<>() {
@@ -73,6 +74,10 @@ public class ViewBean extends nA implements Parcelable {
     @Expose
     public int choiceMode;
     public Gx classInfo;
+    /**
+     * {@link #inject} parsed, see {@link #getInjectAttributes()}.
+     */
+    private transient InjectAttributes injectAttributes;
     @Expose
     public int clickable;
     @Expose
@@ -386,6 +391,18 @@ public class ViewBean extends nA implements Parcelable {
         return classInfo;
     }
 
+    /**
+     * @return {@link #inject} parsed, which only happens again after it changed
+     */
+    public InjectAttributes getInjectAttributes() {
+        InjectAttributes attributes = injectAttributes;
+        if (attributes == null || !attributes.isOf(inject)) {
+            attributes = InjectAttributes.parse(inject, id);
+            injectAttributes = attributes;
+        }
+        return attributes;
+    }
+
     public Gx getParentClassInfo() {
         if (parentType == -1) {
             return null;
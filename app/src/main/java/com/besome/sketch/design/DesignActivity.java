@@ -98,6 +98,7 @@ import mod.agus.jcoderz.editor.manage.permission.ManagePermissionActivity;
 import mod.agus.jcoderz.editor.manage.resource.ManageResourceActivity;
 import mod.hey.studios.activity.managers.assets.ManageAssetsActivity;
 import mod.hey.studios.activity.managers.java.ManageJavaActivity;
+import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
 import mod.hey.studios.project.custom_blocks.CustomBlocksDialog;
 import mod.hey.studios.project.proguard.ManageProguardActivity;
@@ -110,6 +111,7 @@ import mod.hilal.saif.activities.android_manifest.AndroidManifestInjection;
 import mod.hilal.saif.activities.tools.ConfigActivity;
 import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.SourceGenerationCache;
 import mod.jbk.diagnostic.CompileErrorSaver;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
@@ -1082,8 +1084,16 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
             try {
                 var q = activity.q;
                 var sc_id = DesignActivity.sc_id;
+                boolean incrementalBuild = new BuildSettings(sc_id).getValue(BuildSettings.SETTING_INCREMENTAL_BUILD,
+                        BuildSettings.SETTING_GENERIC_VALUE_FALSE).equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE);
+                SourceGenerationCache generationCache = incrementalBuild ? new SourceGenerationCache(q) : null;
                 onProgress("Deleting temporary files...", 1);
-                FileUtil.deleteFile(q.projectMyscPath);
+                if (incrementalBuild) {
+                    /* Keep bin/, gen/ and generated sources so that unchanged build stages can reuse their outputs */
+                    generationCache.deleteOutdatedFiles();
+                } else {
+                    FileUtil.deleteFile(q.projectMyscPath);
+                }
 
                 q.c(activity.getApplicationContext());
                 q.a();
@@ -1112,14 +1122,19 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                 kC.a(q.assetsPath + File.separator + "fonts");
 
                 ProjectBuilder builder = new ProjectBuilder(this, activity.getApplicationContext(), q);
+                if (incrementalBuild) {
+                    builder.enableIncrementalBuild();
+                }
 
                 var fileManager = jC.b(sc_id);
                 var dataManager = jC.a(sc_id);
                 var libraryManager = jC.c(sc_id);
                 q.a(libraryManager, fileManager, dataManager);
                 builder.buildBuiltInLibraryInformation();
-                q.b(fileManager, dataManager, libraryManager, builder.getBuiltInLibraryManager());
-                q.f();
+                q.b(fileManager, dataManager, libraryManager, builder.getBuiltInLibraryManager(), generationCache);
+                if (!incrementalBuild) {
+                    q.f();
+                }
                 q.e();
 
                 builder.maybeExtractAapt2();
@@ -1145,27 +1160,30 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                     return;
                 }
 
-                KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
-                if (canceled) {
-                    return;
-                }
+                if (!builder.canReuseCompiledClasses()) {
+                    KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
+                    if (canceled) {
+                        return;
+                    }
 
-                onProgress("Java is compiling...", 13);
-                builder.compileJavaCode();
-                if (canceled) {
-                    return;
-                }
+                    onProgress("Java is compiling...", 13);
+                    builder.compileJavaCode();
+                    if (canceled) {
+                        return;
+                    }
 
-                StringfogHandler stringfogHandler = new StringfogHandler(sc_id);
-                stringfogHandler.start(this, builder);
-                if (canceled) {
-                    return;
-                }
+                    StringfogHandler stringfogHandler = new StringfogHandler(sc_id);
+                    stringfogHandler.start(this, builder);
+                    if (canceled) {
+                        return;
+                    }
 
-                ProguardHandler proguardHandler = new ProguardHandler(sc_id);
-                proguardHandler.start(this, builder);
-                if (canceled) {
-                    return;
+                    ProguardHandler proguardHandler = new ProguardHandler(sc_id);
+                    proguardHandler.start(this, builder);
+                    if (canceled) {
+                        return;
+                    }
+                    builder.markCompiledClassesUpToDate();
                 }
 
                 onProgress(builder.getDxRunningText(), 17);
@@ -1251,6 +1269,11 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
             });
         }
 
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
         private void onPostExecute() {
             DesignActivity activity = getActivity();
             if (activity == null) return;
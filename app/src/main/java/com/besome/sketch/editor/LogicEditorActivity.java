@@ -134,6 +134,7 @@ import pro.sketchware.utility.SvgUtils;
 @SuppressLint({"ClickableViewAccessibility", "RtlHardcoded", "SetTextI18n", "DefaultLocale"})
 public class LogicEditorActivity extends BaseAppCompatActivity implements View.OnClickListener, Vs, View.OnTouchListener, MoreblockImporterDialog.CallBack {
 
+    private static final int BLOCK_ATTACH_BATCH_SIZE = 200;
     private final Handler handler = new Handler();
     private final int[] v = new int[2];
     private final FirebaseCrashlytics crashlytics = FirebaseCrashlytics.getInstance();
@@ -187,71 +188,111 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         return xmlFileNames;
     }
 
-    private void loadEventBlocks() {
+    /**
+     * Creates the event's blocks on the calling background thread, then attaches them to the
+     * block pane on the main thread in batches, so that large events don't freeze the UI.
+     *
+     * @param onLoaded Run on the main thread once all blocks are attached
+     */
+    private void loadEventBlocks(Runnable onLoaded) {
         crashlytics.log("Loading event blocks");
         ArrayList<BlockBean> eventBlocks = jC.a(scId).a(M.getJavaName(), id + "_" + eventName);
-        if (eventBlocks != null) {
-            if (eventBlocks.isEmpty()) {
-                runOnUiThread(() -> e(X));
-            }
-
-            boolean needToFindRoot = true;
-            HashMap<Integer, Rs> blockIdsAndBlocks = new HashMap<>();
-            for (BlockBean next : eventBlocks) {
-                if (eventName.equals("onTextChanged") && next.opCode.equals("getArg") && next.spec.equals("text")) {
-                    next.spec = "charSeq";
+        if (eventBlocks == null) {
+            runOnUiThread(onLoaded);
+            return;
+        }
+        if (eventBlocks.isEmpty()) {
+            runOnUiThread(() -> e(X));
+        }
+
+        // everything that needs to happen on the main thread, in order
+        ArrayList<Runnable> attachSteps = new ArrayList<>();
+        boolean needToFindRoot = true;
+        HashMap<Integer, Rs> blockIdsAndBlocks = new HashMap<>();
+        for (BlockBean next : eventBlocks) {
+            if (eventName.equals("onTextChanged") && next.opCode.equals("getArg") && next.spec.equals("text")) {
+                next.spec = "charSeq";
+            }
+            Rs b2 = b(next);
+            blockIdsAndBlocks.put((Integer) b2.getTag(), b2);
+            o.g = Math.max(o.g, (Integer) b2.getTag() + 1);
+            boolean isRoot = needToFindRoot;
+            attachSteps.add(() -> {
+                o.a(b2, 0, 0);
+                b2.setOnTouchListener(this);
+                if (isRoot) {
+                    o.getRoot().b(b2);
                 }
-                Rs b2 = b(next);
-                blockIdsAndBlocks.put((Integer) b2.getTag(), b2);
-                o.g = Math.max(o.g, (Integer) b2.getTag() + 1);
-                runOnUiThread(() -> {
-                    o.a(b2, 0, 0);
-                    b2.setOnTouchListener(this);
-                });
-                if (needToFindRoot) {
-                    runOnUiThread(() -> o.getRoot().b(b2));
-                    needToFindRoot = false;
+            });
+            needToFindRoot = false;
+        }
+        for (BlockBean next2 : eventBlocks) {
+            Rs block = blockIdsAndBlocks.get(Integer.valueOf(next2.id));
+            if (block != null) {
+                Rs subStack1RootBlock = next2.subStack1 >= 0 ? blockIdsAndBlocks.get(next2.subStack1) : null;
+                Rs subStack2RootBlock = next2.subStack2 >= 0 ? blockIdsAndBlocks.get(next2.subStack2) : null;
+                Rs nextBlock = next2.nextBlock >= 0 ? blockIdsAndBlocks.get(next2.nextBlock) : null;
+                HashMap<Integer, Rs> parameterBlocks = new HashMap<>();
+                HashMap<Integer, String> argValues = new HashMap<>();
+                for (int i = 0; i < next2.parameters.size(); i++) {
+                    String parameter = next2.parameters.get(i);
+                    if (parameter != null && !parameter.isEmpty()) {
+                        if (parameter.charAt(0) == '@') {
+                            Rs parameterBlock = blockIdsAndBlocks.get(Integer.valueOf(parameter.substring(1)));
+                            if (parameterBlock != null) {
+                                parameterBlocks.put(i, parameterBlock);
+                            }
+                        } else {
+                            argValues.put(i, parameter);
+                        }
+                    }
                 }
-            }
-            for (BlockBean next2 : eventBlocks) {
-                Rs block = blockIdsAndBlocks.get(Integer.valueOf(next2.id));
-                if (block != null) {
-                    Rs subStack1RootBlock;
-                    if (next2.subStack1 >= 0 && (subStack1RootBlock = blockIdsAndBlocks.get(next2.subStack1)) != null) {
-                        runOnUiThread(() -> block.e(subStack1RootBlock));
+
+                attachSteps.add(() -> {
+                    if (subStack1RootBlock != null) {
+                        block.e(subStack1RootBlock);
                     }
-                    Rs subStack2RootBlock;
-                    if (next2.subStack2 >= 0 && (subStack2RootBlock = blockIdsAndBlocks.get(next2.subStack2)) != null) {
-                        runOnUiThread(() -> block.f(subStack2RootBlock));
+                    if (subStack2RootBlock != null) {
+                        block.f(subStack2RootBlock);
                     }
-                    Rs nextBlock;
-                    if (next2.nextBlock >= 0 && (nextBlock = blockIdsAndBlocks.get(next2.nextBlock)) != null) {
-                        runOnUiThread(() -> block.b(nextBlock));
+                    if (nextBlock != null) {
+                        block.b(nextBlock);
                     }
                     for (int i = 0; i < next2.parameters.size(); i++) {
-                        String parameter = next2.parameters.get(i);
-                        if (parameter != null && !parameter.isEmpty()) {
-                            if (parameter.charAt(0) == '@') {
-                                Rs parameterBlock = blockIdsAndBlocks.get(Integer.valueOf(parameter.substring(1)));
-                                if (parameterBlock != null) {
-                                    int finalI = i;
-                                    runOnUiThread(() -> block.a((Ts) block.V.get(finalI), parameterBlock));
-                                }
-                            } else {
-                                int finalI = i;
-                                runOnUiThread(() -> {
-                                    ((Ss) block.V.get(finalI)).setArgValue(parameter);
-                                    block.m();
-                                });
-                            }
+                        Rs parameterBlock = parameterBlocks.get(i);
+                        String argValue = argValues.get(i);
+                        if (parameterBlock != null) {
+                            block.a((Ts) block.V.get(i), parameterBlock);
+                        } else if (argValue != null) {
+                            ((Ss) block.V.get(i)).setArgValue(argValue);
                         }
                     }
-                }
+                    // re-measuring once is enough, no matter how many arguments got set
+                    if (!argValues.isEmpty()) {
+                        block.m();
+                    }
+                });
             }
-            runOnUiThread(() -> {
-                o.getRoot().k();
-                o.b();
-            });
+        }
+        runOnUiThread(() -> attachBlocks(attachSteps, 0, () -> {
+            o.getRoot().k();
+            o.b();
+            onLoaded.run();
+        }));
+    }
+
+    private void attachBlocks(ArrayList<Runnable> attachSteps, int from, Runnable onAttached) {
+        if (isDestroyed()) return;
+
+        int to = Math.min(from + BLOCK_ATTACH_BATCH_SIZE, attachSteps.size());
+        for (int i = from; i < to; i++) {
+            attachSteps.get(i).run();
+        }
+        if (to < attachSteps.size()) {
+            // let the main thread handle input and draw a frame before the next batch
+            handler.post(() -> attachBlocks(attachSteps, to, onAttached));
+        } else {
+            onAttached.run();
         }
     }
 
@@ -2528,8 +2569,7 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         private void doInBackground() {
             LogicEditorActivity activity = getActivity();
             if (activity != null) {
-                activity.loadEventBlocks();
-                activity.runOnUiThread(activity::h);
+                activity.loadEventBlocks(activity::h);
             }
         }
 
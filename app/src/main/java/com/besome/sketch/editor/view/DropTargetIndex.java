@@ -0,0 +1,91 @@
+package com.besome.sketch.editor.view;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Spatial index of the areas views can get dropped into while dragging in the layout editor.
+ * <p>
+ * Areas are bucketed into the cells of a uniform grid they overlap, so that a point query only
+ * needs to look at the few areas of the cell the point is in, instead of all of them. Areas
+ * spanning very many cells, like the root layout's, are kept aside in a short list which every
+ * query looks at instead.
+ */
+class DropTargetIndex<T> {
+    private static final int CELL_SIZE = 128;
+    private static final int MAX_CELLS_PER_AREA = 64;
+
+    private final HashMap<Long, ArrayList<Entry<T>>> cells = new HashMap<>();
+    private final ArrayList<Entry<T>> largeAreas = new ArrayList<>();
+    private int size;
+
+    private static long getCellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    public void add(Rect rect, T item) {
+        // Rect#contains() never matches empty or inverted areas, so there's nothing to index
+        if (rect.isEmpty()) return;
+
+        Entry<T> entry = new Entry<>(new Rect(rect), item, size++);
+        int left = Math.floorDiv(rect.left, CELL_SIZE);
+        int top = Math.floorDiv(rect.top, CELL_SIZE);
+        int right = Math.floorDiv(rect.right - 1, CELL_SIZE);
+        int bottom = Math.floorDiv(rect.bottom - 1, CELL_SIZE);
+        if ((long) (right - left + 1) * (bottom - top + 1) > MAX_CELLS_PER_AREA) {
+            largeAreas.add(entry);
+            return;
+        }
+
+        for (int cellX = left; cellX <= right; cellX++) {
+            for (int cellY = top; cellY <= bottom; cellY++) {
+                ArrayList<Entry<T>> cell = cells.get(getCellKey(cellX, cellY));
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    cells.put(getCellKey(cellX, cellY), cell);
+                }
+                cell.add(entry);
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        largeAreas.clear();
+        size = 0;
+    }
+
+    /**
+     * @return Of all items whose area contains the point, the one with the highest priority, and of
+     * those with equal priority the one added first. <code>null</code> if no area contains the point.
+     */
+    public T find(int x, int y, ToIntFunction<T> priority) {
+        Entry<T> result = find(largeAreas, x, y, priority, null);
+        ArrayList<Entry<T>> cell = cells.get(getCellKey(Math.floorDiv(x, CELL_SIZE), Math.floorDiv(y, CELL_SIZE)));
+        if (cell != null) {
+            result = find(cell, x, y, priority, result);
+        }
+        return result == null ? null : result.item();
+    }
+
+    private Entry<T> find(ArrayList<Entry<T>> entries, int x, int y, ToIntFunction<T> priority, Entry<T> result) {
+        int highestPriority = result == null ? Integer.MIN_VALUE : priority.applyAsInt(result.item());
+        for (Entry<T> entry : entries) {
+            if (!entry.rect().contains(x, y)) continue;
+
+            int entryPriority = priority.applyAsInt(entry.item());
+            if (result == null || entryPriority > highestPriority
+                    || (entryPriority == highestPriority && entry.order() < result.order())) {
+                highestPriority = entryPriority;
+                result = entry;
+            }
+        }
+        return result;
+    }
+
+    private record Entry<T>(Rect rect, T item, int order) {
+    }
+}
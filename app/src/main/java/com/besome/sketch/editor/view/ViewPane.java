@@ -2,7 +2,6 @@ package com.besome.sketch.editor.view;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.NinePatch;
 import android.graphics.Rect;
@@ -67,17 +66,12 @@ import com.google.android.material.tabs.TabLayout;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import a.a.a.Gx;
 import a.a.a.kC;
-import a.a.a.lC;
 import a.a.a.wB;
-import a.a.a.wq;
-import a.a.a.yB;
 import a.a.a.zB;
 import dev.aldi.sayuti.editor.view.item.ItemBadgeView;
 import dev.aldi.sayuti.editor.view.item.ItemCircleImageView;
@@ -104,12 +98,13 @@ import mod.bobur.XmlToSvgConverter;
 import mod.hey.studios.util.ProjectFile;
 import pro.sketchware.R;
 import pro.sketchware.activities.resourceseditor.components.utils.ColorsEditorManager;
-import pro.sketchware.activities.resourceseditor.components.utils.StringsEditorManager;
+import pro.sketchware.activities.resourceseditor.components.utils.StringResourceIndex;
 import pro.sketchware.managers.inject.InjectRootLayoutManager;
 import pro.sketchware.utility.FilePathUtil;
 import pro.sketchware.utility.FileUtil;
 import pro.sketchware.utility.InjectAttributeHandler;
 import pro.sketchware.utility.InvokeUtil;
+import pro.sketchware.utility.PreviewImageLoader;
 import pro.sketchware.utility.PropertiesUtil;
 import pro.sketchware.utility.ResourceUtil;
 import pro.sketchware.utility.SvgUtils;
@@ -121,7 +116,7 @@ public class ViewPane extends RelativeLayout {
     private Context context;
     private ViewGroup rootLayout;
     private int b = 99;
-    private ArrayList<ViewInfo> viewInfos = new ArrayList<>();
+    private final DropTargetIndex<ViewInfo> viewInfos = new DropTargetIndex<>();
     private ViewInfo viewInfo;
     private TextView highlightedTextView;
     private kC resourcesManager;
@@ -142,7 +137,7 @@ public class ViewPane extends RelativeLayout {
 
     public void clearViews() {
         resetView(true);
-        viewInfos = new ArrayList<>();
+        viewInfos.clear();
         if (rootLayout != null) {
             ((ScrollContainer) rootLayout).setChildScrollEnabled(true);
         }
@@ -390,6 +385,7 @@ public class ViewPane extends RelativeLayout {
                 try {
                     crashlytics.log("ViewPane: trying to set image to FAB");
                     FloatingActionButton fab = (FloatingActionButton) view;
+                    PreviewImageLoader.cancelImage(fab);
                     if (resourcesManager.h(viewBean.image.resName) == ProjectResourceBean.PROJECT_RES_TYPE_RESOURCE) {
                         int resourceId = getContext().getResources().getIdentifier(viewBean.image.resName, "drawable", getContext().getPackageName());
                         if (resourceId != 0) {
@@ -407,23 +403,13 @@ public class ViewPane extends RelativeLayout {
                             if (imagePath.endsWith(".xml")) {
                                 crashlytics.log("ViewPane: loading scaled XML/SVG image");
                                 FilePathUtil fpu = new FilePathUtil();
-                                svgUtils.loadScaledSvgIntoImageView(new AppCompatImageView(getContext()) {
-                                    @Override
-                                    public void setImageBitmap(Bitmap bitmap) {
+                                svgUtils.loadScaledSvgIntoImageView(fab, fpu.getSvgFullPath(sc_id, viewBean.image.resName), scaleFactor);
+                            } else {
+                                PreviewImageLoader.loadImage(fab, imagePath, scaleFactor, bitmap -> {
+                                    if (bitmap != null) {
                                         fab.setImageBitmap(bitmap);
                                     }
-                                }, fpu.getSvgFullPath(sc_id, viewBean.image.resName), scaleFactor);
-                            } else {
-                                Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-                                if (bitmap != null) {
-                                    Bitmap scaledBitmap = Bitmap.createScaledBitmap(
-                                            bitmap,
-                                            bitmap.getWidth() * scaleFactor,
-                                            bitmap.getHeight() * scaleFactor,
-                                            true
-                                    );
-                                    fab.setImageBitmap(scaledBitmap);
-                                }
+                                });
                             }
                         } else {
                             crashlytics.log("ViewPane: converting XML to SVG for FAB");
@@ -460,6 +446,7 @@ public class ViewPane extends RelativeLayout {
         String backgroundResource = viewBean.layout.backgroundResource;
         if (backgroundResource != null) {
             try {
+                PreviewImageLoader.cancelBackground(view);
                 if (resourcesManager.h(backgroundResource) == ProjectResourceBean.PROJECT_RES_TYPE_RESOURCE) {
                     view.setBackgroundResource(getContext().getResources().getIdentifier(viewBean.layout.backgroundResource, "drawable", getContext().getPackageName()));
                 } else {
@@ -473,9 +460,14 @@ public class ViewPane extends RelativeLayout {
                             view.setBackground(new BitmapDrawable(getResources(), backgroundRes));
                         }
                     } else {
-                        Bitmap decodeFile2 = BitmapFactory.decodeFile(backgroundRes);
                         int round2 = Math.round(getResources().getDisplayMetrics().density / 2.0f);
-                        view.setBackground(new BitmapDrawable(getResources(), Bitmap.createScaledBitmap(decodeFile2, decodeFile2.getWidth() * round2, decodeFile2.getHeight() * round2, true)));
+                        PreviewImageLoader.loadBackground(view, backgroundRes, round2, bitmap -> {
+                            if (bitmap != null) {
+                                view.setBackground(new BitmapDrawable(getResources(), bitmap));
+                            } else {
+                                Log.e("DEBUG", "Couldn't decode background " + backgroundRes);
+                            }
+                        });
                     }
                 }
             } catch (Exception e) {
@@ -512,6 +504,7 @@ public class ViewPane extends RelativeLayout {
             updateEditText((EditText) view, viewBean);
         }
         if (classInfo.a("ImageView")) {
+            PreviewImageLoader.cancelImage(view);
             if (resourcesManager.h(viewBean.image.resName) == ProjectResourceBean.PROJECT_RES_TYPE_RESOURCE) {
                 ((ImageView) view).setImageResource(getContext().getResources().getIdentifier(viewBean.image.resName, "drawable", getContext().getPackageName()));
             } else if (viewBean.image.resName.equals("default_image")) {
@@ -526,8 +519,13 @@ public class ViewPane extends RelativeLayout {
                             FilePathUtil fpu = new FilePathUtil();
                             svgUtils.loadScaledSvgIntoImageView((ImageView) view, fpu.getSvgFullPath(sc_id, viewBean.image.resName), round3);
                         } else {
-                            Bitmap decodeFile3 = BitmapFactory.decodeFile(imagelocation);
-                            ((ImageView) view).setImageBitmap(Bitmap.createScaledBitmap(decodeFile3, decodeFile3.getWidth() * round3, decodeFile3.getHeight() * round3, true));
+                            PreviewImageLoader.loadImage(view, imagelocation, round3, bitmap -> {
+                                if (bitmap != null) {
+                                    ((ImageView) view).setImageBitmap(bitmap);
+                                } else {
+                                    ((ImageView) view).setImageResource(R.drawable.default_image);
+                                }
+                            });
                         }
                     } else {
                         XmlToSvgConverter xmlToSvgConverter = new XmlToSvgConverter();
@@ -778,15 +776,7 @@ public class ViewPane extends RelativeLayout {
     }
 
     private ViewInfo getViewInfo(int x, int y) {
-        ViewInfo result = null;
-        int highestPriority = -1;
-        for (ViewInfo viewInfo : viewInfos) {
-            if (viewInfo.rect().contains(x, y) && highestPriority < viewInfo.depth()) {
-                highestPriority = viewInfo.depth();
-                result = viewInfo;
-            }
-        }
-        return result;
+        return viewInfos.find(x, y, ViewInfo::depth);
     }
 
     private void a(ViewBean view, ItemLinearLayout linearLayout) {
@@ -990,7 +980,7 @@ public class ViewPane extends RelativeLayout {
     }
 
     private void addViewInfo(Rect rect, View view, int i, int i2) {
-        viewInfos.add(new ViewInfo(rect, view, i, i2));
+        viewInfos.add(rect, new ViewInfo(rect, view, i, i2));
     }
 
     public void addViewAndUpdateIndex(View view) {
@@ -1305,25 +1295,7 @@ public class ViewPane extends RelativeLayout {
         if (sc_id == null) {
             return key;
         }
-        String filePath = wq.b(sc_id) + "/files/resource/values/strings.xml";
-
-        ArrayList<HashMap<String, Object>> stringsListMap = new ArrayList<>();
-
-        StringsEditorManager stringsEditorManager = new StringsEditorManager();
-        stringsEditorManager.convertXmlStringsToListMap(FileUtil.readFileIfExist(filePath), stringsListMap);
-
-        if (key.equals("@string/app_name") && !stringsEditorManager.isXmlStringsExist(stringsListMap, "app_name")) {
-            return yB.c(lC.b(sc_id), "my_app_name");
-        }
-
-        for (HashMap<String, Object> map : stringsListMap) {
-            String keyValue = stringsStart + map.get("key").toString().trim();
-            if (key.equals(keyValue)) {
-                return map.get("text").toString();
-            }
-        }
-
-        return key;
+        return StringResourceIndex.get(sc_id).resolve(key);
     }
 
     private void updateEditText(EditText editText, ViewBean viewBean) {
@@ -17,6 +17,7 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.core.content.FileProvider;
 
 import com.airbnb.lottie.LottieAnimationView;
+import com.android.apksig.ApkSignerEngine;
 import com.besome.sketch.lib.base.BaseAppCompatActivity;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
@@ -50,6 +51,7 @@ import mod.hey.studios.project.stringfog.StringfogHandler;
 import mod.hey.studios.util.Helper;
 import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.StreamingApkWriter;
 import mod.jbk.build.compiler.bundle.AppBundleCompiler;
 import mod.jbk.export.GetKeyStoreCredentialsDialog;
 import mod.jbk.util.TestkeySignBridge;
@@ -349,6 +351,8 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 "Sign an APK",
                 "Fill in the keystore details to sign the APK. " +
                         "If you don't have a keystore, you can use a test key.");
+        // APKs get signed with algorithms depending on their minimum SDK version
+        credentialsDialog.disableSigningAlgorithmInput();
         credentialsDialog.setListener(credentials -> {
             sign_apk_button.setVisibility(View.GONE);
             sign_apk_output_stage.setVisibility(View.GONE);
@@ -422,7 +426,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
         private final yq.ExportType exportType;
 
         private ProjectBuilder builder;
-        private boolean canceled = false;
+        private volatile boolean canceled = false;
         private boolean buildingAppBundle = false;
         private String signingKeystorePath = null;
         private char[] signingKeystorePassword = null;
@@ -636,37 +640,25 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                     }
                 } else {
                     publishProgress("Building APK...");
-                    builder.buildApk();
-                    if (canceled) {
-                        cancel(true);
-                        return;
-                    }
-
-                    publishProgress("Aligning APK...");
-                    builder.runZipalign(builder.yq.unsignedUnalignedApkPath, builder.yq.unsignedAlignedApkPath);
-                    if (canceled) {
-                        cancel(true);
-                        return;
-                    }
-
-                    publishProgress("Signing APK...");
                     String outputLocation = getCorrectResultFilename(builder.yq.releaseApkPath);
+                    ApkSignerEngine signerEngine = null;
                     if (signWithTestkey) {
-                        TestkeySignBridge.signWithTestkey(builder.yq.unsignedAlignedApkPath, outputLocation);
+                        signerEngine = TestkeySignBridge.createTestkeySignerEngine(builder.settings.getMinSdkVersion());
                     } else if (isResultJarSigningEnabled()) {
                         Security.addProvider(new BouncyCastleProvider());
-                        CustomKeySigner.signZip(
-                                new ZipSigner(),
+                        signerEngine = StreamingApkWriter.createSignerEngine(
                                 wq.j(),
                                 signingKeystorePassword,
                                 signingAliasName,
                                 signingKeystorePassword,
-                                signingAlgorithm,
-                                builder.yq.unsignedAlignedApkPath,
-                                outputLocation
+                                builder.settings.getMinSdkVersion()
                         );
-                    } else {
-                        FileUtil.copyFile(builder.yq.unsignedAlignedApkPath, outputLocation);
+                    }
+                    /* Align and sign while writing the APK, instead of copying it twice afterwards */
+                    builder.buildAlignedApk(new File(outputLocation), signerEngine);
+                    if (canceled) {
+                        cancel(true);
+                        return;
                     }
                 }
             } catch (Throwable throwable) {
@@ -773,6 +765,8 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
         /**
          * Configures parameters for JAR signing the result.
+         * <code>signatureAlgorithm</code> is only used for app bundles, APKs get signed with
+         * algorithms depending on their minimum SDK version, and it may be <code>null</code> for them.
          * <p></p>
          * If {@link #signWithTestkey} is <code>true</code> though, the result will be signed
          * regardless of {@link #configureResultJarSigning(String, char[], String, char[], String)} and {@link #disableResultJarSigning()} calls.
@@ -810,7 +804,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
         public boolean isResultJarSigningEnabled() {
             return signingKeystorePath != null && signingKeystorePassword != null &&
-                    signingAliasName != null && signingAliasPassword != null && signingAlgorithm != null;
+                    signingAliasName != null && signingAliasPassword != null && (!buildingAppBundle || signingAlgorithm != null);
         }
 
         private String getCorrectResultFilename(String oldFormatFilename) {
@@ -829,5 +823,10 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
         public void onProgress(String progress, int step) {
             publishProgress(progress);
         }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
     }
 }
\ No newline at end of file
@@ -50,7 +50,7 @@ public class AppCompatInjection {
         return new Gson().fromJson(toParse, Helper.TYPE_MAP_LIST);
     }
 
-    public static void refreshInjections() {
+    public static synchronized void refreshInjections() {
         for (Map.Entry<String, Map<String, List<? extends Map<String, Object>>>> project : INJECTIONS.entrySet()) {
             Map<String, List<? extends Map<String, Object>>> projectInjections = project.getValue();
 
@@ -69,15 +69,20 @@ public class AppCompatInjection {
         if (projectFile.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_TOOLBAR) ||
                 projectFile.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_DRAWER) ||
                 projectFile.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_FAB)) {
-            if (!INJECTIONS.containsKey(sc_id)) {
-                INJECTIONS.put(sc_id, new HashMap<>());
-            }
-            Map<String, List<? extends Map<String, Object>>> projectInjections = INJECTIONS.get(sc_id);
-            if (!Objects.requireNonNull(projectInjections).containsKey(projectFile.fileName)) {
-                projectInjections.put(projectFile.fileName, readAppCompatInjections(sc_id, projectFile.fileName));
+            List<? extends Map<String, Object>> activityInjections;
+            // layouts may get generated concurrently
+            synchronized (AppCompatInjection.class) {
+                if (!INJECTIONS.containsKey(sc_id)) {
+                    INJECTIONS.put(sc_id, new HashMap<>());
+                }
+                Map<String, List<? extends Map<String, Object>>> projectInjections = INJECTIONS.get(sc_id);
+                if (!Objects.requireNonNull(projectInjections).containsKey(projectFile.fileName)) {
+                    projectInjections.put(projectFile.fileName, readAppCompatInjections(sc_id, projectFile.fileName));
+                }
+                activityInjections = projectInjections.get(projectFile.fileName);
             }
 
-            for (Map<String, Object> injection : Objects.requireNonNull(projectInjections.get(projectFile.fileName))) {
+            for (Map<String, Object> injection : Objects.requireNonNull(activityInjections)) {
                 Object value;
                 if (str.toLowerCase().equals(injection.get("type")) && (value = injection.get("value")) instanceof String) {
                     nx.addAttributeValue((String) value);
@@ -38,6 +38,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
 import java.security.Key;
@@ -62,10 +63,15 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import javax.crypto.Cipher;
 import javax.crypto.EncryptedPrivateKeyInfo;
@@ -87,7 +93,7 @@ import kellinwood.zipio.ZipOutput;
 public class ZipSigner 
 {
 
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
 
     private final ProgressHelper progressHelper = new ProgressHelper();
     private ResourceAdapter resourceAdapter = new DefaultResourceAdapter();
@@ -409,11 +415,6 @@ public class ZipSigner
             main.putValue("Created-By", "1.0 (Android SignApk)");
         }
 
-        // BASE64Encoder base64 = new BASE64Encoder();
-        MessageDigest md = MessageDigest.getInstance("SHA1");
-        byte[] buffer = new byte[512];
-        int num;
-
         // We sort the input entries by name, and add them to the
         // output manifest in sorted order.  We expect that the output
         // map will be deterministic.
@@ -423,8 +424,8 @@ public class ZipSigner
 
         boolean debug = log.isDebugEnabled();
         if (debug) log.debug("Manifest entries:");
+        List<ZioEntry> toDigest = new ArrayList<ZioEntry>();
         for (ZioEntry entry: byName.values()) {
-            if (canceled) break;
             String name = entry.getName();
             if (debug) log.debug(name);
             if (!entry.isDirectory() && !name.equals(JarFile.MANIFEST_NAME) &&
@@ -432,28 +433,122 @@ public class ZipSigner
                     (stripPattern == null ||
                      !stripPattern.matcher(name).matches()))
             {
+                toDigest.add(entry);
+            }
+        }
 
-                progressHelper.progress( ProgressEvent.PRORITY_NORMAL, resourceAdapter.getString(ResourceAdapter.Item.GENERATING_MANIFEST));
-                InputStream data = entry.getInputStream();
-                while ((num = data.read(buffer)) > 0) {
-                    md.update(buffer, 0, num);
+        // Digest entries on all cores, each thread with its own MessageDigest
+        MessageDigest.getInstance("SHA1"); // fail early if SHA1 is unavailable
+        ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(toDigest.size());
+            for (ZioEntry entry : toDigest) {
+                results.add(pool.submit(() -> canceled ? null : digestEntry(entry, digests.get())));
+            }
+
+            for (int i = 0; i < toDigest.size(); i++) {
+                if (canceled) break;
+                String name = toDigest.get(i).getName();
+                byte[] digest;
+                try {
+                    digest = results.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new IOException("Failed to digest " + name, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while digesting " + name, e);
                 }
-                    
+                if (digest == null) break;
+
+                progressHelper.progress( ProgressEvent.PRORITY_NORMAL, resourceAdapter.getString(ResourceAdapter.Item.GENERATING_MANIFEST));
                 Attributes attr = null;
                 if (input != null) {
                     java.util.jar.Attributes inAttr = input.getAttributes(name); 
                     if (inAttr != null) attr = new Attributes( inAttr);
                 }
                 if (attr == null) attr = new Attributes();
-                attr.putValue("SHA1-Digest", Base64.encode(md.digest()));
+                attr.putValue("SHA1-Digest", Base64.encode(digest));
                 output.getEntries().put(name, attr);
             }
         }
+        finally {
+            pool.shutdownNow();
+        }
 
         return output;
     }
 
 
+    /**
+     * Computes the SHA1 of an entry's uncompressed data.  Entries read from an input ZIP get
+     * inflated straight from the input's mapping, which is safe to do for several entries concurrently.
+     */
+    private static byte[] digestEntry(ZioEntry entry, MessageDigest md)
+        throws IOException
+    {
+        md.reset();
+        if (entry.getZipInput() == null || entry.getEntryOut() != null) {
+            // created in memory
+            byte[] buffer = new byte[8192];
+            int num;
+            InputStream data = entry.getInputStream();
+            while ((num = data.read(buffer)) > 0) {
+                md.update(buffer, 0, num);
+            }
+            return md.digest();
+        }
+
+        ByteBuffer rawData = entry.readRawData();
+        if (entry.getCompression() == 0) {
+            md.update(rawData);
+        }
+        else {
+            Inflater inflater = new Inflater(true);
+            try {
+                byte[] input = new byte[Math.min(rawData.remaining(), 65536) + 1];
+                byte[] buffer = new byte[8192];
+                boolean suppliedDummyByte = false;
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(buffer);
+                    if (count > 0) {
+                        md.update(buffer, 0, count);
+                    }
+                    else if (inflater.needsInput() && rawData.hasRemaining()) {
+                        int length = Math.min(rawData.remaining(), input.length);
+                        rawData.get(input, 0, length);
+                        inflater.setInput(input, 0, length);
+                    }
+                    else if (inflater.needsInput() && !suppliedDummyByte) {
+                        // With nowrap=true, zlib may need an extra "dummy" byte of input to finish
+                        input[0] = 0;
+                        inflater.setInput(input, 0, 1);
+                        suppliedDummyByte = true;
+                    }
+                    else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IllegalStateException("Unexpected end of compressed data of " + entry.getName());
+                    }
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data of " + entry.getName(), e);
+            }
+            finally {
+                inflater.end();
+            }
+        }
+        return md.digest();
+    }
+
     /** Write the signature file to the given output stream. */
     private void generateSignatureFile(Manifest manifest, OutputStream out)
     throws IOException, GeneralSecurityException {
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.zip.CRC32;
 import java.util.zip.Inflater;
@@ -294,21 +295,16 @@ public class ZioEntry implements Cloneable {
         }
         else {
 
-            if (debug) log.debug(String.format("Seeking to position 0x%08x", dataPosition));
-            zipInput.seek( dataPosition);
+            ByteBuffer rawData = readRawData();
             
             int bufferSize = Math.min( compressedSize, 8096);
             byte[] buffer = new byte[bufferSize];
-            long totalCount = 0;
             
-            while (totalCount != compressedSize) {
-                int numRead = zipInput.in.read( buffer, 0, (int)Math.min( compressedSize -  totalCount, bufferSize));  
-                if (numRead > 0) {
-                    output.writeBytes(buffer, 0, numRead);
-                    if (debug) log.debug(String.format("Wrote %d bytes", numRead));
-                    totalCount += numRead;
-                }
-                else throw new IllegalStateException(String.format("EOF reached while copying %s with %d bytes left to go", filename, compressedSize -  totalCount));
+            while (rawData.hasRemaining()) {
+                int count = Math.min( rawData.remaining(), bufferSize);
+                rawData.get( buffer, 0, count);
+                output.writeBytes(buffer, 0, count);
+                if (debug) log.debug(String.format("Wrote %d bytes", count));
             }
         }
     }		
@@ -436,6 +432,27 @@ public class ZioEntry implements Cloneable {
         return tmpdata;
     }
 
+    /**
+     * Returns the entry's data as it's stored in the input, i.e. still compressed, as a slice of the
+     * input's mapping.  Unlike the other reads, this doesn't use the input's file pointer, so that
+     * entries of the same input can be read concurrently.  Not supported for entries whose data was
+     * written through {@link #getOutputStream()}.
+     */
+    public ByteBuffer readRawData() throws IOException
+    {
+        long position = dataPosition;
+        if (position < 0) {
+            ByteBuffer header = zipInput.slice( localHeaderOffset & 0xffffffffL, 30);
+            if (header.getInt(0) != 0x04034b50) {
+                throw new IllegalStateException( String.format("Local header not found at pos=0x%08x, file=%s", localHeaderOffset, filename));
+            }
+            // 30 bytes of fixed fields, then file name (n) and extra field (m)
+            position = (localHeaderOffset & 0xffffffffL) + 30 + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            dataPosition = position;
+        }
+        return zipInput.slice( position, compressedSize);
+    }
+
     // Returns an input stream for reading the entry's data. 
     public InputStream getInputStream() throws IOException {
         return getInputStream(null);
@@ -18,14 +18,14 @@ package kellinwood.zipio;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import kellinwood.logging.Logger;
 
 /** Input stream used to read just the data from a zip file entry. */
 public class ZioEntryInputStream extends InputStream {
 
-    RandomAccessFile raf;
+    ByteBuffer data;
     int size;
     int offset;
     Logger log;
@@ -39,17 +39,8 @@ public class ZioEntryInputStream extends InputStream {
         debug = log.isDebugEnabled();
         offset = 0;
         size = entry.getCompressedSize();
-        raf = entry.getZipInput().in;
-        long dpos = entry.getDataPosition();
-        if (dpos >= 0) {
-            if (debug) log.debug(String.format("Seeking to %d", entry.getDataPosition()));
-            raf.seek( entry.getDataPosition());
-        }
-        else {
-            // seeks to, then reads, the local header, causing the 
-            // file pointer to be positioned at the start of the data.
-            entry.readLocalHeader();
-        }
+        // A slice of the input's mapping, which doesn't involve the input's file pointer
+        data = entry.readRawData();
         
     }
 
@@ -88,13 +79,10 @@ public class ZioEntryInputStream extends InputStream {
             }
             else return -1;
         }
-        int b = raf.read();
-        if (b >= 0) {
-            if (monitor != null) monitor.write(b);
-            if (debug) log.debug("Read 1 byte");
-            offset += 1;
-        }
-        else if (debug) log.debug("Read 0 bytes");        
+        int b = data.get() & 0xff;
+        if (monitor != null) monitor.write(b);
+        if (debug) log.debug("Read 1 byte");
+        offset += 1;
         return b;
     }
 
@@ -113,7 +101,8 @@ public class ZioEntryInputStream extends InputStream {
             else return -1;
         }        
         int numToRead = Math.min( len, available());
-        int numRead = raf.read(b, off, numToRead);
+        data.get(b, off, numToRead);
+        int numRead = numToRead;
         if (numRead > 0) {
             if (monitor != null) monitor.write(b, off, numRead);
             offset += numRead;
@@ -129,8 +118,9 @@ public class ZioEntryInputStream extends InputStream {
 
     @Override
     public long skip(long n) throws IOException {
-        long numToSkip = Math.min( n, available());
-        raf.seek( raf.getFilePointer() + numToSkip);
+        long numToSkip = Math.max( 0, Math.min( n, size - offset));
+        data.position( data.position() + (int)numToSkip);
+        offset += (int)numToSkip;
         if (debug) log.debug(String.format("Skipped %d bytes", numToSkip));                
         return numToSkip;
     }
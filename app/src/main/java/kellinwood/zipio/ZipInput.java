@@ -15,9 +15,13 @@
  */
 package kellinwood.zipio;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -30,18 +34,30 @@ import java.util.regex.Pattern;
 import kellinwood.logging.Logger;
 
 /**
- *
+ * Reads ZIP files through memory mappings instead of single-byte reads of a RandomAccessFile.
+ * Files of up to 2 GB get mapped as a whole.  Bigger ones are read through a window of
+ * {@link #WINDOW_SIZE} bytes, which gets moved as needed, and entry data gets mapped per entry.
  */
 public class ZipInput 
 {
 
     static Logger log = Logger.getLogger(ZipInput.class);
 
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
     public String inputFilename;
     RandomAccessFile in = null;
+    FileChannel channel;
     long fileLength;
     int scanIterations = 0;
 
+    // Mapped part of the file and its offset in the file.  Only ever accessed with absolute
+    // gets or through duplicates, so that slices of it can be read from other threads.
+    private ByteBuffer window;
+    private long windowStart;
+    private boolean mappedEntirely;
+    private long position = 0;
+
     Map<String,ZioEntry> zioEntries = new LinkedHashMap<String,ZioEntry>();
     CentralEnd centralEnd;
     Manifest manifest;
@@ -50,7 +66,13 @@ public class ZipInput
     {
         this.inputFilename = filename;
         in = new RandomAccessFile( new File( inputFilename), "r");
+        channel = in.getChannel();
         fileLength = in.length();
+        if (fileLength <= Integer.MAX_VALUE) {
+            window = channel.map( FileChannel.MapMode.READ_ONLY, 0, fileLength).order( ByteOrder.LITTLE_ENDIAN);
+            windowStart = 0;
+            mappedEntirely = true;
+        }
     }
 
 
@@ -117,15 +139,11 @@ public class ZipInput
 
         int scanSize = (int)Math.min( fileLength, size);
 
-        byte[] scanBuf = new byte[scanSize];
-
-        in.seek( fileLength - scanSize);
-
-        in.readFully( scanBuf);
+        ByteBuffer scanBuf = slice( fileLength - scanSize, scanSize);
 
         for (int i = scanSize - 22; i >= 0; i--) {
             scanIterations += 1;
-            if (scanBuf[i] == 0x50 && scanBuf[i+1] == 0x4b && scanBuf[i+2] == 0x05 && scanBuf[i+3] == 0x06) {
+            if (scanBuf.getInt(i) == 0x06054b50) {
                 return fileLength - scanSize + i;
             }
         }
@@ -139,7 +157,7 @@ public class ZipInput
         try {
 
             long posEOCDR = scanForEOCDR( 256);
-            in.seek( posEOCDR);
+            seek( posEOCDR);
             centralEnd = CentralEnd.read( this);
 
             boolean debug = log.isDebugEnabled();
@@ -151,7 +169,9 @@ public class ZipInput
                 ZipListingHelper.listHeader( log);
             }
 
-            in.seek( centralEnd.centralStartOffset);            
+            seek( centralEnd.centralStartOffset & 0xffffffffL);            
+            // Have the whole central directory mapped at once
+            ensureAvailable( centralEnd.centralDirectorySize & 0xffffffffL);
 
             for (int i = 0; i < centralEnd.totalCentralEntries; i++) {
                 ZioEntry entry = ZioEntry.read(this);
@@ -170,55 +190,90 @@ public class ZipInput
     }
 
     public long getFilePointer() throws IOException {
-        return in.getFilePointer(); 
+        return position; 
     }
 
     public void seek( long position) throws IOException {
-        in.seek(position);
+        this.position = position;
     }
 
     public byte readByte() throws IOException {
-        return in.readByte();
+        ensureAvailable( 1);
+        return window.get( windowIndex( 1));
     }
     
     public int readInt() throws IOException{
-        int result = 0;
-        for (int i = 0; i < 4; i++) {
-            result |= (in.readUnsignedByte() << (8 * i));
-        }
-        return result;
+        ensureAvailable( 4);
+        return window.getInt( windowIndex( 4));
     }
 
     public short readShort() throws IOException {
-        short result = 0;
-        for (int i = 0; i < 2; i++) {
-            result |= (in.readUnsignedByte() << (8 * i));
-        }
-        return result;
+        ensureAvailable( 2);
+        return window.getShort( windowIndex( 2));
     }
 
     public String readString( int length) throws IOException {
-
-        byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
-        }
-        return new String(buffer);
+        return new String( readBytes( length));
     }
 
     public byte[] readBytes( int length) throws IOException {
-
         byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
-        }
+        if (length == 0) return buffer;
+        ensureAvailable( length);
+        ByteBuffer source = window.duplicate();
+        source.position( windowIndex( length));
+        source.get( buffer);
         return buffer;
     }
 
     public int read( byte[] b, int offset, int length) throws IOException {
-        return in.read( b, offset, length);
+        if (position >= fileLength) return -1;
+        length = (int)Math.min( length, fileLength - position);
+        ensureAvailable( length);
+        ByteBuffer source = window.duplicate();
+        source.position( windowIndex( length));
+        source.get( b, offset, length);
+        return length;
     }
 
-}
+    /**
+     * Returns a read-only buffer of the given part of the file, without copying it.  The returned
+     * buffer is independent of this ZipInput's file pointer, so it can be read from any thread.
+     */
+    public ByteBuffer slice( long position, int length) throws IOException {
+        if (position < 0 || position + length > fileLength) {
+            throw new EOFException( String.format("Can't read %d bytes at 0x%08x of %s", length, position, inputFilename));
+        }
+        if (mappedEntirely) {
+            ByteBuffer slice = window.duplicate();
+            slice.position( (int)position);
+            slice.limit( (int)position + length);
+            return slice.slice().order( ByteOrder.LITTLE_ENDIAN);
+        }
+        return channel.map( FileChannel.MapMode.READ_ONLY, position, length).order( ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Makes sure the window covers the next count bytes, moving it if necessary. */
+    private void ensureAvailable( long count) throws IOException {
+        if (position < 0 || position + count > fileLength) {
+            throw new EOFException( String.format("Can't read %d bytes at 0x%08x of %s", count, position, inputFilename));
+        }
+        if (window != null && position >= windowStart && position + count <= windowStart + window.capacity()) {
+            return;
+        }
+        long size = Math.min( Math.max( WINDOW_SIZE, count), fileLength - position);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException( String.format("Can't read %d bytes at once from %s", count, inputFilename));
+        }
+        window = channel.map( FileChannel.MapMode.READ_ONLY, position, size).order( ByteOrder.LITTLE_ENDIAN);
+        windowStart = position;
+    }
 
+    /** Returns the window index of the file pointer and advances it by count bytes. */
+    private int windowIndex( int count) {
+        int index = (int)(position - windowStart);
+        position += count;
+        return index;
+    }
 
+}
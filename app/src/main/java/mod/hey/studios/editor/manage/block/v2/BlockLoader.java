@@ -13,6 +13,7 @@ import com.google.gson.reflect.TypeToken;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dev.aldi.sayuti.block.ExtraBlockFile;
 import mod.agus.jcoderz.editor.manage.block.palette.PaletteSelector;
@@ -30,21 +31,30 @@ import pro.sketchware.utility.SketchwareUtil;
  */
 public class BlockLoader {
 
-    private static ArrayList<ExtraBlockInfo> blocks;
+    /**
+     * Custom Blocks by their names. Only the first block of a name counts.
+     * Replaced as a whole when reloading, so that it can be read from any thread.
+     */
+    private static volatile HashMap<String, ExtraBlockInfo> blocks;
+    /**
+     * Projects' own Custom Blocks by project ID, reloaded when their file changes.
+     */
+    private static final ConcurrentHashMap<String, ProjectBlocks> projectBlocks = new ConcurrentHashMap<>();
 
     static {
         loadCustomBlocks();
     }
 
     public static ExtraBlockInfo getBlockInfo(String block_name) {
+        HashMap<String, ExtraBlockInfo> blocks = BlockLoader.blocks;
         if (blocks == null) {
             loadCustomBlocks();
+            blocks = BlockLoader.blocks;
         }
 
-        for (ExtraBlockInfo info : blocks) {
-            if (info.getName().equals(block_name)) {
-                return info;
-            }
+        ExtraBlockInfo info = blocks.get(block_name);
+        if (info != null) {
+            return info;
         }
 
         ExtraBlockInfo in = new ExtraBlockInfo();
@@ -56,22 +66,34 @@ public class BlockLoader {
     public static ExtraBlockInfo getBlockFromProject(String sc_id, String block_name) {
         File customBlocksConfig = new File(Environment.getExternalStorageDirectory(),
                 ".sketchware/data/" + sc_id + "/custom_blocks");
-        if (customBlocksConfig.exists()) {
-            try {
-                ArrayList<ExtraBlockInfo> extraBlocks = new Gson().fromJson(
-                        FileUtil.readFile(customBlocksConfig.getAbsolutePath()),
-                        new TypeToken<ArrayList<ExtraBlockInfo>>() {
-                        }.getType());
-
-                for (ExtraBlockInfo info : extraBlocks) {
-                    if (block_name.equals(info.getName())) {
-                        return info;
+        long lastModified = customBlocksConfig.lastModified();
+        long length = customBlocksConfig.length();
+
+        ProjectBlocks cached = projectBlocks.get(sc_id);
+        if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+            cached = new ProjectBlocks(lastModified, length);
+            if (customBlocksConfig.exists()) {
+                try {
+                    ArrayList<ExtraBlockInfo> extraBlocks = new Gson().fromJson(
+                            FileUtil.readFile(customBlocksConfig.getAbsolutePath()),
+                            new TypeToken<ArrayList<ExtraBlockInfo>>() {
+                            }.getType());
+
+                    for (ExtraBlockInfo info : extraBlocks) {
+                        if (info.getName() != null) {
+                            cached.blocks.putIfAbsent(info.getName(), info);
+                        }
                     }
+                } catch (Exception e) {
+                    SketchwareUtil.toastError("Failed to get Custom Blocks for project " + sc_id + ": " + e.getMessage());
                 }
-
-            } catch (Exception e) {
-                SketchwareUtil.toastError("Failed to get Custom Blocks for project " + sc_id + ": " + e.getMessage());
             }
+            projectBlocks.put(sc_id, cached);
+        }
+
+        ExtraBlockInfo info = cached.blocks.get(block_name);
+        if (info != null) {
+            return info;
         }
 
         ExtraBlockInfo in = new ExtraBlockInfo();
@@ -83,7 +105,7 @@ public class BlockLoader {
     private static void loadCustomBlocks() {
         ArrayList<HashMap<String, Object>> palettes = new PaletteSelector().getPaletteSelector();
 
-        blocks = new ArrayList<>();
+        HashMap<String, ExtraBlockInfo> blocks = new HashMap<>();
 
         ArrayList<HashMap<String, Object>> arrList = ExtraBlockFile.getExtraBlockData();
 
@@ -187,8 +209,10 @@ public class BlockLoader {
                 }
             }
 
-            blocks.add(info);
+            blocks.putIfAbsent(info.getName(), info);
         }
+
+        BlockLoader.blocks = blocks;
     }
 
     /**
@@ -201,4 +225,15 @@ public class BlockLoader {
     public static void refresh() {
         loadCustomBlocks();
     }
+
+    private static class ProjectBlocks {
+        private final long lastModified;
+        private final long length;
+        private final HashMap<String, ExtraBlockInfo> blocks = new HashMap<>();
+
+        private ProjectBlocks(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
 }
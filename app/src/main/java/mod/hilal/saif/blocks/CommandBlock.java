@@ -4,6 +4,7 @@ import android.util.Pair;
 
 import com.google.gson.Gson;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -25,171 +26,262 @@ import pro.sketchware.utility.FileUtil;
  */
 public class CommandBlock {
 
+    private static final String COMMANDS_PATH = "/.sketchware/temp/commands";
+
+    /**
+     * XML commands of the commands file, parsed once and grouped by their target file.
+     * Reloaded when the file gets written through this class or its modification time or size change.
+     */
+    private static HashMap<String, ArrayList<XmlCommand>> loadedXmlCommands;
+    private static long loadedXmlCommandsLastModified;
+    private static long loadedXmlCommandsLength;
+
     public static String applyCommands(String fileName, String c) {
-        String str = c;
-        String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
-        ArrayList<HashMap<String, Object>> data;
+        ArrayList<XmlCommand> commands = getXmlCommandsOf(fileName);
+        if (commands.isEmpty()) {
+            return c;
+        }
+
         try {
-            //writeLog("try");
-            if (FileUtil.isExistFile(path) && !FileUtil.readFile(path).isEmpty() && !FileUtil.readFile(path).equals("[]")) {
-                //writeLog("the file is found and has content :)");
-                data = new Gson().fromJson(FileUtil.readFile(path), Helper.TYPE_MAP_LIST);
-                //writeLog("get gson from file is done");
-                for (int i = 0; i < data.size(); i++) {
-                    //writeLog("element : " + i);
-                    if (getInputName((String) data.get(i).get("input")).equals(fileName)) {
-                        //writeLog("element : " + i + " > find a target !!");
-                        str = N(str, data.get(i));
-                        //writeLog("element : " + i + " > N is done :l");
-                    }
+            Source source = new Source(c);
+            for (XmlCommand command : commands) {
+                if (command == null) {
+                    // couldn't be parsed
+                    return c;
                 }
-                //writeLog("process is succeeded");
-                return str;
-            } else {
-                //writeLog("file isn't found :(");
-                return c;
+                command.applyTo(source);
             }
-        } catch (Exception e) { /*writeLog("error :("); */
+            return source.getText();
+        } catch (Exception e) {
             return c;
         }
     }
 
-    private static String N(String c, HashMap<String, Object> map) {
-        ArrayList<String> a = new ArrayList<>(Arrays.asList(c.split("\n")));
-        String res = "";
-        String reference = (String) map.get("reference");
-        double distance = (double) map.get("distance");
-        double after = (double) map.get("after");
-        double before = (double) map.get("before");
-        String command = (String) map.get("command");
-        String input = getExceptFirstLine((String) map.get("input"));
-
-        if (command.equals("find-replace")) {
-            return c.replace(reference, input);
-        }
-        if (command.equals("find-replace-first")) {
+    private static synchronized ArrayList<XmlCommand> getXmlCommandsOf(String fileName) {
+        File file = new File(FileUtil.getExternalStorageDir().concat(COMMANDS_PATH));
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (loadedXmlCommands == null || lastModified != loadedXmlCommandsLastModified || length != loadedXmlCommandsLength) {
+            loadedXmlCommands = new HashMap<>();
+            loadedXmlCommandsLastModified = lastModified;
+            loadedXmlCommandsLength = length;
             try {
-                return c.replaceFirst(reference, input);
-            } catch (Exception e) {
-                return c;
+                if (file.exists()) {
+                    String content = FileUtil.readFile(file.getAbsolutePath());
+                    if (!content.isEmpty() && !content.equals("[]")) {
+                        ArrayList<HashMap<String, Object>> data = new Gson().fromJson(content, Helper.TYPE_MAP_LIST);
+                        HashMap<String, ArrayList<XmlCommand>> byTarget = new HashMap<>();
+                        for (HashMap<String, Object> map : data) {
+                            String target = getInputName((String) map.get("input"));
+                            XmlCommand command;
+                            try {
+                                command = new XmlCommand(map);
+                            } catch (Exception e) {
+                                command = null;
+                            }
+                            byTarget.computeIfAbsent(target, k -> new ArrayList<>()).add(command);
+                        }
+                        loadedXmlCommands = byTarget;
+                    }
+                }
+            } catch (Exception ignored) {
             }
         }
 
-        if (command.equals("find-replace-all")) {
-            try {
-                return c.replaceAll(reference, input);
-            } catch (Exception e) {
-                return c;
+        ArrayList<XmlCommand> commands = loadedXmlCommands.get(fileName);
+        return commands != null ? commands : new ArrayList<>();
+    }
+
+    private static synchronized void invalidateXmlCommands() {
+        loadedXmlCommands = null;
+    }
+
+    /**
+     * Code an XML command gets applied to, kept as lines between line-based commands so that it
+     * doesn't need to be split and assembled again for each of them.
+     * Behaves as if the code was assembled and split again after every command.
+     */
+    private static class Source {
+        private String text;
+        private ArrayList<String> lines;
+        private boolean linesChanged;
+
+        private Source(String text) {
+            this.text = text;
+        }
+
+        private String getText() {
+            if (text == null) {
+                text = assemble(lines);
             }
+            return text;
         }
 
-        int index = getIndex(a, reference);
-        if (index == -1) {
-            return c;
+        private void setText(String text) {
+            this.text = text;
+            lines = null;
+            linesChanged = false;
         }
 
-        if (command.equals("insert")) {
-            if ((index + distance - before) < 0) {
-                a.add(0, input);
-            } else if ((index + distance - before) > (a.size() - 1)) {
-                a.add(input);
-            } else {
-                a.add((int) (index + distance - before), input);
+        private ArrayList<String> getLines() {
+            if (lines == null) {
+                lines = new ArrayList<>(Arrays.asList(text.split("\n")));
+            } else if (linesChanged) {
+                // assemble() skips leading empty lines, split() trailing ones
+                int leadingEmptyLines = 0;
+                while (leadingEmptyLines < lines.size() && lines.get(leadingEmptyLines).isEmpty()) {
+                    leadingEmptyLines++;
+                }
+                lines.subList(0, leadingEmptyLines).clear();
+                if (text == null && !lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                    // trailing empty lines are part of the code, until it's split again
+                    text = assemble(lines);
+                }
+                while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                    lines.remove(lines.size() - 1);
+                }
+                if (lines.isEmpty()) {
+                    lines.add("");
+                }
+                linesChanged = false;
             }
+            return lines;
         }
-        if (command.equals("add")) {
-            if ((index + distance + after + 1) < 0) {
-                a.add(0, input);
-            } else if ((index + distance + after + 1) > (a.size() - 1)) {
-                a.add(input);
+
+        /**
+         * Must be called after lines got changed, with the line inserted by the command.
+         */
+        private void linesChanged(String insertedLine) {
+            if (insertedLine.contains("\n")) {
+                // has to be split into lines again
+                setText(assemble(lines));
             } else {
-                a.add((int) (index + distance + after + 1), input);
+                text = null;
+                linesChanged = true;
             }
         }
+    }
 
-        //old method
-        /*
-        if(command.equals("replace")){
-            int xxx = (int)(index + distance - before -1);
-            if ( xxx <0 ){ xxx = 0; }
+    private static class XmlCommand {
+        private final String reference;
+        private final int distance;
+        private final int after;
+        private final int before;
+        private final String command;
+        private final String input;
+
+        private XmlCommand(HashMap<String, Object> map) {
+            reference = (String) map.get("reference");
+            distance = (int) (double) map.get("distance");
+            after = (int) (double) map.get("after");
+            before = (int) (double) map.get("before");
+            command = (String) map.get("command");
+            input = getExceptFirstLine((String) map.get("input"));
+        }
 
-            int ff = (int)(index + distance - before);
-            if ( ff <0 ){ ff = 0; }
-            int tt = (int)(index + distance + after +1);
-            if ( tt > a.size() ){ tt = a.size(); }
-            a.subList(ff , tt).clear();
+        private void applyTo(Source source) {
+            if (command.equals("find-replace")) {
+                source.setText(source.getText().replace(reference, input));
+                return;
+            }
+            if (command.equals("find-replace-first")) {
+                try {
+                    source.setText(source.getText().replaceFirst(reference, input));
+                } catch (Exception ignored) {
+                }
+                return;
+            }
 
-            if (xxx > a.size()-2){
-                a.add(input);
-            } else {
-                a.add((int)(xxx+1) , input);
+            if (command.equals("find-replace-all")) {
+                try {
+                    source.setText(source.getText().replaceAll(reference, input));
+                } catch (Exception ignored) {
+                }
+                return;
+            }
+
+            ArrayList<String> a = source.getLines();
+            int index = getIndex(a, reference);
+            if (index == -1) {
+                return;
             }
-        }
-        */
 
-        if (command.equals("replace")) {
-            if (before == 0 && after == 0) {
-                int lineToChange = (int) (index + distance);
-                if (lineToChange < 0) {
-                    lineToChange = 0;
+            int before = this.before;
+            int after = this.after;
+            if (command.equals("insert")) {
+                if ((index + distance - before) < 0) {
+                    a.add(0, input);
+                } else if ((index + distance - before) > (a.size() - 1)) {
+                    a.add(input);
+                } else {
+                    a.add(index + distance - before, input);
                 }
-                if (lineToChange > (a.size() - 1)) {
-                    lineToChange = a.size() - 1;
+            } else if (command.equals("add")) {
+                if ((index + distance + after + 1) < 0) {
+                    a.add(0, input);
+                } else if ((index + distance + after + 1) > (a.size() - 1)) {
+                    a.add(input);
+                } else {
+                    a.add(index + distance + after + 1, input);
                 }
-                a.set(lineToChange, input);
-            } else {
-                int lineToChange = (int) (index + distance);
-                if (lineToChange <= 0) { // ignore backend
-                    lineToChange = 0;
-                    int from = 1;
-                    int to = (int) after + 1;
-                    if (to > (a.size() - 1)) {
-                        to = a.size() - 1;
-                    }
-                    a.subList(from, to).clear();
-                    a.set(0, input);
-                } else if (lineToChange >= (a.size() - 1)) { //ignore frontend
-                    lineToChange = a.size() - 1;
-                    int from = (int) (lineToChange - before);
-                    int to = lineToChange;
-                    if (from < 0) {
-                        from = 0;
-                    }
-                    a.set(lineToChange, input);
-                    a.subList(from, to).clear();
-                } else {  //handle everything
-                    if (before < 0) {
-                        before = 0;
-                    }
-                    if (after < 0) {
-                        after = 0;
+            } else if (command.equals("replace")) {
+                if (before == 0 && after == 0) {
+                    int lineToChange = index + distance;
+                    if (lineToChange < 0) {
+                        lineToChange = 0;
                     }
-                    int from = lineToChange + 1;
-                    int to = lineToChange + (int) after;
-                    if (to > (a.size() - 1)) {
-                        to = a.size() - 1;
+                    if (lineToChange > (a.size() - 1)) {
+                        lineToChange = a.size() - 1;
                     }
-                    a.subList(from, to).clear();
                     a.set(lineToChange, input);
-                    from = (int) (lineToChange - before);
-                    to = lineToChange;
-                    if (from < 0) {
-                        from = 0;
+                } else {
+                    int lineToChange = index + distance;
+                    if (lineToChange <= 0) { // ignore backend
+                        int from = 1;
+                        int to = after + 1;
+                        if (to > (a.size() - 1)) {
+                            to = a.size() - 1;
+                        }
+                        a.subList(from, to).clear();
+                        a.set(0, input);
+                    } else if (lineToChange >= (a.size() - 1)) { //ignore frontend
+                        lineToChange = a.size() - 1;
+                        int from = lineToChange - before;
+                        int to = lineToChange;
+                        if (from < 0) {
+                            from = 0;
+                        }
+                        a.set(lineToChange, input);
+                        a.subList(from, to).clear();
+                    } else {  //handle everything
+                        if (before < 0) {
+                            before = 0;
+                        }
+                        if (after < 0) {
+                            after = 0;
+                        }
+                        int from = lineToChange + 1;
+                        int to = lineToChange + after;
+                        if (to > (a.size() - 1)) {
+                            to = a.size() - 1;
+                        }
+                        a.subList(from, to).clear();
+                        a.set(lineToChange, input);
+                        from = lineToChange - before;
+                        to = lineToChange;
+                        if (from < 0) {
+                            from = 0;
+                        }
+                        a.subList(from, to).clear();
                     }
-                    a.subList(from, to).clear();
                 }
-            }
-        }
-
-        for (int i = 0; i < a.size(); i++) {
-            if (res.isEmpty()) {
-                res = a.get(i);
             } else {
-                res = res.concat("\n").concat(a.get(i));
+                // unknown commands still have the code assembled again
+                source.linesChanged("");
+                return;
             }
+            source.linesChanged(input);
         }
-
-        return res;
     }
 
     public static String getExceptFirstLine(String c) {
@@ -248,8 +340,33 @@ public class CommandBlock {
         }
     }
 
+    /**
+     * XML commands collected on the current thread instead of being written to the commands file,
+     * see {@link #collectXmlCommands(ArrayList)}.
+     */
+    private static final ThreadLocal<ArrayList<HashMap<String, Object>>> xmlCommandsCollector = new ThreadLocal<>();
+
+    /**
+     * Makes XML commands found on the current thread get added to {@code collector} instead of the
+     * commands file, until {@link #stopCollectingXmlCommands()} gets called. This allows generating
+     * Java files concurrently and adding their XML commands in a deterministic order afterwards.
+     */
+    public static void collectXmlCommands(ArrayList<HashMap<String, Object>> collector) {
+        xmlCommandsCollector.set(collector);
+    }
+
+    public static void stopCollectingXmlCommands() {
+        xmlCommandsCollector.remove();
+    }
+
     // Write Temporary File
     private static void WTF(ArrayList<HashMap<String, Object>> list) {
+        ArrayList<HashMap<String, Object>> collector = xmlCommandsCollector.get();
+        if (collector != null) {
+            collector.addAll(list);
+            return;
+        }
+
         String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
         ArrayList<HashMap<String, Object>> data = new ArrayList<>();
         try {
@@ -260,6 +377,31 @@ public class CommandBlock {
         }
         data.addAll(list);
         FileUtil.writeFile(path, new Gson().toJson(data));
+        invalidateXmlCommands();
+    }
+
+    /**
+     * @return XML commands collected from generated Java files so far
+     */
+    public static ArrayList<HashMap<String, Object>> getXmlCommands() {
+        String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
+        try {
+            if (FileUtil.isExistFile(path) && !FileUtil.readFile(path).isEmpty() && !FileUtil.readFile(path).equals("[]")) {
+                return new Gson().fromJson(FileUtil.readFile(path), Helper.TYPE_MAP_LIST);
+            }
+        } catch (Exception ignored) {
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Adds XML commands as if they were collected from a generated Java file,
+     * used for Java files that don't need to be generated again.
+     */
+    public static void addXmlCommands(ArrayList<HashMap<String, Object>> commands) {
+        if (!commands.isEmpty()) {
+            WTF(commands);
+        }
     }
 
     public static void x() {
@@ -267,6 +409,7 @@ public class CommandBlock {
         if (FileUtil.isExistFile(path)) {
             FileUtil.deleteFile(path);
         }
+        invalidateXmlCommands();
     }
 
     public static String CB(String c) {
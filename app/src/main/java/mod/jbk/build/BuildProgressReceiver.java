@@ -2,4 +2,11 @@ package mod.jbk.build;
 
 public interface BuildProgressReceiver {
     void onProgress(String progress, int step);
+
+    /**
+     * @return If the build got canceled, so that long-running steps can stop early.
+     */
+    default boolean isCanceled() {
+        return false;
+    }
 }
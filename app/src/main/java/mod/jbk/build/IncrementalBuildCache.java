@@ -0,0 +1,193 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import a.a.a.yq;
+import mod.hey.studios.util.Helper;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps track of per-stage input fingerprints of a project's last build, so that incremental
+ * builds can skip stages whose inputs didn't change since then.
+ * <p>
+ * Fingerprints are stored in {@link yq#binDirectoryPath}, so a full (non-incremental) build,
+ * which wipes that directory, automatically invalidates all of them.
+ */
+public class IncrementalBuildCache {
+    public static final String STAGE_RESOURCES = "resources";
+    public static final String STAGE_CLASSES = "classes";
+    public static final String STAGE_DEX = "dex";
+    public static final String STAGE_DEX_MERGE = "dex_merge";
+    public static final String STAGE_APK = "apk";
+    public static final String STAGE_SIGN = "sign";
+
+    private static final String TAG = "IncrementalBuildCache";
+
+    private final File fingerprintsFile;
+    private HashMap<String, String> fingerprints;
+
+    public IncrementalBuildCache(yq workspace) {
+        fingerprintsFile = new File(workspace.binDirectoryPath, "build_fingerprints.json");
+
+        if (fingerprintsFile.exists()) {
+            try {
+                fingerprints = new Gson().fromJson(FileUtil.readFile(fingerprintsFile.getAbsolutePath()), Helper.TYPE_STRING_MAP);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to read build fingerprints, treating all stages as outdated", e);
+            }
+        }
+        if (fingerprints == null) {
+            fingerprints = new HashMap<>();
+        }
+    }
+
+    /**
+     * @param stage       The build stage, e.g. {@link #STAGE_RESOURCES}
+     * @param fingerprint The stage's current input fingerprint, see {@link Fingerprint}
+     * @param outputs     Files the stage produces. The stage is only up-to-date if all of them exist.
+     * @return If the stage's inputs didn't change since it last finished successfully.
+     */
+    public boolean isUpToDate(String stage, String fingerprint, File... outputs) {
+        if (!fingerprint.equals(fingerprints.get(stage))) {
+            return false;
+        }
+        for (File output : outputs) {
+            if (!output.exists()) {
+                LogUtil.d(TAG, "Output " + output.getAbsolutePath() + " of stage " + stage + " is missing");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets about a stage's fingerprint. Must be called before a stage starts re-running,
+     * so that a failed or canceled run of it won't be treated as up-to-date next time.
+     */
+    public void invalidate(String stage) {
+        if (fingerprints.remove(stage) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Records that a stage successfully finished with the given input fingerprint.
+     */
+    public void update(String stage, String fingerprint) {
+        fingerprints.put(stage, fingerprint);
+        save();
+    }
+
+    private void save() {
+        FileUtil.writeFile(fingerprintsFile.getAbsolutePath(), new Gson().toJson(fingerprints));
+    }
+
+    /**
+     * Builder of a fingerprint of a stage's inputs.
+     * <p>
+     * Use {@link #putContents(File)} for files that get rewritten on every build (generated sources,
+     * resources copied from project data), and {@link #putStamp(File)} for files which only change
+     * if they're actually modified (libraries, imported resources), as that doesn't require reading them.
+     */
+    public static class Fingerprint {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[8192];
+
+        public Fingerprint() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 isn't available", e);
+            }
+        }
+
+        public Fingerprint put(String value) {
+            digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            // separate values, so that ("ab", "c") and ("a", "bc") differ
+            digest.update((byte) 0);
+            return this;
+        }
+
+        public Fingerprint put(boolean value) {
+            return put(Boolean.toString(value));
+        }
+
+        public Fingerprint put(int value) {
+            return put(Integer.toString(value));
+        }
+
+        /**
+         * Adds a file's path and content, or if it's a directory, recursively the paths and
+         * contents of all files in it.
+         */
+        public Fingerprint putContents(File file) {
+            put(file.getAbsolutePath());
+            if (file.isDirectory()) {
+                for (File child : listSorted(file)) {
+                    putContents(child);
+                }
+            } else if (file.isFile()) {
+                try (InputStream input = new FileInputStream(file)) {
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    LogUtil.e(TAG, "Failed to read " + file.getAbsolutePath() + " for fingerprinting", e);
+                    put(file.lastModified() + ":" + file.length());
+                }
+                put("");
+            } else {
+                put("missing");
+            }
+            return this;
+        }
+
+        /**
+         * Adds a file's path, size and last modification time, or if it's a directory, recursively
+         * those of all files in it.
+         */
+        public Fingerprint putStamp(File file) {
+            put(file.getAbsolutePath());
+            if (file.isDirectory()) {
+                for (File child : listSorted(file)) {
+                    putStamp(child);
+                }
+            } else if (file.isFile()) {
+                put(file.length() + ":" + file.lastModified());
+            } else {
+                put("missing");
+            }
+            return this;
+        }
+
+        /**
+         * @return The fingerprint as hex string. The builder mustn't be used anymore afterwards.
+         */
+        public String build() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+
+        private static File[] listSorted(File directory) {
+            File[] children = directory.listFiles();
+            if (children == null) return new File[0];
+            Arrays.sort(children, (a, b) -> a.getName().compareTo(b.getName()));
+            return children;
+        }
+    }
+}
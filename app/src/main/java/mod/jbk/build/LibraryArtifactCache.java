@@ -0,0 +1,202 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.SketchApplication;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Stores what builds need to know about library archives (built-in and Local libraries' JARs and
+ * DEX files), so that unchanged ones don't need to be opened and scanned again on every build.
+ * <p>
+ * Artifacts are addressed by a hash of the library file's path, size and last modification time.
+ * Hashing their contents would require reading them, which is what this cache avoids. Artifacts
+ * which weren't used for {@link #MAX_UNUSED_DAYS} days get deleted.
+ */
+public class LibraryArtifactCache {
+    private static final String TAG = "LibraryArtifactCache";
+    private static final int MAX_UNUSED_DAYS = 30;
+    private static final int DEX_CHECKSUM_OFFSET = 8;
+
+    private final File directory;
+
+    public LibraryArtifactCache() {
+        directory = new File(SketchApplication.getContext().getFilesDir(), "library_artifacts");
+        FileUtil.makeDir(directory.getAbsolutePath());
+        deleteUnusedArtifacts();
+    }
+
+    /**
+     * @return Whether a JAR contains any Java resources, i.e. files that aren't classes or its manifest.
+     * JARs without any don't need to be passed to the APK builder.
+     */
+    public boolean hasJavaResources(File jar) {
+        Artifact artifact = readArtifact(jar);
+        if (artifact.javaResources == null) {
+            ArrayList<String> javaResources = new ArrayList<>();
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (!entry.isDirectory() && !name.endsWith(".class") && !name.equals("META-INF/MANIFEST.MF")) {
+                        javaResources.add(name);
+                    }
+                }
+            } catch (IOException e) {
+                LogUtil.e(TAG, "Failed to list entries of " + jar.getAbsolutePath(), e);
+                // let the APK builder deal with it
+                return true;
+            }
+            artifact.javaResources = javaResources;
+            writeArtifact(jar, artifact);
+        }
+        return !artifact.javaResources.isEmpty();
+    }
+
+    /**
+     * @return A DEX file's IDs as saved by {@link #putDexIds(File, int, long[][])},
+     * or <code>null</code> if the DEX file or the saved IDs changed since then.
+     */
+    public long[][] getDexIds(File dexFile) {
+        Artifact artifact = readArtifact(dexFile);
+        if (artifact.dexIdCounts == null || artifact.dexChecksum == null) return null;
+
+        // the stamp doesn't catch DEX files replaced without changing their size and modification time
+        Integer checksum = readDexChecksum(dexFile);
+        if (!artifact.dexChecksum.equals(checksum)) {
+            LogUtil.w(TAG, "Checksum of " + dexFile.getAbsolutePath() + " changed, ignoring its cached IDs");
+            return null;
+        }
+
+        File idsFile = getArtifactFile(dexFile, ".ids");
+        long expectedLength = 0;
+        for (int count : artifact.dexIdCounts) {
+            expectedLength += (long) count * Long.BYTES;
+        }
+        if (idsFile.length() != expectedLength) {
+            LogUtil.w(TAG, "Cached IDs of " + dexFile.getAbsolutePath() + " are incomplete, ignoring them");
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(idsFile)))) {
+            long[][] ids = new long[artifact.dexIdCounts.length][];
+            for (int table = 0; table < ids.length; table++) {
+                ids[table] = new long[artifact.dexIdCounts[table]];
+                for (int i = 0; i < ids[table].length; i++) {
+                    ids[table][i] = input.readLong();
+                }
+            }
+            return ids;
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read cached IDs of " + dexFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves a DEX file's IDs together with their counts and the DEX file's checksum.
+     *
+     * @param ids Hashes of the DEX file's IDs, per ID table
+     */
+    public void putDexIds(File dexFile, int checksum, long[][] ids) {
+        File idsFile = getArtifactFile(dexFile, ".ids");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idsFile)))) {
+            for (long[] table : ids) {
+                for (long id : table) {
+                    output.writeLong(id);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to save IDs of " + dexFile.getAbsolutePath(), e);
+            FileUtil.deleteFile(idsFile.getAbsolutePath());
+            return;
+        }
+
+        Artifact artifact = readArtifact(dexFile);
+        artifact.dexChecksum = checksum;
+        artifact.dexIdCounts = new int[ids.length];
+        for (int table = 0; table < ids.length; table++) {
+            artifact.dexIdCounts[table] = ids[table].length;
+        }
+        writeArtifact(dexFile, artifact);
+    }
+
+    /**
+     * @return The Adler-32 checksum from a DEX file's header, or <code>null</code> if it couldn't be read
+     */
+    private static Integer readDexChecksum(File dexFile) {
+        try (RandomAccessFile file = new RandomAccessFile(dexFile, "r")) {
+            file.seek(DEX_CHECKSUM_OFFSET);
+            // DEX files are little-endian
+            return Integer.reverseBytes(file.readInt());
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read checksum of " + dexFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private Artifact readArtifact(File file) {
+        File metadataFile = getArtifactFile(file, ".json");
+        if (metadataFile.exists()) {
+            try {
+                Artifact artifact = new Gson().fromJson(FileUtil.readFile(metadataFile.getAbsolutePath()), Artifact.class);
+                if (artifact != null) {
+                    // mark it as used
+                    metadataFile.setLastModified(System.currentTimeMillis());
+                    return artifact;
+                }
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to read cached metadata of " + file.getAbsolutePath(), e);
+            }
+        }
+        Artifact artifact = new Artifact();
+        artifact.path = file.getAbsolutePath();
+        return artifact;
+    }
+
+    private void writeArtifact(File file, Artifact artifact) {
+        FileUtil.writeFile(getArtifactFile(file, ".json").getAbsolutePath(), new Gson().toJson(artifact));
+    }
+
+    private File getArtifactFile(File file, String extension) {
+        return new File(directory, new IncrementalBuildCache.Fingerprint().putStamp(file).build() + extension);
+    }
+
+    private void deleteUnusedArtifacts() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        long oldestAllowed = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+        for (File file : files) {
+            if (file.getName().endsWith(".json") && file.lastModified() < oldestAllowed) {
+                String key = file.getName().substring(0, file.getName().length() - ".json".length());
+                FileUtil.deleteFile(file.getAbsolutePath());
+                FileUtil.deleteFile(new File(directory, key + ".ids").getAbsolutePath());
+            }
+        }
+    }
+
+    private static class Artifact {
+        private String path;
+        private ArrayList<String> javaResources;
+        private Integer dexChecksum;
+        private int[] dexIdCounts;
+    }
+}
@@ -0,0 +1,394 @@
+package mod.jbk.build;
+
+import com.besome.sketch.beans.BlockBean;
+import com.besome.sketch.beans.ComponentBean;
+import com.besome.sketch.beans.ViewBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import a.a.a.jq;
+import a.a.a.uq;
+
+/**
+ * Index of which features (libraries, permissions) each part of a project uses, so that setting up
+ * a project's {@link jq} doesn't need to analyze all of its views, components and blocks again on
+ * every build and every time the source code viewer opens.
+ * <p>
+ * Project data gets edited in place without notifying anyone, so each layout's views, each
+ * Activity's components and each Activity's blocks are indexed by a hash of exactly the properties
+ * their analysis reads. Hashing is a single pass without allocations; only parts whose hash changed
+ * since they were last indexed get analyzed again. Indices are kept per project for as long as the
+ * process lives.
+ */
+public class ProjectFeatureIndex {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final HashMap<String, ProjectFeatureIndex> indices = new HashMap<>();
+
+    private final HashMap<String, IndexedFeatures> layouts = new HashMap<>();
+    private final HashMap<String, IndexedFeatures> components = new HashMap<>();
+    private final HashMap<String, IndexedFeatures> blocks = new HashMap<>();
+
+    public static synchronized ProjectFeatureIndex get(String sc_id) {
+        ProjectFeatureIndex index = indices.get(sc_id);
+        if (index == null) {
+            index = new ProjectFeatureIndex();
+            indices.put(sc_id, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param views All views of the layout, as returned by {@link a.a.a.eC#d(String)}
+     */
+    public synchronized Features getViewFeatures(String xmlName, ArrayList<ViewBean> views) {
+        long hash = FNV_OFFSET_BASIS;
+        for (ViewBean view : views) {
+            hash = hash(hash, view.id);
+            hash = hash(hash, view.parent);
+            hash = hash(hash, view.convert);
+            hash = combine(hash, view.type);
+        }
+
+        IndexedFeatures indexed = layouts.get(xmlName);
+        if (indexed == null || indexed.hash != hash) {
+            indexed = new IndexedFeatures(hash, analyzeViews(views));
+            layouts.put(xmlName, indexed);
+        }
+        return indexed.features;
+    }
+
+    public synchronized Features getComponentFeatures(String javaName, ArrayList<ComponentBean> activityComponents) {
+        long hash = FNV_OFFSET_BASIS;
+        for (ComponentBean component : activityComponents) {
+            hash = combine(hash, component.type);
+        }
+
+        IndexedFeatures indexed = components.get(javaName);
+        if (indexed == null || indexed.hash != hash) {
+            indexed = new IndexedFeatures(hash, analyzeComponents(activityComponents));
+            components.put(javaName, indexed);
+        }
+        return indexed.features;
+    }
+
+    /**
+     * @param activityBlocks All events' blocks of the Activity, as returned by {@link a.a.a.eC#b(String)}
+     */
+    public synchronized Features getBlockFeatures(String javaName, HashMap<String, ArrayList<BlockBean>> activityBlocks) {
+        long hash = FNV_OFFSET_BASIS;
+        for (Map.Entry<String, ArrayList<BlockBean>> entry : activityBlocks.entrySet()) {
+            long eventHash = hash(FNV_OFFSET_BASIS, entry.getKey());
+            for (BlockBean block : entry.getValue()) {
+                eventHash = hash(eventHash, block.opCode);
+                if ("intentSetAction".equals(block.opCode)) {
+                    eventHash = hash(eventHash, block.parameters.get(1));
+                }
+            }
+            // events are in no particular order
+            hash += combine(eventHash, 0);
+        }
+
+        IndexedFeatures indexed = blocks.get(javaName);
+        if (indexed == null || indexed.hash != hash) {
+            indexed = new IndexedFeatures(hash, analyzeBlocks(activityBlocks));
+            blocks.put(javaName, indexed);
+        }
+        return indexed.features;
+    }
+
+    private static Features analyzeViews(ArrayList<ViewBean> views) {
+        Features features = new Features();
+        for (ViewBean view : getViewsInHierarchy(views)) {
+            switch (getClassName(view.convert)) {
+                case "CircleImageView" -> features.flags |= Features.CIRCLE_IMAGE_VIEW;
+                case "CodeView" -> features.flags |= Features.CODE_VIEW;
+                case "LottieAnimationView" -> features.flags |= Features.LOTTIE;
+                case "OTPView" -> features.flags |= Features.OTP_VIEW;
+                case "PatternLockView" -> features.flags |= Features.PATTERN_LOCK_VIEW;
+                case "WaveSideBar" -> features.flags |= Features.WAVE_SIDE_BAR;
+                case "YouTubePlayerView" -> features.flags |= Features.YOUTUBE_PLAYER;
+                case "SwipeRefreshLayout" -> features.flags |= Features.SWIPE_REFRESH_LAYOUT;
+            }
+        }
+        return features;
+    }
+
+    private static Features analyzeComponents(ArrayList<ComponentBean> activityComponents) {
+        Features features = new Features();
+        for (ComponentBean component : activityComponents) {
+            switch (component.type) {
+                case ComponentBean.COMPONENT_TYPE_CAMERA, 35 -> {
+                    features.flags |= Features.APP_COMPAT | Features.FILE_PROVIDER;
+                    features.activityPermissions |= jq.PERMISSION_CAMERA
+                            | jq.PERMISSION_READ_EXTERNAL_STORAGE | jq.PERMISSION_WRITE_EXTERNAL_STORAGE;
+                }
+                case ComponentBean.COMPONENT_TYPE_FILE_PICKER ->
+                        features.activityPermissions |= jq.PERMISSION_READ_EXTERNAL_STORAGE;
+                case ComponentBean.COMPONENT_TYPE_FIREBASE -> {
+                    features.flags |= Features.GSON | Features.FIREBASE_DATABASE;
+                    features.activityPermissions |= jq.PERMISSION_INTERNET | jq.PERMISSION_ACCESS_NETWORK_STATE;
+                }
+                case ComponentBean.COMPONENT_TYPE_FIREBASE_STORAGE -> {
+                    features.flags |= Features.FIREBASE_STORAGE;
+                    features.activityPermissions |= jq.PERMISSION_READ_EXTERNAL_STORAGE | jq.PERMISSION_WRITE_EXTERNAL_STORAGE;
+                }
+                case ComponentBean.COMPONENT_TYPE_VIBRATOR ->
+                        features.activityPermissions |= jq.PERMISSION_VIBRATE;
+                case ComponentBean.COMPONENT_TYPE_FIREBASE_AUTH -> {
+                    features.flags |= Features.FIREBASE_AUTH;
+                    features.usesFirebaseAuth = true;
+                }
+                case ComponentBean.COMPONENT_TYPE_REQUEST_NETWORK -> {
+                    features.flags |= Features.GSON | Features.HTTP3;
+                    features.activityPermissions |= jq.PERMISSION_INTERNET | jq.PERMISSION_ACCESS_NETWORK_STATE;
+                }
+                case ComponentBean.COMPONENT_TYPE_TEXT_TO_SPEECH -> features.flags |= Features.TEXT_TO_SPEECH;
+                case ComponentBean.COMPONENT_TYPE_SPEECH_TO_TEXT -> {
+                    features.flags |= Features.SPEECH_TO_TEXT;
+                    features.activityPermissions |= jq.PERMISSION_RECORD_AUDIO;
+                }
+                case ComponentBean.COMPONENT_TYPE_BLUETOOTH_CONNECT ->
+                        features.activityPermissions |= jq.PERMISSION_BLUETOOTH | jq.PERMISSION_BLUETOOTH_ADMIN;
+                case ComponentBean.COMPONENT_TYPE_LOCATION_MANAGER ->
+                        features.activityPermissions |= jq.PERMISSION_ACCESS_FINE_LOCATION;
+                case ComponentBean.COMPONENT_TYPE_FIREBASE_CLOUD_MESSAGE -> features.flags |= Features.FCM;
+                case ComponentBean.COMPONENT_TYPE_FIREBASE_AUTH_GOOGLE_LOGIN ->
+                        features.flags |= Features.FIREBASE_GOOGLE_LOGIN;
+                default -> {
+                }
+            }
+        }
+        return features;
+    }
+
+    private static Features analyzeBlocks(HashMap<String, ArrayList<BlockBean>> activityBlocks) {
+        Features features = new Features();
+        for (ArrayList<BlockBean> eventBlocks : activityBlocks.values()) {
+            for (BlockBean block : eventBlocks) {
+                switch (block.opCode) {
+                    case "intentSetAction":
+                        // If an Intent setAction (ACTION_CALL) block is used
+                        if (block.parameters.get(1).equals(uq.c[1])) {
+                            features.activityPermissions |= jq.PERMISSION_CALL_PHONE;
+                        }
+                        break;
+
+                    case "fileutilread":
+                    case "fileutilisexist":
+                    case "fileutillistdir":
+                    case "fileutilisdir":
+                    case "fileutilisfile":
+                    case "fileutillength":
+                    case "fileutilStartsWith":
+                    case "fileutilEndsWith":
+                    case "getJpegRotate":
+                    case "setImageFilePath":
+                    case "fileutilGetLastSegmentPath":
+                        features.activityPermissions |= jq.PERMISSION_READ_EXTERNAL_STORAGE;
+                        break;
+
+                    case "fileutilwrite":
+                    case "fileutilcopy":
+                    case "fileutilcopydir":
+                    case "fileutilmove":
+                    case "fileutildelete":
+                    case "fileutilmakedir":
+                    case "resizeBitmapFileRetainRatio":
+                    case "resizeBitmapFileToSquare":
+                    case "resizeBitmapFileToCircle":
+                    case "resizeBitmapFileWithRoundedBorder":
+                    case "cropBitmapFileFromCenter":
+                    case "rotateBitmapFile":
+                    case "scaleBitmapFile":
+                    case "skewBitmapFile":
+                    case "setBitmapFileColorFilter":
+                    case "setBitmapFileBrightness":
+                    case "setBitmapFileContrast":
+                        features.activityPermissions |= jq.PERMISSION_READ_EXTERNAL_STORAGE | jq.PERMISSION_WRITE_EXTERNAL_STORAGE;
+                        break;
+
+                    case "strToMap":
+                    case "mapToStr":
+                    case "strToListMap":
+                    case "listMapToStr":
+                    case "GsonListTojsonString":
+                    case "GsonStringToListString":
+                    case "GsonStringToListNumber":
+                        features.flags |= Features.GSON;
+                        break;
+
+                    case "setImageUrl":
+                        features.flags |= Features.GLIDE;
+                        features.projectPermissions |= jq.PERMISSION_INTERNET;
+                        break;
+
+                    case "webViewLoadUrl":
+                        features.projectPermissions |= jq.PERMISSION_INTERNET | jq.PERMISSION_ACCESS_NETWORK_STATE;
+                        break;
+
+                    default:
+                }
+            }
+        }
+        return features;
+    }
+
+    /**
+     * @return Views which are part of the layout's hierarchy, i.e. the ones {@link a.a.a.eC#a(ArrayList)}
+     * would return, in no particular order
+     */
+    private static ArrayList<ViewBean> getViewsInHierarchy(ArrayList<ViewBean> views) {
+        HashMap<String, ArrayList<ViewBean>> children = new HashMap<>();
+        for (ViewBean view : views) {
+            children.computeIfAbsent(view.parent, parent -> new ArrayList<>()).add(view);
+        }
+
+        ArrayList<ViewBean> inHierarchy = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        ArrayList<String> parents = new ArrayList<>();
+        parents.add("root");
+        while (!parents.isEmpty()) {
+            String parent = parents.remove(parents.size() - 1);
+            if (!visited.add(parent)) continue;
+
+            ArrayList<ViewBean> parentChildren = children.get(parent);
+            if (parentChildren != null) {
+                for (ViewBean child : parentChildren) {
+                    inHierarchy.add(child);
+                    if (isViewGroup(child.type)) {
+                        parents.add(child.id);
+                    }
+                }
+            }
+        }
+        return inHierarchy;
+    }
+
+    /**
+     * @return Whether views of a type are containers whose children are part of the hierarchy
+     */
+    private static boolean isViewGroup(int type) {
+        return switch (type) {
+            case ViewBean.VIEW_TYPE_LAYOUT_LINEAR, ViewBean.VIEW_TYPE_LAYOUT_RELATIVE, ViewBean.VIEW_TYPE_LAYOUT_HSCROLLVIEW,
+                 ViewBean.VIEW_TYPE_LAYOUT_VSCROLLVIEW, 36, 37, 38, 39, 40 -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return The simple name of a view's class, e.g. <code>CodeView</code> for
+     * <code>br.tiagohm.codeview.CodeView</code>
+     */
+    private static String getClassName(String convert) {
+        int end = convert.length();
+        while (end > 0 && convert.charAt(end - 1) == '.') {
+            end--;
+        }
+        return convert.substring(convert.lastIndexOf('.', end - 1) + 1, end);
+    }
+
+    private static long hash(long hash, String value) {
+        // 64-bit FNV-1a, with a separator so that ("ab", "c") and ("a", "bc") differ
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return combine(hash, value == null ? 1 : 0);
+    }
+
+    private static long combine(long hash, long value) {
+        hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static class IndexedFeatures {
+        private final long hash;
+        private final Features features;
+
+        private IndexedFeatures(long hash, Features features) {
+            this.hash = hash;
+            this.features = features;
+        }
+    }
+
+    /**
+     * Features used by a part of a project. Instances returned by the index are shared, so don't modify them.
+     */
+    public static class Features {
+        private static final int APP_COMPAT = 1;
+        private static final int FILE_PROVIDER = 1 << 1;
+        private static final int GSON = 1 << 2;
+        private static final int GLIDE = 1 << 3;
+        private static final int HTTP3 = 1 << 4;
+        private static final int FIREBASE_DATABASE = 1 << 5;
+        private static final int FIREBASE_STORAGE = 1 << 6;
+        private static final int FIREBASE_AUTH = 1 << 7;
+        private static final int TEXT_TO_SPEECH = 1 << 8;
+        private static final int SPEECH_TO_TEXT = 1 << 9;
+        private static final int FCM = 1 << 10;
+        private static final int FIREBASE_GOOGLE_LOGIN = 1 << 11;
+        private static final int CIRCLE_IMAGE_VIEW = 1 << 12;
+        private static final int CODE_VIEW = 1 << 13;
+        private static final int LOTTIE = 1 << 14;
+        private static final int OTP_VIEW = 1 << 15;
+        private static final int PATTERN_LOCK_VIEW = 1 << 16;
+        private static final int WAVE_SIDE_BAR = 1 << 17;
+        private static final int YOUTUBE_PLAYER = 1 << 18;
+        private static final int SWIPE_REFRESH_LAYOUT = 1 << 19;
+
+        private int flags;
+        /**
+         * Permissions of the Activity the features are used in, as bitfield of <code>jq.PERMISSION_*</code>.
+         */
+        private int activityPermissions;
+        /**
+         * Permissions of the whole project, without registering them for the Activity.
+         */
+        private int projectPermissions;
+        private boolean usesFirebaseAuth;
+
+        /**
+         * Registers the features in a project's metadata.
+         *
+         * @param activityName Name of the Activity the features are used in
+         */
+        public void applyTo(jq metadata, String activityName) {
+            if ((flags & APP_COMPAT) != 0) metadata.g = true;
+            if ((flags & FILE_PROVIDER) != 0) metadata.u = true;
+            if ((flags & GSON) != 0) metadata.isGsonUsed = true;
+            if ((flags & GLIDE) != 0) metadata.isGlideUsed = true;
+            if ((flags & HTTP3) != 0) metadata.isHttp3Used = true;
+            if ((flags & FIREBASE_DATABASE) != 0) metadata.isFirebaseDatabaseUsed = true;
+            if ((flags & FIREBASE_STORAGE) != 0) metadata.isFirebaseStorageUsed = true;
+            if ((flags & FIREBASE_AUTH) != 0) metadata.isFirebaseAuthUsed = true;
+            if ((flags & TEXT_TO_SPEECH) != 0) metadata.isTextToSpeechUsed = true;
+            if ((flags & SPEECH_TO_TEXT) != 0) metadata.isSpeechToTextUsed = true;
+            if ((flags & FCM) != 0) metadata.x.isFCMUsed = true;
+            if ((flags & FIREBASE_GOOGLE_LOGIN) != 0) metadata.x.isFBGoogleUsed = true;
+            if ((flags & CIRCLE_IMAGE_VIEW) != 0) metadata.x.isCircleImageViewUsed = true;
+            if ((flags & CODE_VIEW) != 0) metadata.x.isCodeViewUsed = true;
+            if ((flags & LOTTIE) != 0) metadata.x.isLottieUsed = true;
+            if ((flags & OTP_VIEW) != 0) metadata.x.isOTPViewUsed = true;
+            if ((flags & PATTERN_LOCK_VIEW) != 0) metadata.x.isPatternLockViewUsed = true;
+            if ((flags & WAVE_SIDE_BAR) != 0) metadata.x.isWaveSideBarUsed = true;
+            if ((flags & YOUTUBE_PLAYER) != 0) metadata.x.isYoutubePlayerUsed = true;
+            if ((flags & SWIPE_REFRESH_LAYOUT) != 0) metadata.x.isSwipeRefreshLayoutUsed = true;
+
+            if (activityPermissions != 0) {
+                metadata.addPermission(activityName, activityPermissions);
+            }
+            if (projectPermissions != 0) {
+                metadata.addPermission(projectPermissions);
+            }
+            if (usesFirebaseAuth) {
+                metadata.a(activityName).usesFirebaseAuth = true;
+            }
+        }
+    }
+}
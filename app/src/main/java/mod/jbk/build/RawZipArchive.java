@@ -0,0 +1,229 @@
+package mod.jbk.build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Read access to a ZIP archive's entries as they're stored, so that they can be copied to another
+ * archive without inflating and deflating them again.
+ * <p>
+ * Only the central directory gets read when opening the archive. ZIP64 archives aren't supported.
+ */
+public class RawZipArchive implements Closeable {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_RECORD_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_MIN_SIZE = 22;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawZipArchive(File file) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        try {
+            entries = readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Copies an entry's data as it's stored (i.e. still compressed) to {@code target}.
+     *
+     * @param position Position in {@code target} to write the data to
+     */
+    public void transferRawData(Entry entry, FileChannel target, long position) throws IOException {
+        long dataOffset = getDataOffset(entry);
+        long transferred = 0;
+        while (transferred < entry.compressedSize) {
+            target.position(position + transferred);
+            long count = channel.transferTo(dataOffset + transferred, entry.compressedSize - transferred, target);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of " + entry.name + " in " + file);
+            }
+            transferred += count;
+        }
+    }
+
+    /**
+     * @return An entry's uncompressed data
+     */
+    public byte[] readUncompressed(Entry entry) throws IOException {
+        ByteBuffer rawData = ByteBuffer.allocate((int) entry.compressedSize);
+        readFully(rawData, getDataOffset(entry));
+        if (entry.method == ZipEntry.STORED) {
+            return rawData.array();
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name + " in " + file);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(rawData.array());
+            byte[] data = new byte[(int) entry.size];
+            int inflated = 0;
+            while (inflated < data.length) {
+                int count = inflater.inflate(data, inflated, data.length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Unexpected end of " + entry.name + " in " + file);
+                }
+                inflated += count;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data of " + entry.name + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = channel.size();
+        if (size < END_OF_CENTRAL_DIRECTORY_MIN_SIZE) {
+            throw new IOException(file + " isn't a ZIP archive");
+        }
+
+        // The end of central directory record is followed by a comment of up to 65535 bytes
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_MIN_SIZE + 0xffff);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, size - tailSize);
+
+        int eocdPosition = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                    && i + END_OF_CENTRAL_DIRECTORY_MIN_SIZE + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                eocdPosition = i;
+                break;
+            }
+        }
+        if (eocdPosition == -1) {
+            throw new IOException("No end of central directory record found in " + file);
+        }
+
+        int entryCount = tail.getShort(eocdPosition + 10) & 0xffff;
+        long centralDirectorySize = tail.getInt(eocdPosition + 12) & 0xffffffffL;
+        long centralDirectoryOffset = tail.getInt(eocdPosition + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || centralDirectorySize == 0xffffffffL || centralDirectoryOffset == 0xffffffffL) {
+            throw new IOException("ZIP64 archives aren't supported: " + file);
+        }
+
+        ByteBuffer centralDirectory = ByteBuffer.allocate((int) centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(centralDirectory, centralDirectoryOffset);
+
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_RECORD_SIGNATURE) {
+                throw new IOException("Invalid central directory record #" + i + " in " + file);
+            }
+            int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+            int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+            int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+
+            byte[] name = new byte[nameLength];
+            centralDirectory.position(position + 46);
+            centralDirectory.get(name);
+
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    centralDirectory.getShort(position + 10) & 0xffff,
+                    centralDirectory.getInt(position + 16) & 0xffffffffL,
+                    centralDirectory.getInt(position + 20) & 0xffffffffL,
+                    centralDirectory.getInt(position + 24) & 0xffffffffL,
+                    centralDirectory.getInt(position + 42) & 0xffffffffL));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset == -1) {
+            ByteBuffer localFileHeader = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(localFileHeader, entry.localFileHeaderOffset);
+            entry.dataOffset = entry.localFileHeaderOffset + 30
+                    + (localFileHeader.getShort(26) & 0xffff) + (localFileHeader.getShort(28) & 0xffff);
+        }
+        return entry.dataOffset;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localFileHeaderOffset;
+        private long dataOffset = -1;
+
+        private Entry(String name, int method, long crc, long compressedSize, long size, long localFileHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localFileHeaderOffset = localFileHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
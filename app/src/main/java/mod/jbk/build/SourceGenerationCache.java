@@ -0,0 +1,135 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import a.a.a.yq;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Remembers which inputs the sources of a project's last incremental build were generated from,
+ * so that files whose inputs didn't change neither need to be regenerated nor rewritten.
+ * <p>
+ * Besides the per-file keys, it keeps the list of all files generated last time, so that files
+ * which aren't generated anymore (e.g. of deleted activities) can be deleted, and the XML commands
+ * of each Java file, as those get collected while generating Java files and applied to layouts.
+ */
+public class SourceGenerationCache {
+    private static final String TAG = "SourceGenerationCache";
+
+    private final yq workspace;
+    private final File stateFile;
+    private final State previousState;
+    private final State currentState = new State();
+    private final Set<String> currentFiles = new HashSet<>();
+
+    public SourceGenerationCache(yq workspace) {
+        this.workspace = workspace;
+        stateFile = new File(workspace.binDirectoryPath, "source_generation.json");
+
+        State state = null;
+        if (stateFile.exists()) {
+            try {
+                state = new Gson().fromJson(FileUtil.readFile(stateFile.getAbsolutePath()), State.class);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to read source generation state, regenerating all files", e);
+            }
+        }
+        previousState = state;
+    }
+
+    /**
+     * Deletes files of the previous build which get copied again in every build (images, sounds,
+     * fonts, app icons), as it's unknown which of them are still in use. Generated sources are kept,
+     * unless there's no record of which files got generated last time.
+     */
+    public void deleteOutdatedFiles() {
+        FileUtil.deleteFile(workspace.assetsPath);
+
+        File[] resourceDirectories = new File(workspace.resDirectoryPath).listFiles();
+        if (resourceDirectories != null) {
+            for (File directory : resourceDirectories) {
+                String name = directory.getName();
+                if (previousState == null || !(name.equals("layout") || name.equals("values") || name.equals("xml"))) {
+                    FileUtil.deleteFile(directory.getAbsolutePath());
+                }
+            }
+        }
+
+        if (previousState == null) {
+            FileUtil.deleteFile(workspace.javaFilesPath);
+            FileUtil.deleteFile(workspace.androidManifestPath);
+        }
+    }
+
+    /**
+     * Checks if a file can be kept as it is, and records its key for the next build.
+     *
+     * @param fileName The generated file's name, e.g. <code>MainActivity.java</code>
+     * @param key      Fingerprint of all inputs the file gets generated from
+     * @param output   The file's location in the generated project
+     * @return If the file was generated from the same inputs last time and still exists
+     */
+    public boolean isUpToDate(String fileName, String key, File output) {
+        currentState.keys.put(fileName, key);
+        if (previousState != null && key.equals(previousState.keys.get(fileName)) && output.exists()) {
+            currentFiles.add(output.getAbsolutePath());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return XML commands collected when generating a Java file last time, to re-apply them
+     * if the Java file is up-to-date and doesn't get generated again.
+     */
+    public ArrayList<HashMap<String, Object>> getXmlCommands(String javaFileName) {
+        ArrayList<HashMap<String, Object>> commands = previousState == null ? null : previousState.xmlCommands.get(javaFileName);
+        if (commands == null) {
+            commands = new ArrayList<>();
+        }
+        currentState.xmlCommands.put(javaFileName, commands);
+        return commands;
+    }
+
+    public void setXmlCommands(String javaFileName, ArrayList<HashMap<String, Object>> commands) {
+        currentState.xmlCommands.put(javaFileName, commands);
+    }
+
+    /**
+     * Records that a file belongs to the current build's generated sources.
+     */
+    public void addGeneratedFile(String path) {
+        currentFiles.add(new File(path).getAbsolutePath());
+    }
+
+    /**
+     * Deletes files generated last time which weren't generated in this build, and saves
+     * the state for the next build.
+     */
+    public void finish() {
+        if (previousState != null) {
+            for (String path : previousState.files) {
+                if (!currentFiles.contains(path)) {
+                    LogUtil.d(TAG, "Deleting stale generated file " + path);
+                    FileUtil.deleteFile(path);
+                }
+            }
+        }
+
+        currentState.files.addAll(currentFiles);
+        FileUtil.writeFile(stateFile.getAbsolutePath(), new Gson().toJson(currentState));
+    }
+
+    private static class State {
+        private HashMap<String, String> keys = new HashMap<>();
+        private HashMap<String, ArrayList<HashMap<String, Object>>> xmlCommands = new HashMap<>();
+        private ArrayList<String> files = new ArrayList<>();
+    }
+}
@@ -0,0 +1,51 @@
+package mod.jbk.build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Remembers the XML commands of each Java file generated for source previews, so that previewing
+ * an XML file only needs to generate the Java files which changed since the last preview, instead
+ * of all of them.
+ * <p>
+ * Entries are keyed like {@link SourceGenerationCache}'s, by a fingerprint of everything the Java
+ * file gets generated from, so edited files are regenerated automatically. Caches are kept per
+ * project for as long as the process lives.
+ */
+public class SourcePreviewCache {
+    private static final HashMap<String, SourcePreviewCache> caches = new HashMap<>();
+
+    private final HashMap<String, Entry> xmlCommands = new HashMap<>();
+
+    public static synchronized SourcePreviewCache get(String sc_id) {
+        SourcePreviewCache cache = caches.get(sc_id);
+        if (cache == null) {
+            cache = new SourcePreviewCache();
+            caches.put(sc_id, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * @return The Java file's XML commands, or <code>null</code> if it changed since they were saved
+     */
+    public synchronized ArrayList<HashMap<String, Object>> getXmlCommands(String javaName, String key) {
+        Entry entry = xmlCommands.get(javaName);
+        if (entry == null || !entry.key.equals(key)) return null;
+        return entry.commands;
+    }
+
+    public synchronized void putXmlCommands(String javaName, String key, ArrayList<HashMap<String, Object>> commands) {
+        xmlCommands.put(javaName, new Entry(key, commands));
+    }
+
+    private static class Entry {
+        private final String key;
+        private final ArrayList<HashMap<String, Object>> commands;
+
+        private Entry(String key, ArrayList<HashMap<String, Object>> commands) {
+            this.key = key;
+            this.commands = commands;
+        }
+    }
+}
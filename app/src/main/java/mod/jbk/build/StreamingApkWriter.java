@@ -0,0 +1,430 @@
+package mod.jbk.build;
+
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import kellinwood.security.zipsigner.optional.KeyStoreFileManager;
+
+/**
+ * Writes an APK in a single pass: entries get aligned as they're written, and if a signer engine
+ * is given, their v1 (JAR signing) digests get computed while writing them. The APK Signing Block
+ * with v2/v3 signatures then gets inserted before the central directory.
+ * <p>
+ * This replaces building an unsigned APK, copying it to an aligned one and copying that to a signed
+ * one. Only computing the v2/v3 digests requires reading the written entries once more.
+ */
+public class StreamingApkWriter implements Closeable {
+    private static final int ALIGNMENT = 4;
+    private static final int NATIVE_LIBRARY_ALIGNMENT = 4096;
+    /**
+     * ID of the extra field used by zipalign and apksigner to pad stored entries' local file headers.
+     */
+    private static final short ALIGNMENT_EXTRA_FIELD_ID = (short) 0xd935;
+    private static final int ALIGNMENT_EXTRA_FIELD_MIN_SIZE = 6;
+    private static final int LOCAL_FILE_HEADER_CRC_OFFSET = 14;
+    /**
+     * 1981-01-01 00:00, so that the output doesn't depend on when it was built.
+     */
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = ((1981 - 1980) << 9) | (1 << 5) | 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ApkSignerEngine signerEngine;
+    private final Map<String, String> sourcesOfEntries = new HashMap<>();
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buffer = new byte[8192];
+    private final byte[] deflateBuffer = new byte[8192];
+    private int entryCount;
+    private long offset;
+
+    /**
+     * @param signerEngine Engine to sign the APK with, or <code>null</code> to only align it
+     */
+    public StreamingApkWriter(File output, ApkSignerEngine signerEngine) throws IOException {
+        file = new RandomAccessFile(output, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        this.signerEngine = signerEngine;
+    }
+
+    /**
+     * Creates an engine to sign APKs with v1, v2 and v3 signatures with a key from a JKS or BKS keystore.
+     */
+    public static ApkSignerEngine createSignerEngine(String keystorePath, char[] keystorePassword, String alias,
+                                                     char[] aliasPassword, int minSdkVersion) throws Exception {
+        KeyStore keystore = KeyStoreFileManager.loadKeyStore(keystorePath, keystorePassword);
+        X509Certificate certificate = (X509Certificate) keystore.getCertificate(alias);
+        PrivateKey privateKey = (PrivateKey) keystore.getKey(alias, aliasPassword);
+        return createSignerEngine(privateKey, certificate, minSdkVersion);
+    }
+
+    /**
+     * Creates an engine to sign APKs with v1, v2 and v3 signatures.
+     */
+    public static ApkSignerEngine createSignerEngine(PrivateKey privateKey, X509Certificate certificate, int minSdkVersion) throws GeneralSecurityException {
+        DefaultApkSignerEngine.SignerConfig signerConfig = new DefaultApkSignerEngine.SignerConfig.Builder(
+                "CERT", privateKey, Collections.singletonList(certificate)).build();
+        return new DefaultApkSignerEngine.Builder(Collections.singletonList(signerConfig), minSdkVersion).build();
+    }
+
+    public void addFile(File file, String path) throws IOException {
+        addFile(file, path, true);
+    }
+
+    /**
+     * Adds a file, reading it in chunks so that large files don't need to fit into memory.
+     *
+     * @param compress If the file should be deflated, otherwise it's stored as it is
+     */
+    public void addFile(File file, String path, boolean compress) throws IOException {
+        addSource(path, file.getAbsolutePath());
+        try (InputStream input = new FileInputStream(file)) {
+            writeEntry(path, input, compress);
+        }
+    }
+
+    /**
+     * Copies all entries of an archive as they're stored, without recompressing them.
+     *
+     * @param javaResourcesOnly If only Java resources should be added, i.e. no classes,
+     *                          JAR manifests, signature files or source files
+     */
+    public void addZipEntries(File archive, boolean javaResourcesOnly) throws IOException {
+        try (RawZipArchive zip = new RawZipArchive(archive)) {
+            for (RawZipArchive.Entry entry : zip.getEntries()) {
+                if (!entry.isDirectory() && (!javaResourcesOnly || isJavaResource(entry.getName()))) {
+                    copyEntry(zip, entry, entry.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies an entry of another archive as it's stored, without recompressing it.
+     * Its data only gets inflated if it needs to be digested for the JAR signature.
+     *
+     * @param path The entry's path in the output
+     */
+    public void copyEntry(RawZipArchive archive, RawZipArchive.Entry entry, String path) throws IOException {
+        addSource(path, archive.getFile().getAbsolutePath());
+
+        if (signerEngine != null) {
+            ApkSignerEngine.InspectJarEntryRequest request = signerEngine.outputJarEntry(path);
+            if (request != null) {
+                byte[] data = archive.readUncompressed(entry);
+                request.getDataSink().consume(data, 0, data.length);
+                request.done();
+            }
+        }
+
+        long localFileHeaderOffset = writeLocalFileHeader(path, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        archive.transferRawData(entry, channel, offset);
+        offset += entry.getCompressedSize();
+        addCentralDirectoryRecord(path, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), localFileHeaderOffset);
+    }
+
+    /**
+     * @return If an entry with that path was added already
+     */
+    public boolean hasEntry(String path) {
+        return sourcesOfEntries.containsKey(path);
+    }
+
+    /**
+     * Adds all native libraries of a directory with one subdirectory per ABI,
+     * e.g. <code>arm64-v8a/libfoo.so</code>, as <code>lib/&lt;ABI&gt;/&lt;library&gt;</code>.
+     * They're stored uncompressed and page-aligned, so that they can be loaded directly from the APK.
+     */
+    public void addNativeLibraries(File directory) throws IOException {
+        File[] abiDirectories = directory.listFiles();
+        if (abiDirectories == null) return;
+
+        for (File abiDirectory : abiDirectories) {
+            File[] libraries = abiDirectory.listFiles();
+            if (libraries == null) continue;
+
+            for (File library : libraries) {
+                if (library.isFile() && library.getName().endsWith(".so")) {
+                    addFile(library, "lib/" + abiDirectory.getName() + "/" + library.getName(), false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the JAR signature files, the APK Signing Block, central directory and its end record.
+     * The writer mustn't be used anymore afterwards.
+     */
+    public void finish() throws IOException, GeneralSecurityException {
+        try {
+            if (signerEngine != null) {
+                ApkSignerEngine.OutputJarSignatureRequest jarSignatureRequest = signerEngine.outputJarEntries();
+                if (jarSignatureRequest != null) {
+                    for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry : jarSignatureRequest.getAdditionalJarEntries()) {
+                        writeEntry(entry.getName(), new ByteArrayInputStream(entry.getData()), true);
+                    }
+                    jarSignatureRequest.done();
+                }
+            }
+
+            long centralDirectoryOffset = offset;
+            byte[] centralDirectoryBytes = centralDirectory.toByteArray();
+            ByteBuffer endOfCentralDirectory = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0x06054b50)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) entryCount)
+                    .putShort((short) entryCount)
+                    .putInt(centralDirectoryBytes.length)
+                    .putInt((int) centralDirectoryOffset)
+                    .putShort((short) 0);
+            endOfCentralDirectory.flip();
+
+            if (signerEngine != null) {
+                ApkSignerEngine.OutputApkSigningBlockRequest2 signingBlockRequest = signerEngine.outputZipSections2(
+                        DataSources.asDataSource(channel, 0, centralDirectoryOffset),
+                        DataSources.asDataSource(ByteBuffer.wrap(centralDirectoryBytes)),
+                        DataSources.asDataSource(endOfCentralDirectory.duplicate()));
+                if (signingBlockRequest != null) {
+                    write(ByteBuffer.allocate(signingBlockRequest.getPaddingSizeBeforeApkSigningBlock()));
+                    write(ByteBuffer.wrap(signingBlockRequest.getApkSigningBlock()));
+                    // the central directory moved behind the APK Signing Block
+                    endOfCentralDirectory.putInt(16, (int) offset);
+                    signingBlockRequest.done();
+                }
+            }
+
+            write(ByteBuffer.wrap(centralDirectoryBytes));
+            write(endOfCentralDirectory);
+
+            if (signerEngine != null) {
+                signerEngine.outputDone();
+            }
+        } catch (ApkFormatException e) {
+            throw new IOException("Failed to sign APK", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        if (signerEngine != null) {
+            signerEngine.close();
+        }
+        file.close();
+    }
+
+    private void addSource(String name, String source) throws IOException {
+        String previousSource = sourcesOfEntries.put(name, source);
+        if (previousSource != null) {
+            throw new IOException("Duplicate file " + name + " in " + previousSource + " and " + source);
+        }
+    }
+
+    /**
+     * Writes an entry while reading its data in chunks. The data's CRC and the entry's sizes are
+     * only known afterwards, so they're filled into the local file header once it's written.
+     * If the entry needs to be digested for the JAR signature, that happens while reading it too.
+     */
+    private void writeEntry(String name, InputStream input, boolean compress) throws IOException {
+        ApkSignerEngine.InspectJarEntryRequest request = signerEngine != null ? signerEngine.outputJarEntry(name) : null;
+        DataSink signerSink = request != null ? request.getDataSink() : null;
+        int method = compress ? ZipEntry.DEFLATED : ZipEntry.STORED;
+
+        long localFileHeaderOffset = writeLocalFileHeader(name, method, 0, 0, 0);
+        long dataOffset = offset;
+        CRC32 crc = new CRC32();
+        long size = 0;
+        deflater.reset();
+
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            crc.update(buffer, 0, count);
+            if (signerSink != null) {
+                signerSink.consume(buffer, 0, count);
+            }
+            size += count;
+
+            if (compress) {
+                deflater.setInput(buffer, 0, count);
+                while (!deflater.needsInput()) {
+                    writeDeflated();
+                }
+            } else {
+                write(ByteBuffer.wrap(buffer, 0, count));
+            }
+        }
+        if (compress) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeDeflated();
+            }
+        }
+        if (request != null) {
+            request.done();
+        }
+
+        long compressedSize = offset - dataOffset;
+        ByteBuffer crcAndSizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue())
+                .putInt((int) compressedSize)
+                .putInt((int) size);
+        crcAndSizes.flip();
+        writeAt(crcAndSizes, localFileHeaderOffset + LOCAL_FILE_HEADER_CRC_OFFSET);
+        addCentralDirectoryRecord(name, method, crc.getValue(), compressedSize, size, localFileHeaderOffset);
+    }
+
+    private void writeDeflated() throws IOException {
+        int count = deflater.deflate(deflateBuffer);
+        if (count > 0) {
+            write(ByteBuffer.wrap(deflateBuffer, 0, count));
+        }
+    }
+
+    /**
+     * Writes an entry's local file header, padded so that stored entries' data is aligned.
+     *
+     * @return The local file header's offset
+     */
+    private long writeLocalFileHeader(String name, int method, long crc, long compressedSize, long size) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        short versionNeeded = (short) (method == ZipEntry.STORED ? 10 : 20);
+
+        int extraLength = 0;
+        int alignment = name.endsWith(".so") ? NATIVE_LIBRARY_ALIGNMENT : ALIGNMENT;
+        if (method == ZipEntry.STORED) {
+            long dataOffset = offset + 30 + nameBytes.length + ALIGNMENT_EXTRA_FIELD_MIN_SIZE;
+            extraLength = ALIGNMENT_EXTRA_FIELD_MIN_SIZE + (int) ((alignment - dataOffset % alignment) % alignment);
+        }
+
+        ByteBuffer localFileHeader = ByteBuffer.allocate(30 + nameBytes.length + extraLength).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x04034b50)
+                .putShort(versionNeeded)
+                // names are UTF-8
+                .putShort((short) 0x0800)
+                .putShort((short) method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) extraLength)
+                .put(nameBytes);
+        if (extraLength > 0) {
+            localFileHeader.putShort(ALIGNMENT_EXTRA_FIELD_ID)
+                    .putShort((short) (extraLength - 4))
+                    .putShort((short) alignment);
+        }
+        localFileHeader.position(0);
+
+        long localFileHeaderOffset = offset;
+        write(localFileHeader);
+        return localFileHeaderOffset;
+    }
+
+    private void addCentralDirectoryRecord(String name, int method, long crc, long compressedSize, long size,
+                                           long localFileHeaderOffset) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        short versionNeeded = (short) (method == ZipEntry.STORED ? 10 : 20);
+        ByteBuffer centralDirectoryRecord = ByteBuffer.allocate(46 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(0x02014b50)
+                .putShort((short) 20)
+                .putShort(versionNeeded)
+                .putShort((short) 0x0800)
+                .putShort((short) method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) localFileHeaderOffset)
+                .put(nameBytes);
+        centralDirectory.write(centralDirectoryRecord.array());
+        entryCount++;
+    }
+
+    /**
+     * Writes at the current offset. Positional writes are needed, as the signer engine
+     * moves the channel's position when it reads the already written entries.
+     */
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    /**
+     * Overwrites already written data, without changing the current offset.
+     */
+    private void writeAt(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * Same rules as the APK builder's, which skips classes, JAR manifests and signatures,
+     * source files and files of version control systems.
+     */
+    private static boolean isJavaResource(String path) {
+        String[] segments = path.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            String folder = segments[i];
+            if (folder.startsWith(".") || folder.equalsIgnoreCase("CVS") || folder.equalsIgnoreCase("SCCS")) {
+                return false;
+            }
+        }
+
+        String name = segments[segments.length - 1];
+        String lowerCaseName = name.toLowerCase();
+        if (path.equals("META-INF/MANIFEST.MF") || (path.startsWith("META-INF/") &&
+                (lowerCaseName.endsWith(".sf") || lowerCaseName.endsWith(".rsa") || lowerCaseName.endsWith(".dsa") || lowerCaseName.endsWith(".ec")))) {
+            return false;
+        }
+        if (name.startsWith(".") || name.endsWith("~") || lowerCaseName.equals("thumbs.db") || lowerCaseName.equals("picasa.ini")
+                || lowerCaseName.equals("package.html") || lowerCaseName.equals("overview.html")) {
+            return false;
+        }
+        for (String extension : new String[]{".aidl", ".rs", ".rsh", ".fs", ".java", ".scala", ".class", ".scc", ".swp"}) {
+            if (lowerCaseName.endsWith(extension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
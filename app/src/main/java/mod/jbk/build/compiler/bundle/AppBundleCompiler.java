@@ -4,26 +4,22 @@ import com.android.bundle.Config;
 import com.android.tools.build.bundletool.commands.BuildBundleCommand;
 import com.google.common.collect.ImmutableList;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.security.GeneralSecurityException;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import a.a.a.ProjectBuilder;
 import a.a.a.yq;
 import a.a.a.zy;
 import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.RawZipArchive;
+import mod.jbk.build.StreamingApkWriter;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.utility.FilePathUtil;
 
@@ -43,7 +39,6 @@ public class AppBundleCompiler {
     private final File appBundle;
 
     private final List<String> uncompressedModuleMainPaths = new LinkedList<>();
-    private final Set<String> addedEntries = new HashSet<>();
 
     public AppBundleCompiler(ProjectBuilder builder) {
         this.builder = builder;
@@ -94,81 +89,49 @@ public class AppBundleCompiler {
     }
 
     /**
-     * Re-compresses &lt;project name&gt;.apk.res to module-main.zip in the right format.
+     * Copies &lt;project name&gt;.apk.res to module-main.zip in the right format. Entries of archives
+     * get copied as they're stored, without recompressing them.
      *
      * @throws IOException Thrown if any I/O exception occurs while creating the archive
      */
     public void createModuleMainArchive() throws IOException {
-        var moduleMain = new BufferedOutputStream(new FileOutputStream(mainModuleArchive));
-        try (var moduleMainZip = new ZipOutputStream(moduleMain)) {
-            try (var apkRes = new ZipInputStream(new FileInputStream(builder.yq.resourcesApkPath))) {
-                /* First, compress DEX files into module-main.zip */
-                var binDirectoryContent = new File(builder.yq.binDirectoryPath).listFiles();
-                if (binDirectoryContent != null) {
-                    for (var file : binDirectoryContent) {
-                        if (file.isFile() && file.getName().endsWith(".dex")) {
-                            /* Create a ZIP-entry of the DEX file */
-                            var dexZipEntry = new ZipEntry(MODULE_DEX + File.separator + file.getName());
-                            moduleMainZip.putNextEntry(dexZipEntry);
-
-                            /* Read the DEX file and compress into module-main.zip */
-                            try (var dexInputStream = new FileInputStream(file)) {
-                                byte[] buffer = new byte[1024];
-                                int length;
-                                while ((length = dexInputStream.read(buffer)) > 0) {
-                                    moduleMainZip.write(buffer, 0, length);
-                                }
-                            }
-                            moduleMainZip.closeEntry();
-                        }
+        try (var moduleMainZip = new StreamingApkWriter(mainModuleArchive, null)) {
+            /* First, compress DEX files into module-main.zip */
+            var binDirectoryContent = new File(builder.yq.binDirectoryPath).listFiles();
+            if (binDirectoryContent != null) {
+                for (var file : binDirectoryContent) {
+                    if (file.isFile() && file.getName().endsWith(".dex")) {
+                        moduleMainZip.addFile(file, MODULE_DEX + File.separator + file.getName());
                     }
                 }
+            }
 
-                var entry = apkRes.getNextEntry();
-
-                while (entry != null) {
-                    ZipEntry toCompress;
+            try (var apkRes = new RawZipArchive(new File(builder.yq.resourcesApkPath))) {
+                for (var entry : apkRes.getEntries()) {
+                    String pathInModule;
                     if (entry.getName().startsWith("assets/")) {
                         var entryName = entry.getName().substring(7);
-                        toCompress = new ZipEntry(MODULE_ASSETS + File.separator + entryName);
+                        pathInModule = MODULE_ASSETS + File.separator + entryName;
                     } else if (entry.getName().startsWith("res/")) {
                         var entryName = entry.getName().substring(4);
-                        toCompress = new ZipEntry(MODULE_RES + File.separator + entryName);
+                        pathInModule = MODULE_RES + File.separator + entryName;
                     } else if (entry.getName().equals("AndroidManifest.xml")) {
-                        toCompress = new ZipEntry(MODULE_MANIFEST + File.separator + "AndroidManifest.xml");
+                        pathInModule = MODULE_MANIFEST + File.separator + "AndroidManifest.xml";
                     } else if (entry.getName().equals("resources.pb")) {
-                        toCompress = new ZipEntry("resources.pb");
+                        pathInModule = "resources.pb";
                     } else {
-                        toCompress = new ZipEntry(MODULE_ROOT + File.separator + entry.getName());
+                        pathInModule = MODULE_ROOT + File.separator + entry.getName();
                     }
 
-                    int entryMethod = entry.getMethod();
-                    toCompress.setMethod(entryMethod);
-                    if (entryMethod == ZipEntry.STORED) {
-                        toCompress.setCompressedSize(entry.getCompressedSize());
-                        toCompress.setSize(entry.getSize());
-                        toCompress.setCrc(entry.getCrc());
+                    if (entry.getMethod() == ZipEntry.STORED) {
                         uncompressedModuleMainPaths.add(entry.getName());
                     }
 
                     // Check for duplicate entries here
-                    if (!addedEntries.contains(toCompress.getName())) {
-                        moduleMainZip.putNextEntry(toCompress);
-
-                        var buffer = new byte[1024];
-                        int length;
-                        while ((length = apkRes.read(buffer)) > 0) {
-                            moduleMainZip.write(buffer, 0, length);
-                        }
-
-                        moduleMainZip.closeEntry();
-                        addedEntries.add(toCompress.getName());
+                    if (!moduleMainZip.hasEntry(pathInModule)) {
+                        moduleMainZip.copyEntry(apkRes, entry, pathInModule);
                     }
-
-                    apkRes.closeEntry();
-                    entry = apkRes.getNextEntry();
                 }
-                moduleMain.flush();
             }
 
             var nativeLibrariesDirectory = new File(new FilePathUtil().getPathNativelibs(builder.yq.sc_id));
@@ -179,20 +142,8 @@ public class AppBundleCompiler {
                     var nativeLibraries = architecture.listFiles();
                     if (nativeLibraries != null) {
                         for (var nativeLibrary : nativeLibraries) {
-                            /* Create a ZIP-entry of the native library */
-                            var dexZipEntry = new ZipEntry(MODULE_LIB + File.separator +
+                            moduleMainZip.addFile(nativeLibrary, MODULE_LIB + File.separator +
                                     architecture.getName() + File.separator + nativeLibrary.getName());
-                            moduleMainZip.putNextEntry(dexZipEntry);
-
-                            /* Read the native binary and compress into module-main.zip */
-                            try (var dexInputStream = new FileInputStream(nativeLibrary)) {
-                                var buffer = new byte[1024];
-                                int length;
-                                while ((length = dexInputStream.read(buffer)) > 0) {
-                                    moduleMainZip.write(buffer, 0, length);
-                                }
-                            }
-                            moduleMainZip.closeEntry();
                         }
                     }
                 }
@@ -207,33 +158,25 @@ public class AppBundleCompiler {
             }
 
             for (var jar : jars) {
-                try (var jarStream = new FileInputStream(jar);
-                     var jarArchiveStream = new ZipInputStream(jarStream)) {
-                    var jarArchiveEntry = jarArchiveStream.getNextEntry();
-
-                    while (jarArchiveEntry != null) {
+                try (var jarArchive = new RawZipArchive(jar)) {
+                    for (var jarArchiveEntry : jarArchive.getEntries()) {
                         var pathInJar = jarArchiveEntry.getName();
                         if (!jarArchiveEntry.isDirectory() && !pathInJar.equals("META-INF/MANIFEST.MF") && !pathInJar.endsWith(".class")) {
-                            var nonClassFileToAddToModule = new ZipEntry(MODULE_ROOT + File.separator + pathInJar);
+                            var pathInModule = MODULE_ROOT + File.separator + pathInJar;
 
                             // Check for duplicate entries here
-                            if (!addedEntries.contains(nonClassFileToAddToModule.getName())) {
-                                moduleMainZip.putNextEntry(nonClassFileToAddToModule);
-
-                                var buffer = new byte[1024];
-                                int length;
-                                while ((length = jarArchiveStream.read(buffer)) > 0) {
-                                    moduleMainZip.write(buffer, 0, length);
-                                }
-                                moduleMainZip.closeEntry();
-                                addedEntries.add(nonClassFileToAddToModule.getName());
+                            if (!moduleMainZip.hasEntry(pathInModule)) {
+                                moduleMainZip.copyEntry(jarArchive, jarArchiveEntry, pathInModule);
                             }
                         }
-
-                        jarArchiveEntry = jarArchiveStream.getNextEntry();
                     }
                 }
             }
+
+            moduleMainZip.finish();
+        } catch (GeneralSecurityException e) {
+            // can't happen, as the module doesn't get signed
+            throw new IOException(e);
         }
     }
 }
@@ -10,13 +10,21 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 
 import a.a.a.ProjectBuilder;
 import mod.hey.studios.project.ProjectSettings;
+import mod.jbk.build.IncrementalBuildCache;
+import mod.jbk.util.LogUtil;
 import pro.sketchware.utility.FileUtil;
 
 public class DexCompiler {
+    private static final String TAG = "DexCompiler";
+
     public static void compileDexFiles(ProjectBuilder builder) throws CompilationFailedException {
         int minApiLevel;
 
@@ -27,6 +35,21 @@ public class DexCompiler {
             throw new CompilationFailedException("Invalid minSdkVersion specified in Project Settings" + e.getMessage());
         }
 
+        Collection<Path> libraryFiles = new LinkedList<>();
+        for (String jarPath : builder.getClasspath().split(":")) {
+            // the output directory itself is part of the classpath if Kotlin files were compiled,
+            // but its classes are what's getting dexed, not libraries
+            if (!jarPath.isEmpty() && !jarPath.equals(builder.yq.compiledClassesPath)) {
+                libraryFiles.add(Paths.get(jarPath));
+            }
+        }
+
+        // Below API level 24, interface desugaring makes a class' DEX code depend on its supertypes
+        if (builder.isIncrementalBuildEnabled() && !builder.proguard.isShrinkingEnabled() && minApiLevel >= 24
+                && compileDexFilesPerClass(builder, minApiLevel, libraryFiles)) {
+            return;
+        }
+
         Collection<Path> programFiles = new LinkedList<>();
         if (builder.proguard.isShrinkingEnabled()) {
             programFiles.add(Paths.get(builder.yq.proguardClassesPath));
@@ -36,11 +59,99 @@ public class DexCompiler {
             }
         }
 
-        Collection<Path> libraryFiles = new LinkedList<>();
-        for (String jarPath : builder.getClasspath().split(":")) {
-            libraryFiles.add(Paths.get(jarPath));
+        D8.run(D8Command.builder()
+                .setMode(CompilationMode.RELEASE)
+                .setIntermediate(true)
+                .setMinApiLevel(minApiLevel)
+                .addLibraryFiles(libraryFiles)
+                .setOutput(new File(builder.yq.binDirectoryPath, "dex").toPath(), OutputMode.DexIndexed)
+                .addProgramFiles(programFiles)
+                .build());
+    }
+
+    /**
+     * Dexes only classes which changed since the last build, each into its own DEX file that gets
+     * cached by the class file's hash, and merges all classes' DEX files afterwards.
+     *
+     * @return If it succeeded. Otherwise, all classes need to be dexed together.
+     */
+    private static boolean compileDexFilesPerClass(ProjectBuilder builder, int minApiLevel, Collection<Path> libraryFiles) throws CompilationFailedException {
+        File classesDirectory = new File(builder.yq.compiledClassesPath);
+        File cacheDirectory = new File(builder.yq.binDirectoryPath, "dex_cache");
+
+        // desugaring depends on the minimum API level and the classpath
+        IncrementalBuildCache.Fingerprint optionsFingerprint = new IncrementalBuildCache.Fingerprint()
+                .put(minApiLevel);
+        for (Path libraryFile : libraryFiles) {
+            optionsFingerprint.putStamp(libraryFile.toFile());
+        }
+        String optionsKey = optionsFingerprint.build();
+        File optionsFile = new File(cacheDirectory, "options");
+        if (!optionsFile.exists() || !optionsKey.equals(FileUtil.readFile(optionsFile.getAbsolutePath()))) {
+            if (optionsFile.exists()) {
+                LogUtil.d(TAG, "Minimum API level or libraries changed, clearing cached DEX files of all classes");
+            }
+            FileUtil.deleteFile(cacheDirectory.getAbsolutePath());
+            FileUtil.makeDir(cacheDirectory.getAbsolutePath());
+            FileUtil.writeFile(optionsFile.getAbsolutePath(), optionsKey);
+        }
+
+        Map<File, File> dexFilesOfClasses = new LinkedHashMap<>();
+        Collection<Path> changedClasses = new LinkedList<>();
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            File dexFile = new File(cacheDirectory, new IncrementalBuildCache.Fingerprint().putContents(classFile).build() + ".dex");
+            if (!dexFile.exists()) {
+                changedClasses.add(classFile.toPath());
+            }
+            dexFilesOfClasses.put(classFile, dexFile);
+        }
+
+        if (!changedClasses.isEmpty()) {
+            File perClassOutput = new File(cacheDirectory, "tmp");
+            FileUtil.deleteFile(perClassOutput.getAbsolutePath());
+            FileUtil.makeDir(perClassOutput.getAbsolutePath());
+
+            try {
+                D8.run(D8Command.builder()
+                        .setMode(CompilationMode.RELEASE)
+                        .setIntermediate(true)
+                        .setMinApiLevel(minApiLevel)
+                        .addLibraryFiles(libraryFiles)
+                        .setOutput(perClassOutput.toPath(), OutputMode.DexFilePerClassFile)
+                        .addProgramFiles(changedClasses)
+                        .build());
+            } catch (CompilationFailedException e) {
+                LogUtil.e(TAG, "Failed to dex changed classes separately, dexing all classes together", e);
+                return false;
+            }
+
+            for (Path changedClass : changedClasses) {
+                String relativePath = classesDirectory.toPath().relativize(changedClass).toString();
+                File output = new File(perClassOutput, relativePath.substring(0, relativePath.length() - ".class".length()) + ".dex");
+                File dexFile = dexFilesOfClasses.get(changedClass.toFile());
+                if (!output.renameTo(dexFile)) {
+                    LogUtil.w(TAG, "Missing DEX file of " + relativePath + ", dexing all classes together");
+                    return false;
+                }
+            }
+            FileUtil.deleteFile(perClassOutput.getAbsolutePath());
         }
+        LogUtil.d(TAG, "Dexed " + changedClasses.size() + " of " + dexFilesOfClasses.size() + " classes, the others were cached");
 
+        Set<File> usedDexFiles = new LinkedHashSet<>(dexFilesOfClasses.values());
+        File[] cachedFiles = cacheDirectory.listFiles();
+        if (cachedFiles != null) {
+            for (File cachedFile : cachedFiles) {
+                if (cachedFile.getName().endsWith(".dex") && !usedDexFiles.contains(cachedFile)) {
+                    FileUtil.deleteFile(cachedFile.getAbsolutePath());
+                }
+            }
+        }
+
+        Collection<Path> programFiles = new LinkedList<>();
+        for (File dexFile : usedDexFiles) {
+            programFiles.add(dexFile.toPath());
+        }
         D8.run(D8Command.builder()
                 .setMode(CompilationMode.RELEASE)
                 .setIntermediate(true)
@@ -49,5 +160,6 @@ public class DexCompiler {
                 .setOutput(new File(builder.yq.binDirectoryPath, "dex").toPath(), OutputMode.DexIndexed)
                 .addProgramFiles(programFiles)
                 .build());
+        return true;
     }
 }
@@ -0,0 +1,329 @@
+package mod.jbk.build.compiler.dex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import mod.agus.jcoderz.dex.Dex;
+import mod.agus.jcoderz.dex.FieldId;
+import mod.agus.jcoderz.dex.MethodId;
+import mod.agus.jcoderz.dex.ProtoId;
+import mod.jbk.build.LibraryArtifactCache;
+
+/**
+ * Plans how DEX files get merged into <code>classes.dex</code>, <code>classes2.dex</code>, etc.
+ * without any of them exceeding the 64K limit of field, method, proto or type IDs.
+ * <p>
+ * IDs of different DEX files are compared by what they reference (e.g. a method's declaring class,
+ * name and prototype), not by their indices, as those are only meaningful within a single DEX file.
+ * IDs are stored as 64-bit hashes, so that sets of them are cheap to keep and to look up in.
+ * <p>
+ * Inputs get packed first-fit decreasing: the biggest ones get placed first, each into the first
+ * output DEX file which can take all of its IDs that aren't in there already. Only the first input
+ * is always placed into <code>classes.dex</code>, as it's expected to contain the classes needed to
+ * load the other DEX files (i.e. the multidex library).
+ */
+public class DexPackingPlanner {
+    public static final int MAX_IDS_PER_TABLE = 0xffff;
+
+    private static final int FIELDS = 0;
+    private static final int METHODS = 1;
+    private static final int PROTOS = 2;
+    private static final int TYPES = 3;
+    private static final String[] TABLE_NAMES = {"field", "method", "proto", "type"};
+
+    /**
+     * @param libraryDexFiles DEX files of libraries, whose IDs can be looked up in and saved to {@code artifactCache}.
+     *                        The others (i.e. the project's own DEX files) change too often to be worth caching.
+     */
+    public static Plan plan(List<File> dexFiles, Set<File> libraryDexFiles, LibraryArtifactCache artifactCache) throws IOException {
+        List<Input> inputs = new ArrayList<>(dexFiles.size());
+        LongHashSet[] allIds = newTables();
+        for (int i = 0; i < dexFiles.size(); i++) {
+            File dexFile = dexFiles.get(i);
+            Input input = new Input(i, dexFile, libraryDexFiles.contains(dexFile) ? artifactCache : null);
+            inputs.add(input);
+            for (int table = 0; table < TYPES + 1; table++) {
+                allIds[table].addAll(input.ids[table]);
+            }
+        }
+
+        List<Group> groups = new ArrayList<>();
+        if (!inputs.isEmpty()) {
+            Group first = new Group();
+            first.add(inputs.get(0));
+            groups.add(first);
+
+            List<Input> remaining = new ArrayList<>(inputs.subList(1, inputs.size()));
+            // stable, so equally big inputs stay in their original order
+            remaining.sort((a, b) -> Integer.compare(b.getLargestTableSize(), a.getLargestTableSize()));
+
+            for (Input input : remaining) {
+                Group target = null;
+                for (Group group : groups) {
+                    if (group.canTake(input)) {
+                        target = group;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = new Group();
+                    groups.add(target);
+                }
+                target.add(input);
+            }
+        }
+
+        // Each table's distinct IDs need at least that many DEX files
+        int lowerBound = inputs.isEmpty() ? 0 : 1;
+        for (LongHashSet ids : allIds) {
+            lowerBound = Math.max(lowerBound, (ids.size() + MAX_IDS_PER_TABLE - 1) / MAX_IDS_PER_TABLE);
+        }
+
+        return new Plan(inputs.size(), groups, lowerBound);
+    }
+
+    private static LongHashSet[] newTables() {
+        return new LongHashSet[]{new LongHashSet(), new LongHashSet(), new LongHashSet(), new LongHashSet()};
+    }
+
+    private static long hash(String value) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long combine(long hash, long value) {
+        hash = (hash ^ value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    public static class Plan {
+        private final int inputCount;
+        private final List<Group> groups;
+        private final int lowerBound;
+
+        private Plan(int inputCount, List<Group> groups, int lowerBound) {
+            this.inputCount = inputCount;
+            this.groups = groups;
+            this.lowerBound = lowerBound;
+        }
+
+        /**
+         * @return Input DEX files of each output DEX file, in their original order,
+         * starting with the ones of <code>classes.dex</code>.
+         */
+        public List<List<File>> getGroups() {
+            List<List<File>> result = new ArrayList<>(groups.size());
+            for (Group group : groups) {
+                result.add(group.getFiles());
+            }
+            return result;
+        }
+
+        /**
+         * @return Human-readable summary of which inputs go into which output DEX file
+         * and how many IDs of each table the output DEX files will have.
+         */
+        public String getReport() {
+            StringBuilder report = new StringBuilder("Packing ")
+                    .append(inputCount).append(" DEX files into ").append(groups.size())
+                    .append(" (at least ").append(lowerBound).append(" needed)");
+            for (int i = 0; i < groups.size(); i++) {
+                Group group = groups.get(i);
+                report.append('\n').append(getOutputName(i)).append(':');
+                for (int table = 0; table < TABLE_NAMES.length; table++) {
+                    report.append(' ').append(group.ids[table].size())
+                            .append(' ').append(TABLE_NAMES[table]).append(" IDs")
+                            .append(table == TABLE_NAMES.length - 1 ? "" : ",");
+                }
+                for (File file : group.getFiles()) {
+                    report.append("\n  ").append(file.getAbsolutePath());
+                }
+            }
+            return report.toString();
+        }
+
+        public static String getOutputName(int index) {
+            return index == 0 ? "classes.dex" : "classes" + (index + 1) + ".dex";
+        }
+    }
+
+    private static class Group {
+        private final List<Input> inputs = new ArrayList<>();
+        private final LongHashSet[] ids = newTables();
+
+        private boolean canTake(Input input) {
+            for (int table = 0; table < TYPES + 1; table++) {
+                LongHashSet groupIds = ids[table];
+                int count = groupIds.size();
+                for (long id : input.ids[table]) {
+                    if (!groupIds.contains(id) && ++count > MAX_IDS_PER_TABLE) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void add(Input input) {
+            inputs.add(input);
+            for (int table = 0; table < TYPES + 1; table++) {
+                ids[table].addAll(input.ids[table]);
+            }
+        }
+
+        private List<File> getFiles() {
+            List<Input> sorted = new ArrayList<>(inputs);
+            Collections.sort(sorted, (a, b) -> Integer.compare(a.index, b.index));
+            List<File> files = new ArrayList<>(sorted.size());
+            for (Input input : sorted) {
+                files.add(input.file);
+            }
+            return files;
+        }
+    }
+
+    private static class Input {
+        private final int index;
+        private final File file;
+        private final long[][] ids = new long[TYPES + 1][];
+
+        private Input(int index, File file, LibraryArtifactCache artifactCache) throws IOException {
+            this.index = index;
+            this.file = file;
+
+            long[][] cachedIds = artifactCache == null ? null : artifactCache.getDexIds(file);
+            if (cachedIds != null && cachedIds.length == ids.length) {
+                System.arraycopy(cachedIds, 0, ids, 0, ids.length);
+                return;
+            }
+
+            Dex dex = Dex.map(file);
+            List<String> strings = dex.strings();
+
+            List<String> typeNames = dex.typeNames();
+            long[] types = new long[typeNames.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = hash(typeNames.get(i));
+            }
+            ids[TYPES] = types;
+
+            List<ProtoId> protoIds = dex.protoIds();
+            long[] protos = new long[protoIds.size()];
+            for (int i = 0; i < protos.length; i++) {
+                ProtoId protoId = protoIds.get(i);
+                long hash = combine(PROTOS, types[protoId.getReturnTypeIndex()]);
+                for (short parameterType : dex.readTypeList(protoId.getParametersOffset()).getTypes()) {
+                    hash = combine(hash, types[parameterType & 0xffff]);
+                }
+                protos[i] = hash;
+            }
+            ids[PROTOS] = protos;
+
+            List<FieldId> fieldIds = dex.fieldIds();
+            long[] fields = new long[fieldIds.size()];
+            for (int i = 0; i < fields.length; i++) {
+                FieldId fieldId = fieldIds.get(i);
+                long hash = combine(FIELDS, types[fieldId.getDeclaringClassIndex()]);
+                hash = combine(hash, hash(strings.get(fieldId.getNameIndex())));
+                fields[i] = combine(hash, types[fieldId.getTypeIndex()]);
+            }
+            ids[FIELDS] = fields;
+
+            List<MethodId> methodIds = dex.methodIds();
+            long[] methods = new long[methodIds.size()];
+            for (int i = 0; i < methods.length; i++) {
+                MethodId methodId = methodIds.get(i);
+                long hash = combine(METHODS, types[methodId.getDeclaringClassIndex()]);
+                hash = combine(hash, hash(strings.get(methodId.getNameIndex())));
+                methods[i] = combine(hash, protos[methodId.getProtoIndex()]);
+            }
+            ids[METHODS] = methods;
+
+            if (artifactCache != null) {
+                artifactCache.putDexIds(file, dex.getTableOfContents().checksum, ids);
+            }
+        }
+
+        private int getLargestTableSize() {
+            int largest = 0;
+            for (long[] table : ids) {
+                largest = Math.max(largest, table.length);
+            }
+            return largest;
+        }
+    }
+
+    /**
+     * Minimal open-addressing hash set of <code>long</code>s, to avoid boxing hundreds of thousands of IDs.
+     */
+    private static class LongHashSet {
+        private long[] slots = new long[1024];
+        private boolean containsZero;
+        private int size;
+
+        private int size() {
+            return size;
+        }
+
+        private boolean contains(long value) {
+            if (value == 0) return containsZero;
+            int mask = slots.length - 1;
+            for (int i = index(value, mask); ; i = (i + 1) & mask) {
+                long slot = slots[i];
+                if (slot == 0) return false;
+                if (slot == value) return true;
+            }
+        }
+
+        private void addAll(long[] values) {
+            for (long value : values) {
+                add(value);
+            }
+        }
+
+        private void add(long value) {
+            if (value == 0) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+                return;
+            }
+            if (insert(slots, value)) {
+                size++;
+                if (size * 2 > slots.length) {
+                    long[] grown = new long[slots.length * 2];
+                    for (long slot : slots) {
+                        if (slot != 0) insert(grown, slot);
+                    }
+                    slots = grown;
+                }
+            }
+        }
+
+        private static boolean insert(long[] slots, long value) {
+            int mask = slots.length - 1;
+            for (int i = index(value, mask); ; i = (i + 1) & mask) {
+                long slot = slots[i];
+                if (slot == 0) {
+                    slots[i] = value;
+                    return true;
+                }
+                if (slot == value) return false;
+            }
+        }
+
+        private static int index(long value, int mask) {
+            return (int) (value ^ (value >>> 32)) & mask;
+        }
+    }
+}
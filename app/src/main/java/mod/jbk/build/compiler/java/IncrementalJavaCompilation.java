@@ -0,0 +1,375 @@
+package mod.jbk.build.compiler.java;
+
+import com.google.gson.Gson;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import a.a.a.yq;
+import mod.jbk.build.IncrementalBuildCache;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Figures out which Java source files need to be compiled again, based on which classes each source
+ * file produced and which classes those reference, as recorded after the previous compilation.
+ * <p>
+ * A changed source file gets recompiled together with all source files depending on it, directly
+ * or indirectly. All sources get recompiled if the compiler options changed, or if a changed source
+ * declares compile-time constants, as those get inlined and don't show up as references.
+ */
+public class IncrementalJavaCompilation {
+    private static final String TAG = "IncrementalJavaCompilation";
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern DESCRIPTOR_CLASS_PATTERN = Pattern.compile("L([\\w/$]+)[;<]");
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+
+    private final File stateFile;
+    private final File classesDirectory;
+    private final String optionsKey;
+    private final Map<String, String> currentHashes = new HashMap<>();
+    private State previousState;
+
+    /**
+     * @param optionsKey    Fingerprint of the compiler's options and classpath (except the output directory)
+     * @param sourceFolders All folders with Java source files to compile
+     */
+    public IncrementalJavaCompilation(yq workspace, String optionsKey, List<File> sourceFolders) {
+        stateFile = getStateFile(workspace);
+        classesDirectory = new File(workspace.compiledClassesPath);
+        this.optionsKey = optionsKey;
+
+        for (File sourceFolder : sourceFolders) {
+            for (File source : FileUtil.listFilesRecursively(sourceFolder, ".java")) {
+                currentHashes.put(source.getAbsolutePath(), new IncrementalBuildCache.Fingerprint().putContents(source).build());
+            }
+        }
+
+        if (stateFile.exists()) {
+            try {
+                previousState = new Gson().fromJson(FileUtil.readFile(stateFile.getAbsolutePath()), State.class);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to read state of previous Java compilation, compiling all files", e);
+            }
+        }
+    }
+
+    /**
+     * Forgets about the previous compilation, e.g. if its output got deleted.
+     */
+    public static void invalidate(yq workspace) {
+        FileUtil.deleteFile(getStateFile(workspace).getAbsolutePath());
+    }
+
+    private static File getStateFile(yq workspace) {
+        return new File(workspace.binDirectoryPath, "java_compilation.json");
+    }
+
+    /**
+     * Determines the source files to compile, and deletes class files of those and of
+     * source files which don't exist anymore.
+     *
+     * @return Source files to compile, or <code>null</code> if all of them must be compiled
+     * and the classes directory was cleared.
+     */
+    public List<File> prepare() {
+        Set<String> dirtySources = getDirtySources();
+        if (dirtySources == null) {
+            FileUtil.deleteFile(classesDirectory.getAbsolutePath());
+            FileUtil.makeDir(classesDirectory.getAbsolutePath());
+            FileUtil.deleteFile(stateFile.getAbsolutePath());
+            return null;
+        }
+
+        List<File> sourcesToCompile = new ArrayList<>();
+        for (String source : dirtySources) {
+            SourceState sourceState = previousState.sources.remove(source);
+            if (sourceState != null) {
+                for (String className : sourceState.classes) {
+                    File classFile = new File(classesDirectory, className + ".class");
+                    if (classFile.exists() && !classFile.delete()) {
+                        LogUtil.w(TAG, "Failed to delete " + classFile.getAbsolutePath());
+                    }
+                }
+            }
+            if (currentHashes.containsKey(source)) {
+                sourcesToCompile.add(new File(source));
+            }
+        }
+        // if compiling fails, the dirty sources must be compiled again next time
+        save(previousState);
+
+        LogUtil.d(TAG, "Compiling " + sourcesToCompile.size() + " of " + currentHashes.size() + " Java files: " + sourcesToCompile);
+        return sourcesToCompile;
+    }
+
+    /**
+     * @return Absolute paths of changed, new or removed source files and all source files depending on them,
+     * or <code>null</code> if everything needs to be recompiled.
+     */
+    private Set<String> getDirtySources() {
+        if (previousState == null || !optionsKey.equals(previousState.optionsKey) || !classesDirectory.exists()) {
+            return null;
+        }
+
+        Set<String> dirtySources = new HashSet<>();
+        for (Map.Entry<String, String> source : currentHashes.entrySet()) {
+            SourceState sourceState = previousState.sources.get(source.getKey());
+            if (sourceState == null || !sourceState.hash.equals(source.getValue())) {
+                dirtySources.add(source.getKey());
+            }
+        }
+        for (String source : previousState.sources.keySet()) {
+            if (!currentHashes.containsKey(source)) {
+                dirtySources.add(source);
+            }
+        }
+
+        Deque<String> dirtyClasses = new ArrayDeque<>();
+        for (Map.Entry<String, SourceState> source : previousState.sources.entrySet()) {
+            if (dirtySources.contains(source.getKey())) {
+                if (source.getValue().hasConstants) {
+                    LogUtil.d(TAG, "Constants of " + source.getKey() + " might have changed, compiling all files");
+                    return null;
+                }
+                dirtyClasses.addAll(source.getValue().classes);
+            }
+        }
+
+        // sources referencing a class that's been recompiled need to get recompiled too
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, SourceState> source : previousState.sources.entrySet()) {
+            for (String reference : source.getValue().references) {
+                dependents.computeIfAbsent(reference, k -> new ArrayList<>()).add(source.getKey());
+            }
+        }
+        Set<String> visitedClasses = new HashSet<>();
+        while (!dirtyClasses.isEmpty()) {
+            String className = dirtyClasses.pop();
+            if (!visitedClasses.add(className)) continue;
+
+            List<String> dependentSources = dependents.get(className);
+            if (dependentSources == null) continue;
+
+            for (String dependentSource : dependentSources) {
+                if (dirtySources.add(dependentSource)) {
+                    SourceState sourceState = previousState.sources.get(dependentSource);
+                    dirtyClasses.addAll(sourceState.classes);
+                }
+            }
+        }
+        return dirtySources;
+    }
+
+    /**
+     * Records which classes each source file produced and what they reference, for the next build.
+     * Must be called after compiling finished successfully.
+     */
+    public void onCompiled() {
+        Map<String, String> sourcesByKey = new HashMap<>();
+        for (String source : currentHashes.keySet()) {
+            if (sourcesByKey.put(getSourceKey(new File(source)), source) != null) {
+                LogUtil.w(TAG, "Couldn't determine classes of " + source + ", next build will compile all files");
+                return;
+            }
+        }
+
+        State state = new State();
+        state.optionsKey = optionsKey;
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            ClassInfo classInfo;
+            try {
+                classInfo = ClassInfo.read(classFile);
+            } catch (IOException e) {
+                LogUtil.e(TAG, "Failed to read " + classFile.getAbsolutePath() + ", next build will compile all files", e);
+                return;
+            }
+            if (classInfo.sourceFile == null) continue;
+
+            int lastSlash = classInfo.name.lastIndexOf('/');
+            String sourceKey = (lastSlash == -1 ? "" : classInfo.name.substring(0, lastSlash + 1)) + classInfo.sourceFile;
+            String source = sourcesByKey.get(sourceKey);
+            // e.g. classes of Kotlin files
+            if (source == null) continue;
+
+            SourceState sourceState = state.sources.get(source);
+            if (sourceState == null) {
+                sourceState = new SourceState();
+                sourceState.hash = currentHashes.get(source);
+                state.sources.put(source, sourceState);
+            }
+            sourceState.classes.add(classInfo.name);
+            sourceState.hasConstants |= classInfo.hasConstants;
+            for (String reference : classInfo.references) {
+                if (!reference.equals(classInfo.name) && !sourceState.references.contains(reference)) {
+                    sourceState.references.add(reference);
+                }
+            }
+        }
+        // sources without any classes, e.g. package-info.java
+        for (Map.Entry<String, String> source : currentHashes.entrySet()) {
+            if (!state.sources.containsKey(source.getKey())) {
+                SourceState sourceState = new SourceState();
+                sourceState.hash = source.getValue();
+                state.sources.put(source.getKey(), sourceState);
+            }
+        }
+        save(state);
+    }
+
+    private void save(State state) {
+        FileUtil.writeFile(stateFile.getAbsolutePath(), new Gson().toJson(state));
+    }
+
+    /**
+     * @return The source file's path relative to its package root, e.g. <code>com/my/project/MainActivity.java</code>,
+     * as it'd appear in class files' <code>SourceFile</code> attribute prefixed by their package.
+     */
+    private static String getSourceKey(File source) {
+        String content = FileUtil.readFile(source.getAbsolutePath());
+        Matcher matcher = PACKAGE_PATTERN.matcher(content);
+        if (matcher.find()) {
+            return matcher.group(1).replace('.', '/') + "/" + source.getName();
+        }
+        return source.getName();
+    }
+
+    private static class State {
+        private String optionsKey;
+        private HashMap<String, SourceState> sources = new HashMap<>();
+    }
+
+    private static class SourceState {
+        private String hash;
+        private ArrayList<String> classes = new ArrayList<>();
+        private ArrayList<String> references = new ArrayList<>();
+        private boolean hasConstants;
+    }
+
+    /**
+     * The parts of a class file needed to track dependencies between classes.
+     */
+    private static class ClassInfo {
+        private final Set<String> references = new HashSet<>();
+        private String name;
+        private String sourceFile;
+        private boolean hasConstants;
+
+        private static ClassInfo read(File classFile) throws IOException {
+            try (InputStream inputStream = new FileInputStream(classFile);
+                 DataInputStream input = new DataInputStream(inputStream)) {
+                ClassInfo classInfo = new ClassInfo();
+                if (input.readInt() != 0xCAFEBABE) {
+                    throw new IOException("Not a class file");
+                }
+                // minor and major version
+                input.skipBytes(4);
+
+                int constantPoolCount = input.readUnsignedShort();
+                String[] utf8Entries = new String[constantPoolCount];
+                int[] classEntries = new int[constantPoolCount];
+                for (int i = 1; i < constantPoolCount; i++) {
+                    int tag = input.readUnsignedByte();
+                    switch (tag) {
+                        case 1 -> utf8Entries[i] = input.readUTF();
+                        case 7 -> classEntries[i] = input.readUnsignedShort();
+                        case 8, 16, 19, 20 -> input.skipBytes(2);
+                        case 15 -> input.skipBytes(3);
+                        case 3, 4, 9, 10, 11, 12, 17, 18 -> input.skipBytes(4);
+                        case 5, 6 -> {
+                            input.skipBytes(8);
+                            // longs and doubles take up two entries
+                            i++;
+                        }
+                        default -> throw new IOException("Unknown constant pool tag " + tag);
+                    }
+                }
+
+                for (int classEntry : classEntries) {
+                    if (classEntry != 0) {
+                        String className = utf8Entries[classEntry];
+                        if (className.startsWith("[")) {
+                            classInfo.addDescriptorReferences(className);
+                        } else {
+                            classInfo.references.add(className);
+                        }
+                    }
+                }
+                // types in field and method descriptors and generic signatures
+                for (String utf8Entry : utf8Entries) {
+                    if (utf8Entry != null && utf8Entry.indexOf(';') != -1) {
+                        classInfo.addDescriptorReferences(utf8Entry);
+                    }
+                }
+
+                // access flags
+                input.skipBytes(2);
+                classInfo.name = utf8Entries[classEntries[input.readUnsignedShort()]];
+                // super class
+                input.skipBytes(2);
+                int interfacesCount = input.readUnsignedShort();
+                input.skipBytes(interfacesCount * 2);
+
+                int fieldsCount = input.readUnsignedShort();
+                for (int i = 0; i < fieldsCount; i++) {
+                    int accessFlags = input.readUnsignedShort();
+                    // other classes can only inline non-private static constants
+                    boolean isInlinable = (accessFlags & ACC_STATIC) != 0 && (accessFlags & ACC_PRIVATE) == 0;
+                    // name and descriptor
+                    input.skipBytes(4);
+                    int attributesCount = input.readUnsignedShort();
+                    for (int j = 0; j < attributesCount; j++) {
+                        if ("ConstantValue".equals(utf8Entries[input.readUnsignedShort()]) && isInlinable) {
+                            classInfo.hasConstants = true;
+                        }
+                        input.skipBytes(input.readInt());
+                    }
+                }
+
+                int methodsCount = input.readUnsignedShort();
+                for (int i = 0; i < methodsCount; i++) {
+                    input.skipBytes(6);
+                    int attributesCount = input.readUnsignedShort();
+                    for (int j = 0; j < attributesCount; j++) {
+                        input.skipBytes(2);
+                        input.skipBytes(input.readInt());
+                    }
+                }
+
+                int attributesCount = input.readUnsignedShort();
+                for (int i = 0; i < attributesCount; i++) {
+                    String attributeName = utf8Entries[input.readUnsignedShort()];
+                    int length = input.readInt();
+                    if ("SourceFile".equals(attributeName)) {
+                        classInfo.sourceFile = utf8Entries[input.readUnsignedShort()];
+                        input.skipBytes(length - 2);
+                    } else {
+                        input.skipBytes(length);
+                    }
+                }
+                return classInfo;
+            }
+        }
+
+        private void addDescriptorReferences(String descriptor) {
+            Matcher matcher = DESCRIPTOR_CLASS_PATTERN.matcher(descriptor);
+            while (matcher.find()) {
+                references.add(matcher.group(1));
+            }
+        }
+    }
+}
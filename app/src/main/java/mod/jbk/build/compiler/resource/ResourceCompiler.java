@@ -4,10 +4,20 @@ import static com.besome.sketch.Config.VAR_DEFAULT_TARGET_SDK_VERSION;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import a.a.a.Jp;
 import a.a.a.ProjectBuilder;
@@ -17,6 +27,7 @@ import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
 import mod.jbk.build.BuildProgressReceiver;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.IncrementalBuildCache;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.SketchApplication;
@@ -58,6 +69,11 @@ public class ResourceCompiler {
             void onProgressUpdate(String newProgress, int step) {
                 if (progressReceiver != null) progressReceiver.onProgress(newProgress, step);
             }
+
+            @Override
+            boolean isCanceled() {
+                return progressReceiver != null && progressReceiver.isCanceled();
+            }
         });
         resourceCompiler.compile();
     }
@@ -89,6 +105,13 @@ public class ResourceCompiler {
              * @param newProgress A String provided by the resource compiler the user should see.
              */
             abstract void onProgressUpdate(String newProgress, int step);
+
+            /**
+             * @return If the build got canceled and compiling should stop as soon as possible.
+             */
+            boolean isCanceled() {
+                return false;
+            }
         }
     }
 
@@ -102,6 +125,9 @@ public class ResourceCompiler {
         private final File aapt2;
         private final ProjectBuilder buildHelper;
         private final File compiledBuiltInLibraryResourcesDirectory;
+        private final File compiledLocalLibraryResourcesDirectory;
+        /* Compiled local library resources in the cache, and where they're needed for linking */
+        private final List<File[]> cachedLocalLibraryResources = new ArrayList<>();
         private ProgressListener progressListener;
 
         public Aapt2Compiler(ProjectBuilder buildHelper, File aapt2, boolean buildAppBundle) {
@@ -109,6 +135,7 @@ public class ResourceCompiler {
             this.aapt2 = aapt2;
             this.buildAppBundle = buildAppBundle;
             compiledBuiltInLibraryResourcesDirectory = new File(SketchApplication.getContext().getCacheDir(), "compiledLibs");
+            compiledLocalLibraryResourcesDirectory = new File(SketchApplication.getContext().getCacheDir(), "compiledLocalLibs");
         }
 
         @Override
@@ -120,17 +147,20 @@ public class ResourceCompiler {
             if (progressListener != null) {
                 progressListener.onProgressUpdate("Compiling resources with AAPT2...", 9);
             }
-            compileBuiltInLibraryResources();
-            LogUtil.d(TAG + ":c", "Compiling built-in library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
-            compileLocalLibraryResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling local library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
-            compileProjectResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling project generated resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
-            compileImportedResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling project imported resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            /* Every step writes to its own archive, so they can run at the same time */
+            List<CompileStep> steps = new ArrayList<>();
+            compileBuiltInLibraryResources(steps);
+            compileLocalLibraryResources(steps, outputPath);
+            compileProjectResources(steps, outputPath);
+            compileImportedResources(steps, outputPath);
+            runCompileSteps(steps);
+            if (!isCanceled()) {
+                copyCachedLocalLibraryResources();
+            }
+            LogUtil.d(TAG + ":c", "Compiling resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            if (isCanceled()) {
+                return;
+            }
 
             savedTimeMillis = System.currentTimeMillis();
             link();
@@ -278,23 +308,11 @@ public class ResourceCompiler {
             }
         }
 
-        private void compileProjectResources(String outputPath) throws zy, MissingFileException {
+        private void compileProjectResources(List<CompileStep> steps, String outputPath) throws MissingFileException {
             compilingAssertDirectoryExists(buildHelper.yq.resDirectoryPath);
 
-            ArrayList<String> commands = new ArrayList<>();
-            commands.add(aapt2.getAbsolutePath());
-            commands.add("compile");
-            commands.add("--dir");
-            commands.add(buildHelper.yq.resDirectoryPath);
-            commands.add("-o");
-            commands.add(outputPath + File.separator + "project.zip");
-            LogUtil.d(TAG + ":cPR", "Now executing: " + commands);
-            BinaryExecutor executor = new BinaryExecutor();
-            executor.setCommands(commands);
-            if (!executor.execute().isEmpty()) {
-                LogUtil.e(TAG, executor.getLog());
-                throw new zy(executor.getLog());
-            }
+            steps.add(new CompileStep(TAG + ":cPR", "project generated resources",
+                    buildHelper.yq.resDirectoryPath, new File(outputPath, "project.zip")));
         }
 
         private void emptyOrCreateDirectory(String path) {
@@ -304,7 +322,7 @@ public class ResourceCompiler {
             FileUtil.makeDir(path);
         }
 
-        private void compileLocalLibraryResources(String outputPath) throws zy, MissingFileException {
+        private void compileLocalLibraryResources(List<CompileStep> steps, String outputPath) throws MissingFileException {
             int localLibrariesCount = buildHelper.mll.getResLocalLibrary().size();
             LogUtil.d(TAG + ":cLLR", "About to compile " + localLibrariesCount
                     + " local " + (localLibrariesCount == 1 ? "library" : "libraries"));
@@ -313,26 +331,55 @@ public class ResourceCompiler {
                 if (localLibraryDirectory != null) {
                     compilingAssertDirectoryExists(localLibraryResDirectory);
 
-                    ArrayList<String> commands = new ArrayList<>();
-                    commands.add(aapt2.getAbsolutePath());
-                    commands.add("compile");
-                    commands.add("--dir");
-                    commands.add(localLibraryResDirectory);
-                    commands.add("-o");
-                    commands.add(outputPath + File.separator + localLibraryDirectory.getName() + ".zip");
-
-                    LogUtil.d(TAG + ":cLLR", "Now executing: " + commands);
-                    BinaryExecutor executor = new BinaryExecutor();
-                    executor.setCommands(commands);
-                    if (!executor.execute().isEmpty()) {
-                        LogUtil.e(TAG, executor.getLog());
-                        throw new zy(executor.getLog());
+                    String libraryName = localLibraryDirectory.getName();
+                    String key = new IncrementalBuildCache.Fingerprint()
+                            .putStamp(aapt2)
+                            .putContents(new File(localLibraryResDirectory))
+                            .build();
+                    File cachedCompiledResources = new File(compiledLocalLibraryResourcesDirectory, libraryName + "_" + key + ".zip");
+                    cachedLocalLibraryResources.add(new File[]{cachedCompiledResources, new File(outputPath, libraryName + ".zip")});
+
+                    if (cachedCompiledResources.exists()) {
+                        LogUtil.d(TAG + ":cLLR", "Skipped resource recompilation for local library " + libraryName);
+                    } else {
+                        deleteOutdatedLocalLibraryResources(libraryName);
+                        steps.add(new CompileStep(TAG + ":cLLR", "local library " + libraryName,
+                                localLibraryResDirectory, cachedCompiledResources));
                     }
                 }
             }
         }
 
-        private void compileBuiltInLibraryResources() throws zy, MissingFileException {
+        /**
+         * Deletes compiled resources of a local library's previous versions from the cache.
+         */
+        private void deleteOutdatedLocalLibraryResources(String libraryName) {
+            compiledLocalLibraryResourcesDirectory.mkdirs();
+            File[] cachedFiles = compiledLocalLibraryResourcesDirectory.listFiles();
+            if (cachedFiles == null) return;
+
+            for (File cachedFile : cachedFiles) {
+                String name = cachedFile.getName();
+                // the key is a hex string, so there's no other '_' after the library's name
+                if (name.startsWith(libraryName + "_") && name.lastIndexOf('_') == libraryName.length()) {
+                    LogUtil.d(TAG + ":dOLLR", "Deleting outdated compiled resources " + cachedFile.getAbsolutePath());
+                    FileUtil.deleteFile(cachedFile.getAbsolutePath());
+                }
+            }
+        }
+
+        private void copyCachedLocalLibraryResources() throws zy {
+            for (File[] cachedAndOutput : cachedLocalLibraryResources) {
+                try {
+                    Files.copy(cachedAndOutput[0].toPath(), cachedAndOutput[1].toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    LogUtil.e(TAG + ":cCLLR", "Failed to copy " + cachedAndOutput[0].getAbsolutePath(), e);
+                    throw new zy("Couldn't copy compiled resources of local library: " + e.getMessage());
+                }
+            }
+        }
+
+        private void compileBuiltInLibraryResources(List<CompileStep> steps) throws MissingFileException {
             compiledBuiltInLibraryResourcesDirectory.mkdirs();
             for (Jp builtInLibrary : buildHelper.builtInLibraryManager.getLibraries()) {
                 if (builtInLibrary.hasResources()) {
@@ -342,21 +389,8 @@ public class ResourceCompiler {
                     compilingAssertDirectoryExists(libraryResources);
 
                     if (isBuiltInLibraryRecompilingNeeded(cachedCompiledResources)) {
-                        ArrayList<String> commands = new ArrayList<>();
-                        commands.add(aapt2.getAbsolutePath());
-                        commands.add("compile");
-                        commands.add("--dir");
-                        commands.add(libraryResources);
-                        commands.add("-o");
-                        commands.add(cachedCompiledResources.getAbsolutePath());
-
-                        LogUtil.d(TAG + ":cBILR", "Now executing: " + commands);
-                        BinaryExecutor executor = new BinaryExecutor();
-                        executor.setCommands(commands);
-                        if (!executor.execute().isEmpty()) {
-                            LogUtil.e(TAG + ":cBILR", executor.getLog());
-                            throw new zy(executor.getLog());
-                        }
+                        steps.add(new CompileStep(TAG + ":cBILR", "built-in library " + builtInLibrary.getName(),
+                                libraryResources, cachedCompiledResources));
                     } else {
                         LogUtil.d(TAG + ":cBILR", "Skipped resource recompilation for built-in library " + builtInLibrary.getName());
                     }
@@ -380,24 +414,74 @@ public class ResourceCompiler {
             return true;
         }
 
-        private void compileImportedResources(String outputPath) throws zy {
+        private void compileImportedResources(List<CompileStep> steps, String outputPath) {
             if (FileUtil.isExistFile(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id))
                     && new File(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id)).length() != 0) {
-                ArrayList<String> commands = new ArrayList<>();
-                commands.add(aapt2.getAbsolutePath());
-                commands.add("compile");
-                commands.add("--dir");
-                commands.add(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id));
-                commands.add("-o");
-                commands.add(outputPath + File.separator + "project-imported.zip");
-                LogUtil.d(TAG + ":cIR", "Now executing: " + commands);
-                BinaryExecutor executor = new BinaryExecutor();
-                executor.setCommands(commands);
-                if (!executor.execute().isEmpty()) {
-                    LogUtil.e(TAG, executor.getLog());
-                    throw new zy(executor.getLog());
+                steps.add(new CompileStep(TAG + ":cIR", "project imported resources",
+                        buildHelper.fpu.getPathResource(buildHelper.yq.sc_id), new File(outputPath, "project-imported.zip")));
+            }
+        }
+
+        /**
+         * Runs compile steps on a thread pool sized to the number of available cores. If a step
+         * fails or the build gets canceled, the other steps' processes get killed and their
+         * possibly incomplete outputs deleted.
+         */
+        private void runCompileSteps(List<CompileStep> steps) throws zy {
+            if (steps.isEmpty()) return;
+
+            int threads = Math.min(steps.size(), Runtime.getRuntime().availableProcessors());
+            LogUtil.d(TAG + ":rCS", "Running " + steps.size() + " AAPT2 compile steps on " + threads + " threads");
+            ExecutorService executorService = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (CompileStep step : steps) {
+                    futures.add(executorService.submit(() -> {
+                        step.run();
+                        return null;
+                    }));
                 }
+
+                for (Future<?> future : futures) {
+                    while (true) {
+                        try {
+                            future.get(100, TimeUnit.MILLISECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            if (isCanceled()) {
+                                LogUtil.d(TAG + ":rCS", "Build canceled, stopping AAPT2 compile steps");
+                                cancelCompileSteps(steps, futures);
+                                return;
+                            }
+                        } catch (ExecutionException e) {
+                            cancelCompileSteps(steps, futures);
+                            if (e.getCause() instanceof zy zy) {
+                                throw zy;
+                            }
+                            throw new zy(Log.getStackTraceString(e.getCause()));
+                        } catch (InterruptedException e) {
+                            cancelCompileSteps(steps, futures);
+                            Thread.currentThread().interrupt();
+                            throw new zy("Interrupted while compiling resources");
+                        }
+                    }
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+
+        private void cancelCompileSteps(List<CompileStep> steps, List<Future<?>> futures) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
             }
+            for (CompileStep step : steps) {
+                step.cancel();
+            }
+        }
+
+        private boolean isCanceled() {
+            return progressListener != null && progressListener.isCanceled();
         }
 
         private void compilingAssertDirectoryExists(String directoryPath) throws MissingFileException {
@@ -425,5 +509,50 @@ public class ResourceCompiler {
         public void setProgressListener(ProgressListener listener) {
             progressListener = listener;
         }
+
+        /**
+         * A single <code>aapt2 compile</code> invocation, compiling a resource directory to an archive.
+         */
+        private class CompileStep {
+            private final String logTag;
+            private final String name;
+            private final File output;
+            private final ArrayList<String> commands = new ArrayList<>();
+            private final BinaryExecutor executor = new BinaryExecutor();
+            private volatile boolean finished;
+
+            private CompileStep(String logTag, String name, String resourcesDirectory, File output) {
+                this.logTag = logTag;
+                this.name = name;
+                this.output = output;
+                commands.add(aapt2.getAbsolutePath());
+                commands.add("compile");
+                commands.add("--dir");
+                commands.add(resourcesDirectory);
+                commands.add("-o");
+                commands.add(output.getAbsolutePath());
+                executor.setCommands(commands);
+            }
+
+            private void run() throws zy {
+                long savedTimeMillis = System.currentTimeMillis();
+                LogUtil.d(logTag, "Now executing: " + commands);
+                if (!executor.execute().isEmpty() && !executor.isCanceled()) {
+                    LogUtil.e(logTag, executor.getLog());
+                    throw new zy(executor.getLog());
+                }
+                if (!executor.isCanceled()) {
+                    finished = true;
+                    LogUtil.d(logTag, "Compiling " + name + " took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+                }
+            }
+
+            private void cancel() {
+                executor.cancel();
+                if (!finished && output.exists() && !output.delete()) {
+                    LogUtil.w(logTag, "Failed to delete incomplete output " + output.getAbsolutePath());
+                }
+            }
+        }
     }
 }
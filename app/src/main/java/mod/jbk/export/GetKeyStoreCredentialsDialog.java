@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.DialogInterface;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.widget.ArrayAdapter;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -23,6 +24,7 @@ public class GetKeyStoreCredentialsDialog {
     private final DialogKeystoreCredentialsBinding binding;
     private CredentialsReceiver receiver;
     private SigningMode mode;
+    private boolean askForSigningAlgorithm = true;
 
     public GetKeyStoreCredentialsDialog(Activity activity, int iconResourceId, String title, String noticeText) {
         dialog = new MaterialAlertDialogBuilder(activity);
@@ -56,6 +58,20 @@ public class GetKeyStoreCredentialsDialog {
         return labels.toArray(new String[0]);
     }
 
+    /**
+     * Hides the signing algorithm input, for results whose signature algorithms can't be chosen,
+     * like APKs, which get signed with algorithms depending on their minimum SDK version.
+     * {@link Credentials#getSigningAlgorithm()} is <code>null</code> then.
+     */
+    public void disableSigningAlgorithmInput() {
+        askForSigningAlgorithm = false;
+        binding.tilSigningAlgorithm.setVisibility(View.GONE);
+    }
+
+    private String getSigningAlgorithm() {
+        return askForSigningAlgorithm ? Helper.getText(binding.etSigningAlgorithm) : null;
+    }
+
     private void updateInputFieldsState() {
         boolean signingWithKeyStore = mode == SigningMode.OWN_KEY_STORE;
         binding.tilAlias.setEnabled(signingWithKeyStore);
@@ -69,7 +85,7 @@ public class GetKeyStoreCredentialsDialog {
                 if (validateInputs()) {
                     dialogInterface.dismiss();
                     receiver.gotCredentials(new Credentials(
-                            Helper.getText(binding.etSigningAlgorithm),
+                            getSigningAlgorithm(),
                             Helper.getText(binding.etPassword),
                             Helper.getText(binding.etAlias),
                             Helper.getText(binding.etPassword)
@@ -80,7 +96,7 @@ public class GetKeyStoreCredentialsDialog {
             }
         } else if (mode == SigningMode.TESTKEY) {
             dialogInterface.dismiss();
-            receiver.gotCredentials(new Credentials(Helper.getText(binding.etSigningAlgorithm)));
+            receiver.gotCredentials(new Credentials(getSigningAlgorithm()));
         } else if (mode == SigningMode.DONT_SIGN) {
             dialogInterface.dismiss();
             receiver.gotCredentials(null);
@@ -104,7 +120,7 @@ public class GetKeyStoreCredentialsDialog {
             binding.tilPassword.setError(null);
         }
 
-        if (TextUtils.isEmpty(binding.etSigningAlgorithm.getText())) {
+        if (askForSigningAlgorithm && TextUtils.isEmpty(binding.etSigningAlgorithm.getText())) {
             binding.tilSigningAlgorithm.setError("Algorithm can't be empty");
             isValid = false;
         } else {
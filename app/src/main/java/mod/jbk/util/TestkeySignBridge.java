@@ -1,9 +1,22 @@
 package mod.jbk.util;
 
+import com.android.apksig.ApkSignerEngine;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
 
 import mod.alucard.tn.apksigner.ApkSigner;
+import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.StreamingApkWriter;
 
 public class TestkeySignBridge {
     private TestkeySignBridge() {
@@ -13,4 +26,21 @@ public class TestkeySignBridge {
         ApkSigner signer = new ApkSigner();
         signer.signWithTestKey(inputPath, outputPath, null);
     }
+
+    /**
+     * Creates an engine to sign APKs with testkey while writing them, see {@link StreamingApkWriter}.
+     */
+    public static ApkSignerEngine createTestkeySignerEngine(int minSdkVersion) throws GeneralSecurityException, IOException {
+        File testkeyDirectory = new File(BuiltInLibraries.EXTRACTED_COMPILE_ASSETS_PATH, "testkey");
+
+        byte[] encodedKey = Files.readAllBytes(new File(testkeyDirectory, "testkey.pk8").toPath());
+        PrivateKey privateKey = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+
+        X509Certificate certificate;
+        try (InputStream input = new FileInputStream(new File(testkeyDirectory, "testkey.x509.pem"))) {
+            certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(input);
+        }
+
+        return StreamingApkWriter.createSignerEngine(privateKey, certificate, minSdkVersion);
+    }
 }
@@ -49,6 +49,9 @@ public class ColorsEditorManager {
     public HashMap<Integer, String> notesMap = new HashMap<>();
     private final ArrayList<ColorModel> resColorsList = new ArrayList<>();
     private final ArrayList<ColorModel> resColorsNightList = new ArrayList<>();
+    // the lists above indexed by color name, for resolving @color/ references
+    private final HashMap<String, String> resColors = new HashMap<>();
+    private final HashMap<String, String> resColorsNight = new HashMap<>();
 
     private final Material3LibraryManager material3LibraryManager;
 
@@ -130,25 +133,12 @@ public class ColorsEditorManager {
     }
 
     private String getColorValueFromXml(Context context, String colorName, int referencingLimit, boolean isNightVariant) {
-        if (isNightVariant) {
-            for (ColorModel colorModel : resColorsNightList) {
-                if (colorModel.getColorName().equals(colorName)) {
-                    return getColorValue(context, colorModel.getColorValue(), referencingLimit);
-                }
-            }
-
-            for (ColorModel colorModel : resColorsList) {
-                if (colorModel.getColorName().equals(colorName)) {
-                    return getColorValue(context, colorModel.getColorValue(), referencingLimit);
-                }
-            }
-
-        } else {
-            for (ColorModel colorModel : resColorsList) {
-                if (colorModel.getColorName().equals(colorName)) {
-                    return getColorValue(context, colorModel.getColorValue(), referencingLimit);
-                }
-            }
+        String colorValue = isNightVariant ? resColorsNight.get(colorName) : null;
+        if (colorValue == null) {
+            colorValue = resColors.get(colorName);
+        }
+        if (colorValue != null) {
+            return getColorValue(context, colorValue, referencingLimit);
         }
 
         return defaultHexColor;
@@ -161,8 +151,13 @@ public class ColorsEditorManager {
         ArrayList<ColorModel> otherColors = new ArrayList<>();
         boolean hasChanges = false; // Flag to track changes
 
+        // colors may reference ones defined before them in the same file
+        HashMap<String, String> index = colorList == resColorsList ? resColors
+                : colorList == resColorsNightList ? resColorsNight : null;
+
         try {
             colorList.clear();
+            if (index != null) index.clear();
             notesMap.clear();
             // Parse the XML using DocumentBuilder
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -186,6 +181,7 @@ public class ColorsEditorManager {
                     if (PropertiesUtil.isHexColor(getColorValue(SketchApplication.getContext(), colorValue, 4))) {
                         ColorModel colorModel = new ColorModel(colorName, colorValue);
                         colorList.add(colorModel);
+                        if (index != null) index.putIfAbsent(colorName, colorValue);
 
                         if (defaultColors != null && defaultColors.containsKey(colorName)) {
                             foundPrimaryColors.add(colorName);
@@ -0,0 +1,98 @@
+package pro.sketchware.activities.resourceseditor.components.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import a.a.a.lC;
+import a.a.a.wq;
+import a.a.a.yB;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * A project's string resources indexed by their name, for looking up <code>@string/</code>
+ * references, e.g. of TextViews in the layout editor, without reading and parsing strings.xml
+ * each time.
+ * <p>
+ * strings.xml only gets parsed again once its last modification time or size changed.
+ * Indexes are kept per project for as long as the process lives.
+ */
+public class StringResourceIndex {
+    private static final String STRING_REFERENCE_PREFIX = "@string/";
+    private static final HashMap<String, StringResourceIndex> indexes = new HashMap<>();
+
+    private final String sc_id;
+    private final File stringsFile;
+    private final File projectFile;
+    private HashMap<String, String> strings = new HashMap<>();
+    private String defaultAppName;
+    private long defaultAppNameLastModified = -1;
+    private long lastModified = -1;
+    private long length = -1;
+
+    private StringResourceIndex(String sc_id) {
+        this.sc_id = sc_id;
+        stringsFile = new File(wq.b(sc_id) + "/files/resource/values/strings.xml");
+        projectFile = new File(wq.c(sc_id), "project");
+    }
+
+    public static synchronized StringResourceIndex get(String sc_id) {
+        StringResourceIndex index = indexes.get(sc_id);
+        if (index == null) {
+            index = new StringResourceIndex(sc_id);
+            indexes.put(sc_id, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param reference A reference like <code>@string/app_name</code>
+     * @return The string's value, or the reference itself if there's no such string
+     */
+    public synchronized String resolve(String reference) {
+        if (!reference.startsWith(STRING_REFERENCE_PREFIX)) {
+            return reference;
+        }
+        refreshIfChanged();
+
+        String name = reference.substring(STRING_REFERENCE_PREFIX.length());
+        String value = strings.get(name);
+        if (value != null) {
+            return value;
+        }
+        if (name.equals("app_name")) {
+            // the project's name is what gets used if strings.xml doesn't define one,
+            // reading it means decrypting the project file, so only do so once it changed
+            long projectLastModified = projectFile.lastModified();
+            if (defaultAppName == null || projectLastModified != defaultAppNameLastModified) {
+                defaultAppName = yB.c(lC.b(sc_id), "my_app_name");
+                defaultAppNameLastModified = projectLastModified;
+            }
+            return defaultAppName;
+        }
+        return reference;
+    }
+
+    private void refreshIfChanged() {
+        long lastModified = stringsFile.lastModified();
+        long length = stringsFile.length();
+        if (lastModified == this.lastModified && length == this.length) {
+            return;
+        }
+        this.lastModified = lastModified;
+        this.length = length;
+
+        ArrayList<HashMap<String, Object>> stringsListMap = new ArrayList<>();
+        StringsEditorManager stringsEditorManager = new StringsEditorManager();
+        // only read the file, don't add a missing app_name to it
+        stringsEditorManager.isDefaultVariant = false;
+        stringsEditorManager.convertXmlStringsToListMap(FileUtil.readFileIfExist(stringsFile.getAbsolutePath()), stringsListMap);
+
+        HashMap<String, String> strings = new HashMap<>();
+        for (HashMap<String, Object> map : stringsListMap) {
+            // like with duplicate resources, the first definition wins
+            strings.putIfAbsent(map.get("key").toString().trim(), map.get("text").toString());
+        }
+        this.strings = strings;
+    }
+}
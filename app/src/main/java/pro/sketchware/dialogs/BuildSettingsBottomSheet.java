@@ -3,7 +3,10 @@ package pro.sketchware.dialogs;
 import static mod.hey.studios.build.BuildSettings.SETTING_ANDROID_JAR_PATH;
 import static mod.hey.studios.build.BuildSettings.SETTING_CLASSPATH;
 import static mod.hey.studios.build.BuildSettings.SETTING_DEXER;
+import static mod.hey.studios.build.BuildSettings.SETTING_DX_MULTI_THREADED;
+import static mod.hey.studios.build.BuildSettings.SETTING_DX_VERBOSE;
 import static mod.hey.studios.build.BuildSettings.SETTING_ENABLE_LOGCAT;
+import static mod.hey.studios.build.BuildSettings.SETTING_INCREMENTAL_BUILD;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_10;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_11;
@@ -40,6 +43,9 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
     private static final int VIEW_NO_WARNINGS = totalViews++;
     private static final int VIEW_NO_HTTP_LEGACY = totalViews++;
     private static final int VIEW_ENABLE_LOGCAT = totalViews++;
+    private static final int VIEW_INCREMENTAL_BUILD = totalViews++;
+    private static final int VIEW_DX_MULTI_THREADED = totalViews++;
+    private static final int VIEW_DX_VERBOSE = totalViews++;
     private View[] views;
 
     private ProjectConfigLayoutBinding binding;
@@ -87,6 +93,9 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         binding.noWarnings.setOnClickListener(v -> binding.cbNoWarnings.performClick());
         binding.noHttpLegacy.setOnClickListener(v -> binding.cbNoHttpLegacy.performClick());
         binding.enableLogcat.setOnClickListener(v -> binding.cbEnableLogcat.performClick());
+        binding.incrementalBuild.setOnClickListener(v -> binding.cbIncrementalBuild.performClick());
+        binding.dxMultiThreaded.setOnClickListener(v -> binding.cbDxMultiThreaded.performClick());
+        binding.dxVerbose.setOnClickListener(v -> binding.cbDxVerbose.performClick());
 
         binding.tilAndroidJar.getEditText().setText(projectSettings.getValue(SETTING_ANDROID_JAR_PATH, ""));
         binding.tilClasspath.getEditText().setText(projectSettings.getValue(SETTING_CLASSPATH, ""));
@@ -97,6 +106,9 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         setCheckboxValue(binding.cbNoWarnings, SETTING_NO_WARNINGS, true);
         setCheckboxValue(binding.cbNoHttpLegacy, SETTING_NO_HTTP_LEGACY, false);
         setCheckboxValue(binding.cbEnableLogcat, SETTING_ENABLE_LOGCAT, true);
+        setCheckboxValue(binding.cbIncrementalBuild, SETTING_INCREMENTAL_BUILD, false);
+        setCheckboxValue(binding.cbDxMultiThreaded, SETTING_DX_MULTI_THREADED, true);
+        setCheckboxValue(binding.cbDxVerbose, SETTING_DX_VERBOSE, true);
 
         binding.btnCancel.setOnClickListener(v -> dismiss());
         binding.btnSave.setOnClickListener(v -> {
@@ -119,11 +131,17 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         binding.cbNoWarnings.setTag(SETTING_NO_WARNINGS);
         binding.cbNoHttpLegacy.setTag(SETTING_NO_HTTP_LEGACY);
         binding.cbEnableLogcat.setTag(SETTING_ENABLE_LOGCAT);
+        binding.cbIncrementalBuild.setTag(SETTING_INCREMENTAL_BUILD);
+        binding.cbDxMultiThreaded.setTag(SETTING_DX_MULTI_THREADED);
+        binding.cbDxVerbose.setTag(SETTING_DX_VERBOSE);
 
         views[VIEW_ANDROIR_JAR_PATH] = binding.tilAndroidJar.getEditText();
         views[VIEW_CLASS_PATH] = binding.tilClasspath.getEditText();
         views[VIEW_DEXER] = binding.rgDexer;
+        views[VIEW_DX_MULTI_THREADED] = binding.cbDxMultiThreaded;
+        views[VIEW_DX_VERBOSE] = binding.cbDxVerbose;
         views[VIEW_ENABLE_LOGCAT] = binding.cbEnableLogcat;
+        views[VIEW_INCREMENTAL_BUILD] = binding.cbIncrementalBuild;
         views[VIEW_JAVA_VERSION] = binding.rgJavaVersion;
         views[VIEW_NO_HTTP_LEGACY] = binding.cbNoHttpLegacy;
         views[VIEW_NO_WARNINGS] = binding.cbNoWarnings;
@@ -9,6 +9,8 @@ public class BinaryExecutor {
 
     private final ProcessBuilder mProcess = new ProcessBuilder();
     private final StringWriter mWriter = new StringWriter();
+    private volatile Process mRunningProcess;
+    private volatile boolean mCanceled;
 
     public void setCommands(ArrayList<String> arrayList) {
         mProcess.command(arrayList);
@@ -16,7 +18,11 @@ public class BinaryExecutor {
 
     public String execute() {
         try {
-            Scanner scanner = new Scanner(mProcess.start().getErrorStream());
+            mRunningProcess = mProcess.start();
+            if (mCanceled) {
+                mRunningProcess.destroy();
+            }
+            Scanner scanner = new Scanner(mRunningProcess.getErrorStream());
             while (scanner.hasNextLine()) {
                 mWriter.append(scanner.nextLine());
                 mWriter.append(System.lineSeparator());
@@ -27,7 +33,22 @@ public class BinaryExecutor {
         return mWriter.toString();
     }
 
+    /**
+     * Kills the process if it's running, or makes it get killed as soon as it's been started.
+     */
+    public void cancel() {
+        mCanceled = true;
+        Process process = mRunningProcess;
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
     public String getLog() {
         return mWriter.toString();
     }
-}
\ No newline at end of file
+}
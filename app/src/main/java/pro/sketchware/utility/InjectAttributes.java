@@ -0,0 +1,124 @@
+package pro.sketchware.utility;
+
+import android.util.Pair;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mod.jbk.util.LogUtil;
+
+/**
+ * A View's inject property parsed, see {@link com.besome.sketch.beans.ViewBean#getInjectAttributes()}.
+ * Immutable, so that it can be shared by everyone reading the same inject property.
+ */
+public class InjectAttributes {
+    private static final String TOOLS_NAMESPACE = "http://schemas.android.com/tools";
+    private static final XmlPullParserFactory parserFactory;
+
+    static {
+        XmlPullParserFactory factory = null;
+        try {
+            factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+        } catch (XmlPullParserException e) {
+            LogUtil.e("InjectAttributes", "Failed to create XML parser factory", e);
+        }
+        parserFactory = factory;
+    }
+
+    private final String inject;
+    private final Set<Pair<String, String>> attributes;
+    private final Map<String, String> valuesByName;
+    private final Set<String> attributesToReplace;
+
+    private InjectAttributes(String inject, Set<Pair<String, String>> attributes,
+                             Map<String, String> valuesByName, Set<String> attributesToReplace) {
+        this.inject = inject;
+        this.attributes = Collections.unmodifiableSet(attributes);
+        this.valuesByName = Collections.unmodifiableMap(valuesByName);
+        this.attributesToReplace = Collections.unmodifiableSet(attributesToReplace);
+    }
+
+    /**
+     * @param viewId Only used to log parsing errors
+     */
+    public static InjectAttributes parse(String inject, String viewId) {
+        Set<Pair<String, String>> attributes = new HashSet<>();
+        Map<String, String> valuesByName = new HashMap<>();
+        Set<String> attributesToReplace = new HashSet<>();
+
+        if (inject != null && !inject.trim().isEmpty()) {
+            try {
+                XmlPullParser parser;
+                // factories aren't guaranteed to be thread-safe
+                synchronized (parserFactory) {
+                    parser = parserFactory.newPullParser();
+                }
+                parser.setInput(new StringReader("<tag xmlns:android=\"http://schemas.android.com/apk/res/android\" " +
+                        "xmlns:app=\"http://schemas.android.com/apk/res-auto\" " +
+                        "xmlns:tools=\"http://schemas.android.com/tools\"" +
+                        inject + "></tag>"));
+
+                int eventType = parser.getEventType();
+                while (eventType != XmlPullParser.END_DOCUMENT) {
+                    if (eventType == XmlPullParser.START_TAG) {
+                        for (int i = 0; i < parser.getAttributeCount(); i++) {
+                            String name = parser.getAttributeName(i);
+                            String value = parser.getAttributeValue(i);
+                            attributes.add(new Pair<>(name, value));
+                            valuesByName.putIfAbsent(name, value);
+                            if (TOOLS_NAMESPACE.equals(parser.getAttributeNamespace(i)) && "replace".equals(name)) {
+                                attributesToReplace.addAll(Arrays.asList(value.split("\\s*,\\s*")));
+                            }
+                        }
+                    }
+
+                    eventType = parser.next();
+                }
+            } catch (XmlPullParserException | IOException | RuntimeException e) {
+                LogUtil.e("InjectAttributes", "Failed to parse inject property of View " + viewId, e);
+            }
+        }
+
+        return new InjectAttributes(inject, attributes, valuesByName, attributesToReplace);
+    }
+
+    /**
+     * @return Whether these are the attributes of an inject property
+     */
+    public boolean isOf(String inject) {
+        return this.inject == null ? inject == null : this.inject.equals(inject);
+    }
+
+    /**
+     * @return All attributes as pairs of their name without namespace prefix and their value
+     */
+    public Set<Pair<String, String>> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @param name An attribute's name without namespace prefix
+     * @return Its value, or <code>null</code> if it isn't injected
+     */
+    public String getValue(String name) {
+        return valuesByName.get(name);
+    }
+
+    /**
+     * @return Attributes listed in <code>tools:replace</code>, i.e. ones that shouldn't get generated
+     */
+    public Set<String> getAttributesToReplace() {
+        return attributesToReplace;
+    }
+}
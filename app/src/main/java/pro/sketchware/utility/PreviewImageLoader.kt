@@ -0,0 +1,197 @@
+package pro.sketchware.utility
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.util.LruCache
+import android.view.View
+import androidx.core.graphics.drawable.toBitmap
+import coil.ImageLoader
+import coil.decode.SvgDecoder
+import coil.executeBlocking
+import coil.request.CachePolicy
+import coil.request.ImageRequest
+import pro.sketchware.R
+import pro.sketchware.SketchApplication
+import java.io.File
+import java.io.FileOutputStream
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.function.Consumer
+
+/**
+ * Process-wide pipeline for previews of project images, e.g. of ImageViews in the layout editor,
+ * so that opening a layout doesn't decode each of its images again on the main thread.
+ *
+ * Previews are keyed by the image's path, last modification time and target size. They're kept in
+ * an LRU memory cache, and rasterized SVGs, the most expensive ones to decode, additionally in a
+ * size-bounded disk cache. Decoding happens on background threads, and results only get delivered
+ * if the view hasn't requested another image for the same purpose in the meantime.
+ */
+object PreviewImageLoader {
+    private const val TAG = "PreviewImageLoader"
+    private const val SVG_SIZE_DP = 48
+    private const val MAX_DISK_CACHE_SIZE = 32L * 1024 * 1024
+
+    private val memoryCache = object : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 8).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.allocationByteCount
+    }
+    private val executor = Executors.newFixedThreadPool(2)
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val diskCacheDirectory by lazy {
+        File(SketchApplication.getContext().cacheDir, "preview_images").apply { mkdirs() }
+    }
+
+    /**
+     * The app's only [ImageLoader] which supports SVGs. Building one is expensive,
+     * so all SVGs should be loaded with this one.
+     */
+    @JvmStatic
+    val svgImageLoader: ImageLoader by lazy {
+        ImageLoader.Builder(SketchApplication.getContext())
+            .components {
+                add(SvgDecoder.Factory())
+            }
+            .build()
+    }
+
+    /**
+     * Loads an SVG rasterized to a square of 48dp, times [scaleFactor].
+     *
+     * @param onLoaded Called on the main thread with the preview, or `null` if it couldn't be decoded
+     */
+    @JvmStatic
+    fun loadSvgImage(view: View, svgPath: String, scaleFactor: Float, onLoaded: Consumer<Bitmap?>) {
+        val densityScale = Math.round(view.resources.displayMetrics.density * scaleFactor)
+        val size = SVG_SIZE_DP * densityScale
+        load(view, R.id.preview_image_request, svgPath, "svg:$size", onLoaded) { file, key ->
+            readFromDiskCache(key) ?: rasterizeSvg(file, size)?.also { writeToDiskCache(key, it) }
+        }
+    }
+
+    /**
+     * Loads a bitmap image with its width and height multiplied by [scale].
+     *
+     * @param onLoaded Called on the main thread with the preview, or `null` if it couldn't be decoded
+     */
+    @JvmStatic
+    fun loadImage(view: View, path: String, scale: Int, onLoaded: Consumer<Bitmap?>) {
+        load(view, R.id.preview_image_request, path, "bitmap:$scale", onLoaded) { file, _ ->
+            decodeScaled(file, scale)
+        }
+    }
+
+    /**
+     * Like [loadImage], but for a view's background, which gets loaded independently of its image.
+     */
+    @JvmStatic
+    fun loadBackground(view: View, path: String, scale: Int, onLoaded: Consumer<Bitmap?>) {
+        load(view, R.id.preview_background_request, path, "bitmap:$scale", onLoaded) { file, _ ->
+            decodeScaled(file, scale)
+        }
+    }
+
+    /**
+     * Discards the image a view requested last, e.g. because it's getting another one set directly.
+     */
+    @JvmStatic
+    fun cancelImage(view: View) {
+        view.setTag(R.id.preview_image_request, null)
+    }
+
+    /**
+     * Discards the background a view requested last, e.g. because it's getting another one set directly.
+     */
+    @JvmStatic
+    fun cancelBackground(view: View) {
+        view.setTag(R.id.preview_background_request, null)
+    }
+
+    private fun load(
+        view: View,
+        requestTagId: Int,
+        path: String,
+        variant: String,
+        onLoaded: Consumer<Bitmap?>,
+        decode: (File, String) -> Bitmap?
+    ) {
+        val file = File(path)
+        val key = "$path:${file.lastModified()}:${file.length()}:$variant"
+        val cached = memoryCache.get(key)
+        if (cached != null) {
+            view.setTag(requestTagId, null)
+            onLoaded.accept(cached)
+            return
+        }
+
+        view.setTag(requestTagId, key)
+        executor.execute {
+            val bitmap = try {
+                decode(file, key)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to decode $path", e)
+                null
+            }
+            if (bitmap != null) {
+                memoryCache.put(key, bitmap)
+            }
+            mainHandler.post {
+                // the view might have requested another image in the meantime
+                if (view.getTag(requestTagId) == key) {
+                    view.setTag(requestTagId, null)
+                    onLoaded.accept(bitmap)
+                }
+            }
+        }
+    }
+
+    private fun decodeScaled(file: File, scale: Int): Bitmap? {
+        val bitmap = BitmapFactory.decodeFile(file.absolutePath) ?: return null
+        return Bitmap.createScaledBitmap(bitmap, bitmap.width * scale, bitmap.height * scale, true)
+    }
+
+    private fun rasterizeSvg(file: File, size: Int): Bitmap? {
+        val request = ImageRequest.Builder(SketchApplication.getContext())
+            .data(file)
+            .allowHardware(false)
+            .memoryCachePolicy(CachePolicy.DISABLED)
+            .build()
+        val drawable = svgImageLoader.executeBlocking(request).drawable ?: return null
+        return Bitmap.createScaledBitmap(drawable.toBitmap(), size, size, true)
+    }
+
+    private fun getDiskCacheFile(key: String): File =
+        File(diskCacheDirectory, UUID.nameUUIDFromBytes(key.toByteArray()).toString() + ".png")
+
+    private fun readFromDiskCache(key: String): Bitmap? {
+        val file = getDiskCacheFile(key)
+        if (!file.exists()) return null
+        // mark it as recently used
+        file.setLastModified(System.currentTimeMillis())
+        return BitmapFactory.decodeFile(file.absolutePath)
+    }
+
+    private fun writeToDiskCache(key: String, bitmap: Bitmap) {
+        val file = getDiskCacheFile(key)
+        try {
+            FileOutputStream(file).use { bitmap.compress(Bitmap.CompressFormat.PNG, 100, it) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to cache ${file.absolutePath}", e)
+            file.delete()
+            return
+        }
+
+        val files = diskCacheDirectory.listFiles() ?: return
+        var totalSize = files.sumOf { it.length() }
+        if (totalSize > MAX_DISK_CACHE_SIZE) {
+            files.sortBy { it.lastModified() }
+            for (oldest in files) {
+                if (totalSize <= MAX_DISK_CACHE_SIZE) break
+                totalSize -= oldest.length()
+                oldest.delete()
+            }
+        }
+    }
+}
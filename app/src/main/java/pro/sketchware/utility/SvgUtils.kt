@@ -1,10 +1,8 @@
 package pro.sketchware.utility
 
 import android.content.Context
-import android.graphics.Bitmap
 import android.util.Log
 import android.widget.ImageView
-import androidx.core.graphics.drawable.toBitmap
 import coil.ImageLoader
 import coil.decode.SvgDecoder
 import coil.load
@@ -17,7 +15,6 @@ import java.io.StringReader
 import java.io.StringWriter
 import java.nio.file.Files
 import java.nio.file.Paths
-import kotlin.math.roundToInt
 
 
 const val SIZE_MULTIPLIER = 2
@@ -30,11 +27,7 @@ class SvgUtils(private val context: Context) {
     }
 
     fun initImageLoader() {
-        imageLoader = ImageLoader.Builder(context)
-            .components {
-                add(SvgDecoder.Factory())
-            }
-            .build()
+        imageLoader = PreviewImageLoader.svgImageLoader
     }
 
 
@@ -68,36 +61,10 @@ class SvgUtils(private val context: Context) {
         svgPath: String,
         scaleFactor: Float = 0.5f // Default scaling factor if none is provided
     ) {
-        // Create an ImageLoader with SVG support
-        val imageLoader = ImageLoader.Builder(context)
-            .components {
-                add(SvgDecoder.Factory())
-            }
-            .build()
-
-        // Load the SVG image and apply scaling
-        val request = ImageRequest.Builder(context)
-            .data(svgPath)
-            .target { drawable ->
-                drawable.let {
-                    // Get density scaling
-                    val densityScale =
-                        (context.resources.displayMetrics.density * scaleFactor).roundToInt()
-                    val bitmap = drawable.toBitmap()
-                    // Apply scaling to width and height
-                    val scaledBitmap = Bitmap.createScaledBitmap(
-                        bitmap,
-                        48 * densityScale,
-                        48 * densityScale,
-                        true
-                    )
-                    // Set the scaled image on the ImageView
-                    imageView.setImageBitmap(scaledBitmap)
-                }
-            }
-            .build()
-
-        imageLoader.enqueue(request)
+        PreviewImageLoader.loadSvgImage(imageView, svgPath, scaleFactor) { bitmap ->
+            // Set the scaled image on the ImageView
+            if (bitmap != null) imageView.setImageBitmap(bitmap)
+        }
     }
 
     fun loadWithoutQueue(imageView: ImageView, filePath: String) {